@@ -0,0 +1,42 @@
+package se.jiderhamn;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creation of {@link Bill}s, including calculation of amount.
+ * @author Mattias Jiderhamn
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Thread)
+public class BillBenchmark {
+  
+  private final Duration totalDuration = Duration.ofSeconds(ThreadLocalRandom.current().nextInt(100_000));
+  
+  private final long noOfCalls = ThreadLocalRandom.current().nextInt(1000);
+
+  @Benchmark
+  public Bill createBill() {
+    return new Bill("0701111111", noOfCalls, totalDuration);
+  }
+
+  @Benchmark
+  public String createAndRenderBill() {
+    return new Bill("0701111111", noOfCalls, totalDuration).toString();
+  }
+}
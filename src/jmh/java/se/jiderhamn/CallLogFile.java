@@ -0,0 +1,39 @@
+package se.jiderhamn;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Benchmark input: a call log generated by {@link CallLogGenerator}, of the size given by the parameters.
+ * @author Mattias Jiderhamn
+ */
+@State(Scope.Benchmark)
+public class CallLogFile {
+  
+  @Param({"4000", "1000000"})
+  public int noOfCalls;
+  
+  @Param({"150", "100000"})
+  public int noOfSubscribers;
+  
+  public Path path;
+  
+  @Setup(Level.Trial)
+  public void generate() throws IOException {
+    path = Files.createTempFile("calls-" + noOfCalls + "-" + noOfSubscribers + "-", ".txt");
+    CallLogGenerator.generate(path, noOfSubscribers, noOfCalls);
+  }
+  
+  @TearDown(Level.Trial)
+  public void delete() throws IOException {
+    Files.deleteIfExists(path);
+  }
+}
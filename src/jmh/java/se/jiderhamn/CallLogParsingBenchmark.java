@@ -0,0 +1,90 @@
+package se.jiderhamn;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.file.FlatFileItemReader;
+import org.springframework.batch.item.file.builder.FlatFileItemReaderBuilder;
+import org.springframework.core.io.FileSystemResource;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of call log lines: the whole file, using {@link MappedCallLogItemReader} or the bean mapping 
+ * {@link FlatFileItemReader} it replaced, and single lines, bad lines and durations.
+ * @author Mattias Jiderhamn
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Thread)
+public class CallLogParsingBenchmark {
+  
+  private final ByteBuffer line = ByteBuffer.wrap("0701111111 | 0702222222 | 00:12:34".getBytes(StandardCharsets.ISO_8859_1));
+  
+  private final ByteBuffer badLine = ByteBuffer.wrap("0701111111 | 0702222222 | 00;12;34".getBytes(StandardCharsets.ISO_8859_1));
+  
+  private final CallLogLineParser parser = new CallLogLineParser();
+
+  @Benchmark
+  public void mappedReader(CallLogFile file, Blackhole blackhole) throws Exception {
+    final MappedCallLogItemReader reader = new MappedCallLogItemReader(file.path);
+    reader.open(new ExecutionContext());
+    PhoneCall call;
+    while((call = reader.read()) != null)
+      blackhole.consume(call);
+    reader.close();
+  }
+
+  @Benchmark
+  public void flatFileReader(CallLogFile file, Blackhole blackhole) throws Exception {
+    final FlatFileItemReader<PhoneCall> reader = new FlatFileItemReaderBuilder<PhoneCall>()
+        .name("callLogReader")
+        .resource(new FileSystemResource(file.path.toFile()))
+        .delimited().delimiter("|")
+        .names(new String[] {"fromSubscriber", "toSubscriber", "duration"})
+        .targetType(PhoneCall.class)
+        .build();
+    reader.open(new ExecutionContext());
+    PhoneCall call;
+    while((call = reader.read()) != null)
+      blackhole.consume(call);
+    reader.close();
+  }
+
+  @Benchmark
+  public PhoneCall parseLine() {
+    return parser.parse(line, 0, line.limit(), 1, "benchmark");
+  }
+
+  /** Bad lines are skipped, so should cost about as much as good ones */
+  @Benchmark
+  public Exception parseBadLine() {
+    try {
+      parser.parse(badLine, 0, badLine.limit(), 1, "benchmark");
+      throw new IllegalStateException("Line should not parse");
+    }
+    catch (CallLogParseException e) {
+      return e;
+    }
+  }
+
+  @Benchmark
+  public PhoneCall setDuration() {
+    final PhoneCall call = new PhoneCall();
+    call.setDuration("00:12:34");
+    return call;
+  }
+}
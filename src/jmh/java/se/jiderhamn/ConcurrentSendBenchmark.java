@@ -0,0 +1,95 @@
+package se.jiderhamn;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to send 1k, 10k and 100k batches of bills at once with a {@link StubBillSender} that blocks the sending thread
+ * during its latency of 10 ms, using either {@link VirtualThreads} or a fixed pool of 200 platform threads. Also
+ * reports the heap used once all sends have been submitted. Virtual threads require running the benchmark on JDK 21+,
+ * otherwise {@code virtual} falls back to a fixed pool of {@link VirtualThreads#FALLBACK_THREADS}.
+ * @author Mattias Jiderhamn
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class ConcurrentSendBenchmark {
+
+  private static final int FIXED_THREADS = 200;
+
+  private static final long LATENCY_MILLIS = 10;
+
+  @Param({"1000", "10000", "100000"})
+  public int sends;
+
+  @Param({"virtual", "fixed"})
+  public String executor;
+
+  private ExecutorService executorService;
+
+  private final StubBillSender billSender = new StubBillSender();
+
+  private final Bill bill = new Bill("0701234567", 1, Duration.ofSeconds(60));
+
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  @State(Scope.Thread)
+  public static class Memory {
+
+    /** Heap used when all sends have been submitted */
+    public long usedHeapMB;
+  }
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    executorService = "virtual".equals(executor) ? VirtualThreads.newExecutor("send-") :
+        Executors.newFixedThreadPool(FIXED_THREADS);
+  }
+
+  @Setup(Level.Iteration)
+  public void reset() {
+    billSender.reset();
+    billSender.setLatencyMillis(LATENCY_MILLIS);
+    billSender.setBlockingExecutor(executorService);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    executorService.shutdownNow();
+    billSender.shutdown();
+  }
+
+  @Benchmark
+  public int send(Memory memory) {
+    final List<CompletableFuture<List<BillSender.Result>>> futures = new ArrayList<>(sends);
+    for(int i = 0; i < sends; i++)
+      futures.add(billSender.send(Collections.singletonMap("bill-" + i, bill)));
+    memory.usedHeapMB = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() >> 20;
+    CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+    return billSender.getNoOfDelivered();
+  }
+}
@@ -0,0 +1,139 @@
+package se.jiderhamn;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of chunks of 100 calls or bills persisted by 1, 2, 4 and 8 concurrent writers, to show how writes to
+ * {@link PhoneCallDAO} and {@link BillDAO} scale with the number of threads.
+ * @author Mattias Jiderhamn
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Benchmark)
+public class DAOWriteScalingBenchmark {
+
+  private static final int CHUNK_SIZE = 100;
+
+  private static final int NO_OF_SUBSCRIBERS = 10_000;
+
+  /** Reset the repositories when this many items are stored, so that memory does not run out */
+  private static final int MAX_ITEMS = 10_000_000;
+
+  /** Chunk written repeatedly by one thread */
+  @State(Scope.Thread)
+  public static class Chunk {
+
+    private final List<PhoneCall> calls = new ArrayList<>(CHUNK_SIZE);
+
+    private final List<Bill> bills = new ArrayList<>(CHUNK_SIZE);
+
+    private int writes;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+      final SplittableRandom rand = new SplittableRandom(Thread.currentThread().getId());
+      for(int i = 0; i < CHUNK_SIZE; i++) {
+        final String from = String.format("070%07d", rand.nextInt(NO_OF_SUBSCRIBERS));
+        final String to = String.format("070%07d", rand.nextInt(NO_OF_SUBSCRIBERS));
+        final Duration duration = Duration.ofSeconds(rand.nextInt(4000) + 1);
+        calls.add(new PhoneCall(from, to, duration));
+        bills.add(new Bill(from, 1, duration));
+      }
+    }
+
+    /** Check if it is time to reset, now and then, to avoid the overhead of summing the size on every write */
+    boolean isResetDue() {
+      return ++writes % 1000 == 0;
+    }
+  }
+
+  @Setup(Level.Iteration)
+  public void reset() {
+    PhoneCallDAO.reset();
+    BillDAO.reset();
+  }
+
+  //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  @Benchmark
+  @Threads(1)
+  public void persistCalls_1(Chunk chunk) {
+    persistCalls(chunk);
+  }
+
+  @Benchmark
+  @Threads(2)
+  public void persistCalls_2(Chunk chunk) {
+    persistCalls(chunk);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void persistCalls_4(Chunk chunk) {
+    persistCalls(chunk);
+  }
+
+  @Benchmark
+  @Threads(8)
+  public void persistCalls_8(Chunk chunk) {
+    persistCalls(chunk);
+  }
+
+  private static void persistCalls(Chunk chunk) {
+    PhoneCallDAO.persist(chunk.calls);
+    if(chunk.isResetDue() && PhoneCallDAO.getNoOfCalls() > MAX_ITEMS)
+      PhoneCallDAO.reset();
+  }
+
+  //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  @Benchmark
+  @Threads(1)
+  public void persistBills_1(Chunk chunk) {
+    persistBills(chunk);
+  }
+
+  @Benchmark
+  @Threads(2)
+  public void persistBills_2(Chunk chunk) {
+    persistBills(chunk);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public void persistBills_4(Chunk chunk) {
+    persistBills(chunk);
+  }
+
+  @Benchmark
+  @Threads(8)
+  public void persistBills_8(Chunk chunk) {
+    persistBills(chunk);
+  }
+
+  private static void persistBills(Chunk chunk) {
+    BillDAO.persist(chunk.bills);
+    if(chunk.isResetDue() && BillDAO.findAll().size() > MAX_ITEMS)
+      BillDAO.reset();
+  }
+}
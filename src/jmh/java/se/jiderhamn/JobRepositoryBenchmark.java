@@ -0,0 +1,153 @@
+package se.jiderhamn;
+
+import ch.qos.logback.classic.Level;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.configuration.annotation.EnableBatchProcessing;
+import org.springframework.batch.core.launch.JobLauncher;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time spent in the job repository per chunk commit, for each step of parseCallLogJob, with the in-memory repository
+ * and with {@link JdbcBatchConfigurer} on an embedded H2 database, writing the context of running steps on every
+ * commit or every 10th. Each iteration is one run of the job. The total is reported as
+ * {@code repositoryMicrosPerCommit}, and the times per step are printed after each run.
+ * @author Mattias Jiderhamn
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@State(Scope.Benchmark)
+public class JobRepositoryBenchmark {
+
+  @Param({JobConfiguration.READ_MODE_SEQUENTIAL, JobConfiguration.READ_MODE_STREAMING, JobConfiguration.READ_MODE_PARTITIONED})
+  public String readMode;
+
+  @Param({"map", "h2", "h2-interval10"})
+  public String repository;
+
+  /** Timer of the job repository of the running benchmark, which is created by Spring */
+  private static JobRepositoryTimer timer;
+
+  private static int contextCommitInterval;
+
+  private AnnotationConfigApplicationContext context;
+
+  private JobLauncher jobLauncher;
+
+  private Job job;
+
+  private long runId;
+
+  @Configuration
+  @EnableBatchProcessing
+  static class MapConfiguration extends BatchTestConfiguration {
+
+    private JobRepository jobRepository;
+
+    @Override
+    public JobRepository getJobRepository() {
+      if(jobRepository == null)
+        jobRepository = timer.decorate(super.getJobRepository());
+      return jobRepository;
+    }
+  }
+
+  @Configuration
+  @EnableBatchProcessing
+  static class H2Configuration extends JdbcBatchConfigurer {
+
+    H2Configuration() {
+      super(new EmbeddedDatabaseBuilder()
+          .setType(EmbeddedDatabaseType.H2)
+          .generateUniqueName(true)
+          .addScript("/org/springframework/batch/core/schema-h2.sql")
+          .build());
+      setContextCommitInterval(contextCommitInterval, JobConfiguration.IDEMPOTENT_STEPS);
+    }
+
+    @Override
+    protected JobRepository createJobRepository() throws Exception {
+      return timer.decorate(super.createJobRepository());
+    }
+  }
+
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  @State(Scope.Thread)
+  public static class Overhead {
+
+    /** Time spent in the job repository per chunk commit, for all steps */
+    public double repositoryMicrosPerCommit;
+  }
+
+  @Setup
+  public void setUp() {
+    // Per item logging would dominate
+    ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+
+    timer = new JobRepositoryTimer();
+    contextCommitInterval = "h2-interval10".equals(repository) ? 10 : 1;
+    context = new AnnotationConfigApplicationContext("map".equals(repository) ? MapConfiguration.class :
+        H2Configuration.class, JobConfiguration.class);
+    jobLauncher = context.getBean(JobLauncher.class);
+    job = context.getBean("parseCallLogJob", Job.class);
+  }
+
+  @TearDown
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  public JobExecution parseCallLog(CallLogFile file, Overhead overhead) throws Exception {
+    BillDAO.reset();
+    PhoneCallDAO.reset();
+    timer.reset();
+    final JobExecution jobExecution = jobLauncher.run(job, new JobParametersBuilder()
+        .addString("filePath", file.path.toString())
+        .addString("readMode", readMode)
+        .addLong("run.id", ++runId)
+        .toJobParameters());
+    if(jobExecution.getStatus() != BatchStatus.COMPLETED)
+      throw new IllegalStateException("Job did not complete: " + jobExecution);
+
+    long nanos = 0, commits = 0;
+    final StringBuilder report = new StringBuilder(repository).append(' ').append(readMode);
+    for(Map.Entry<String, JobRepositoryTimer.StepTimes> step : timer.getSteps().entrySet()) {
+      final JobRepositoryTimer.StepTimes times = step.getValue();
+      report.append(String.format("%n  %-35s %8d commits %10.1f us/commit", step.getKey(), times.commits.sum(),
+          times.getMicrosPerCommit()));
+      nanos += times.nanos.sum();
+      commits += times.commits.sum();
+    }
+    overhead.repositoryMicrosPerCommit = nanos / 1000d / Math.max(1, commits);
+    System.out.println(report);
+    return jobExecution;
+  }
+}
@@ -0,0 +1,76 @@
+package se.jiderhamn;
+
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.JobRepository;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decorates a {@link JobRepository} to measure the time spent updating step executions and their contexts, which is
+ * what the repository adds to each chunk commit. Partitions are counted as the step they belong to.
+ * @author Mattias Jiderhamn
+ */
+class JobRepositoryTimer {
+
+  static class StepTimes {
+
+    final LongAdder nanos = new LongAdder();
+
+    final LongAdder commits = new LongAdder();
+
+    double getMicrosPerCommit() {
+      return nanos.sum() / 1000d / Math.max(1, commits.sum());
+    }
+  }
+
+  /** Methods called with the step execution on each chunk commit */
+  private static final Set<String> PER_COMMIT = new HashSet<>(Arrays.asList("update", "updateExecutionContext"));
+
+  /** Times per step name */
+  private final Map<String, StepTimes> steps = new ConcurrentHashMap<>();
+
+  JobRepository decorate(JobRepository jobRepository) {
+    return (JobRepository) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {JobRepository.class},
+        (proxy, method, args) -> {
+          final long start = System.nanoTime();
+          try {
+            return method.invoke(jobRepository, args);
+          }
+          catch (InvocationTargetException e) {
+            throw e.getTargetException();
+          }
+          finally {
+            if(PER_COMMIT.contains(method.getName()) && args[0] instanceof StepExecution)
+              record((StepExecution) args[0], System.nanoTime() - start);
+          }
+        });
+  }
+
+  private void record(StepExecution stepExecution, long nanos) {
+    final String stepName = stepExecution.getStepName().split(":")[0];
+    final StepTimes times = steps.computeIfAbsent(stepName, name -> new StepTimes());
+    times.nanos.add(nanos);
+    if(stepExecution.getStatus() != BatchStatus.STARTED && stepExecution.getEndTime() != null)
+      times.commits.add(stepExecution.getCommitCount()); // Final update of the step
+  }
+
+  /** @return Times per step with any chunks committed, sorted by step name */
+  Map<String, StepTimes> getSteps() {
+    final Map<String, StepTimes> chunkSteps = new TreeMap<>(steps);
+    chunkSteps.values().removeIf(times -> times.commits.sum() == 0);
+    return chunkSteps;
+  }
+
+  void reset() {
+    steps.clear();
+  }
+}
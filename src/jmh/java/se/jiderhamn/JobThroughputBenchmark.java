@@ -0,0 +1,78 @@
+package se.jiderhamn;
+
+import ch.qos.logback.classic.Level;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.launch.JobLauncher;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full runs of parseCallLogJob, excluding Spring context startup.
+ * @author Mattias Jiderhamn
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class JobThroughputBenchmark {
+  
+  @Param({JobConfiguration.READ_MODE_SEQUENTIAL, JobConfiguration.READ_MODE_STREAMING, JobConfiguration.READ_MODE_PARTITIONED})
+  public String readMode;
+  
+  private AnnotationConfigApplicationContext context;
+  
+  private JobLauncher jobLauncher;
+  
+  private Job job;
+  
+  private long runId;
+  
+  @Setup
+  public void setUp() {
+    // Per item logging would dominate
+    ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+    
+    context = new AnnotationConfigApplicationContext(BatchTestConfiguration.class, JobConfiguration.class);
+    jobLauncher = context.getBean(JobLauncher.class);
+    job = context.getBean("parseCallLogJob", Job.class);
+  }
+  
+  @TearDown
+  public void tearDown() {
+    context.close();
+  }
+
+  @Benchmark
+  public JobExecution parseCallLog(CallLogFile file) throws Exception {
+    BillDAO.reset();
+    PhoneCallDAO.reset();
+    final JobExecution jobExecution = jobLauncher.run(job, new JobParametersBuilder()
+        .addString("filePath", file.path.toString())
+        .addString("readMode", readMode)
+        .addLong("run.id", ++runId)
+        .toJobParameters());
+    if(jobExecution.getStatus() != BatchStatus.COMPLETED)
+      throw new IllegalStateException("Job did not complete: " + jobExecution);
+    return jobExecution;
+  }
+}
@@ -0,0 +1,69 @@
+package se.jiderhamn;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.batch.item.ExecutionContext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Storing calls in {@link PhoneCallDAO} and querying the subscribers and their totals.
+ * @author Mattias Jiderhamn
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@State(Scope.Benchmark)
+public class PhoneCallDAOBenchmark {
+  
+  private List<PhoneCall> calls;
+  
+  private List<String> subscribers;
+  
+  @Setup(Level.Trial)
+  public void setUp(CallLogFile file) throws Exception {
+    calls = new ArrayList<>(file.noOfCalls);
+    final MappedCallLogItemReader reader = new MappedCallLogItemReader(file.path);
+    reader.open(new ExecutionContext());
+    PhoneCall call;
+    while((call = reader.read()) != null)
+      calls.add(call);
+    reader.close();
+
+    persistAll();
+    subscribers = PhoneCallDAO.getSubscribers();
+  }
+
+  @Benchmark
+  public void persistAll() {
+    PhoneCallDAO.reset();
+    PhoneCallDAO.persist(calls);
+  }
+
+  @Benchmark
+  public List<String> getSubscribers() {
+    return PhoneCallDAO.getSubscribers();
+  }
+
+  @Benchmark
+  public void getTotals(Blackhole blackhole) {
+    for(String subscriber : subscribers) {
+      blackhole.consume(PhoneCallDAO.getTotalNoOfCallsFrom(subscriber));
+      blackhole.consume(PhoneCallDAO.getTotalDurationOfCallsFrom(subscriber));
+    }
+  }
+}
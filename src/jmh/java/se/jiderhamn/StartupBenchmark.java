@@ -0,0 +1,117 @@
+package se.jiderhamn;
+
+import ch.qos.logback.classic.Level;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Startup cost of launching parseCallLogJob for a small call log: creating the Spring context in a new JVM, running
+ * the first job in a new JVM, and running a job in a warm context via {@link JobLaunchService}. The time from launch
+ * until the first step starts is reported as {@code millisToFirstStep}, summed over iterations, so see its avg.
+ * @author Mattias Jiderhamn
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class StartupBenchmark {
+
+  private Path callLog;
+
+  private AnnotationConfigApplicationContext context;
+
+  private long runId;
+
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  @State(Scope.Thread)
+  public static class Timing {
+
+    public double millisToFirstStep;
+  }
+
+  @Setup
+  public void setUp() throws IOException {
+    // Per item logging would dominate
+    ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+
+    callLog = Files.createTempFile("calls-", ".txt");
+    CallLogGenerator.generate(callLog, 10, 100);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    if(context != null)
+      context.close();
+    Files.delete(callLog);
+  }
+
+  private static AnnotationConfigApplicationContext createContext() {
+    return new AnnotationConfigApplicationContext(BatchTestConfiguration.class, JobConfiguration.class);
+  }
+
+  /** Create the context in a new JVM */
+  @Benchmark
+  @Fork(10)
+  @Warmup(iterations = 0)
+  @Measurement(iterations = 1)
+  public AnnotationConfigApplicationContext coldContext() {
+    context = createContext();
+    return context;
+  }
+
+  /** Create the context and run the first job, in a new JVM */
+  @Benchmark
+  @Fork(10)
+  @Warmup(iterations = 0)
+  @Measurement(iterations = 1)
+  public JobExecution firstJob(Timing timing) throws Exception {
+    context = createContext();
+    return launch(timing);
+  }
+
+  /** Run a job in a context that has already run many */
+  @Benchmark
+  @Fork(1)
+  @Warmup(iterations = 200)
+  @Measurement(iterations = 50)
+  public JobExecution steadyStateJob(Timing timing) throws Exception {
+    if(context == null)
+      context = createContext();
+    return launch(timing);
+  }
+
+  private JobExecution launch(Timing timing) throws Exception {
+    final long start = System.currentTimeMillis();
+    final JobExecution jobExecution = context.getBean(JobLaunchService.class).launch(new JobParametersBuilder()
+        .addString("filePath", callLog.toString())
+        .addLong("run.id", ++runId)
+        .toJobParameters()).get();
+    if(jobExecution.getStatus() != BatchStatus.COMPLETED)
+      throw new IllegalStateException("Job did not complete: " + jobExecution);
+    timing.millisToFirstStep = jobExecution.getStepExecutions().stream()
+        .map(stepExecution -> stepExecution.getStartTime().getTime())
+        .min(Comparator.naturalOrder()).orElse(start) - start;
+    return jobExecution;
+  }
+}
@@ -0,0 +1,154 @@
+package se.jiderhamn;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.ChunkListener;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.core.scope.context.ChunkContext;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.repeat.policy.SimpleCompletionPolicy;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Completion policy that completes chunks after a number of items, like {@link SimpleCompletionPolicy}, but where the
+ * number of items is adjusted after each chunk toward a target commit latency. The size is never changed by more than
+ * a factor 2 at a time, and is kept within bounds. When not enabled, the chunk size stays the initial size.
+ *
+ * The policy must also be registered as listener of the step, and holds state for a single step execution, so it
+ * should be step scoped. The chunk sizes are reported in the {@link ExecutionContext} of the step, committed with each
+ * chunk, and a restarted step continues from the size of the last chunk committed.
+ * @author Mattias Jiderhamn
+ */
+@SuppressWarnings("WeakerAccess")
+public class AdaptiveCompletionPolicy extends SimpleCompletionPolicy implements ChunkListener, StepExecutionListener {
+
+  private static final Logger LOG = LoggerFactory.getLogger("AdaptiveCompletionPolicy");
+
+  /** Key of the current chunk size in the {@link ExecutionContext} of the step */
+  public static final String CHUNK_SIZE = "chunkSize";
+
+  /** Key of the smallest chunk size used in the {@link ExecutionContext} of the step */
+  public static final String MIN_CHUNK_SIZE = "minChunkSize";
+
+  /** Key of the largest chunk size used in the {@link ExecutionContext} of the step */
+  public static final String MAX_CHUNK_SIZE = "maxChunkSize";
+
+  /** Do not adjust if latency is within this share of the target, to avoid oscillating */
+  private static final double TOLERANCE = 0.1;
+
+  private final boolean enabled;
+
+  private final long targetNanos;
+
+  private final int minSize;
+
+  private final int maxSize;
+
+  private int size;
+
+  private int smallestSize;
+
+  private int largestSize;
+
+  private long chunkStart;
+
+  private int readCountAtChunkStart;
+
+  public AdaptiveCompletionPolicy(int initialSize) {
+    this(false, initialSize, 0, initialSize, initialSize);
+  }
+
+  public AdaptiveCompletionPolicy(boolean enabled, int initialSize, long targetCommitMillis, int minSize, int maxSize) {
+    super(initialSize);
+    if(minSize < 1 || minSize > maxSize)
+      throw new IllegalArgumentException("Invalid bounds of chunk size: " + minSize + " - " + maxSize);
+    this.enabled = enabled;
+    this.targetNanos = TimeUnit.MILLISECONDS.toNanos(targetCommitMillis);
+    this.minSize = minSize;
+    this.maxSize = maxSize;
+    setSize(Math.max(minSize, Math.min(maxSize, initialSize)));
+    this.smallestSize = this.largestSize = this.size;
+  }
+
+  public int getSize() {
+    return size;
+  }
+
+  private void setSize(int size) {
+    this.size = size;
+    setChunkSize(size);
+  }
+
+  //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // StepExecutionListener
+
+  @Override
+  public void beforeStep(StepExecution stepExecution) {
+    final ExecutionContext executionContext = stepExecution.getExecutionContext();
+    if(enabled && executionContext.containsKey(CHUNK_SIZE)) { // Restart
+      setSize(Math.max(minSize, Math.min(maxSize, executionContext.getInt(CHUNK_SIZE))));
+      smallestSize = Math.min(size, executionContext.getInt(MIN_CHUNK_SIZE, size));
+      largestSize = Math.max(size, executionContext.getInt(MAX_CHUNK_SIZE, size));
+    }
+  }
+
+  @Override
+  public ExitStatus afterStep(StepExecution stepExecution) {
+    if(enabled)
+      LOG.info("{} chunk size {}, between {} and {}", stepExecution.getStepName(), size, smallestSize, largestSize);
+    return null;
+  }
+
+  //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // ChunkListener
+
+  /** Put the size of the chunk in the context, that is committed with the chunk */
+  @Override
+  public void beforeChunk(ChunkContext context) {
+    chunkStart = System.nanoTime();
+    final StepExecution stepExecution = context.getStepContext().getStepExecution();
+    readCountAtChunkStart = stepExecution.getReadCount();
+    if(enabled) {
+      final ExecutionContext executionContext = stepExecution.getExecutionContext();
+      executionContext.putInt(CHUNK_SIZE, size);
+      executionContext.putInt(MIN_CHUNK_SIZE, smallestSize);
+      executionContext.putInt(MAX_CHUNK_SIZE, largestSize);
+    }
+  }
+
+  /** Adjust the size of the next chunk, after this one has been committed */
+  @Override
+  public void afterChunk(ChunkContext context) {
+    if(! enabled)
+      return;
+
+    final long latency = Math.max(1, System.nanoTime() - chunkStart);
+    final StepExecution stepExecution = context.getStepContext().getStepExecution();
+    final int items = stepExecution.getReadCount() - readCountAtChunkStart;
+    if(items > 0 && Math.abs(latency - targetNanos) > targetNanos * TOLERANCE) {
+      // Number of items that would have been committed at the target latency, at the rate of this chunk
+      final double wanted = (double) items * targetNanos / latency;
+      final double limited = Math.max(size / 2.0, Math.min(size * 2.0, wanted));
+      final int newSize = (int) Math.max(minSize, Math.min(maxSize, Math.round(limited)));
+      if(newSize != size) {
+        LOG.debug("{} committed {} items in {} ms; changing chunk size from {} to {}", stepExecution.getStepName(),
+            items, TimeUnit.NANOSECONDS.toMillis(latency), size, newSize);
+        setSize(newSize);
+        smallestSize = Math.min(smallestSize, newSize);
+        largestSize = Math.max(largestSize, newSize);
+      }
+    }
+  }
+
+  @Override
+  public void afterChunkError(ChunkContext context) {
+  }
+
+  @Override
+  public String toString() {
+    return "AdaptiveCompletionPolicy[size=" + size + (enabled ? ", target=" + targetNanos + " ns" : "") + "]";
+  }
+}
@@ -0,0 +1,269 @@
+package se.jiderhamn;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Durable log of binary records, that can only be appended to. The records are written to segment files named
+ * {@code <name>-<number>.log} in a directory, with a new segment started when the current one is full. Each segment
+ * starts with a magic number and version, and each record consists of the length and CRC32 checksum of its payload,
+ * followed by the payload.
+ *
+ * Appending a record writes it to the file without waiting for it to reach the disk. {@link #sync(long)} then forces
+ * all records appended so far to disk, so that concurrent writers share a single {@code fsync}. When a log is opened,
+ * a partially written or corrupt record at the end of a segment is truncated. Records are read via memory mapping.
+ * @author Mattias Jiderhamn
+ */
+class AppendOnlyLog implements Closeable {
+
+  private static final Logger LOG = LoggerFactory.getLogger("AppendOnlyLog");
+
+  private static final int MAGIC = 0x53424c47; // SBLG
+
+  private static final int VERSION = 1;
+
+  private static final int SEGMENT_HEADER_SIZE = 8;
+
+  static final int RECORD_HEADER_SIZE = 8;
+
+  /** Location of a record in the log */
+  static class Location {
+
+    final int segment;
+
+    /** Position of the payload in the segment */
+    final long position;
+
+    final int length;
+
+    /** Number of bytes appended to the log up to and including this record, to {@link #sync(long)} */
+    final long sequence;
+
+    private Location(int segment, long position, int length, long sequence) {
+      this.segment = segment;
+      this.position = position;
+      this.length = length;
+      this.sequence = sequence;
+    }
+  }
+
+  @FunctionalInterface
+  interface RecordVisitor {
+    void visit(Location location, ByteBuffer payload);
+  }
+
+  private final Path directory;
+
+  private final String name;
+
+  private final long maxSegmentSize;
+
+  /** Guarded by this */
+  private final List<Segment> segments = new ArrayList<>();
+
+  /** Number of bytes appended */
+  private volatile long appended;
+
+  /** Number of bytes forced to disk */
+  private volatile long synced;
+
+  private final Object syncLock = new Object();
+
+  AppendOnlyLog(Path directory, String name, long maxSegmentSize) throws IOException {
+    this.directory = directory;
+    this.name = name;
+    this.maxSegmentSize = maxSegmentSize;
+    Files.createDirectories(directory);
+
+    final List<Path> paths = new ArrayList<>();
+    try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, name + "-*.log")) {
+      stream.forEach(paths::add);
+    }
+    paths.sort(null); // Zero padded numbers
+    for(Path path : paths) {
+      final Segment segment = new Segment(path, false);
+      segment.recover();
+      segments.add(segment);
+    }
+    appended = synced = segments.stream().mapToLong(segment -> segment.size).sum();
+  }
+
+  /** Append record to the log, without forcing it to disk */
+  synchronized Location append(ByteBuffer payload) throws IOException {
+    final int length = payload.remaining();
+    Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+    if(segment == null ||
+        (segment.size > SEGMENT_HEADER_SIZE && segment.size + RECORD_HEADER_SIZE + length > maxSegmentSize)) {
+      if(segment != null)
+        segment.channel.force(false); // Since sync() only forces the current segment
+      segment = new Segment(directory.resolve(String.format("%s-%06d.log", name, segments.size())), true);
+      segments.add(segment);
+    }
+
+    final CRC32 crc = new CRC32();
+    crc.update(payload.duplicate());
+    final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+    header.putInt(length).putInt((int) crc.getValue()).flip();
+    final long position = segment.size;
+    segment.write(new ByteBuffer[] {header, payload}, position);
+    segment.size += RECORD_HEADER_SIZE + length;
+    appended += RECORD_HEADER_SIZE + length;
+    return new Location(segments.size() - 1, position + RECORD_HEADER_SIZE, length, appended);
+  }
+
+  /** Force all records appended up to the sequence to disk, unless already done by another thread */
+  void sync(long sequence) throws IOException {
+    if(synced >= sequence)
+      return;
+    synchronized (syncLock) {
+      if(synced >= sequence)
+        return;
+      final long target = appended;
+      final Segment segment;
+      synchronized (this) {
+        segment = segments.get(segments.size() - 1);
+      }
+      segment.channel.force(false);
+      synced = target;
+    }
+  }
+
+  /** Read all records, in the order they were appended */
+  void forEach(RecordVisitor visitor) throws IOException {
+    final int noOfSegments;
+    synchronized (this) {
+      noOfSegments = segments.size();
+    }
+    for(int i = 0; i < noOfSegments; i++) {
+      final Segment segment = getSegment(i);
+      final ByteBuffer buffer = segment.map(segment.size);
+      int position = SEGMENT_HEADER_SIZE;
+      while(position + RECORD_HEADER_SIZE <= buffer.limit()) {
+        final int length = buffer.getInt(position);
+        final ByteBuffer payload = slice(buffer, position + RECORD_HEADER_SIZE, length);
+        visitor.visit(new Location(i, position + RECORD_HEADER_SIZE, length, 0), payload);
+        position += RECORD_HEADER_SIZE + length;
+      }
+    }
+  }
+
+  /** @return Read only buffer of the whole segment, that contains at least the record */
+  ByteBuffer mapped(Location location) throws IOException {
+    return getSegment(location.segment).map(location.position + location.length);
+  }
+
+  private synchronized Segment getSegment(int index) {
+    return segments.get(index);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    for(Segment segment : segments) {
+      segment.channel.force(false);
+      segment.channel.close();
+    }
+    segments.clear();
+  }
+
+  private static ByteBuffer slice(ByteBuffer buffer, int position, int length) {
+    final ByteBuffer slice = buffer.duplicate();
+    slice.position(position).limit(position + length);
+    return slice.slice();
+  }
+
+  /** Segment file, with its channel kept open */
+  private static class Segment {
+
+    private final Path path;
+
+    private final FileChannel channel;
+
+    /** Number of bytes of valid records, including header */
+    private volatile long size;
+
+    /** Read only mapping of the segment, that may be shorter than the segment if appended after mapping */
+    private volatile MappedByteBuffer mapped;
+
+    private Segment(Path path, boolean create) throws IOException {
+      this.path = path;
+      if(create) {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+        final ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        write(new ByteBuffer[] {header}, 0);
+        this.size = SEGMENT_HEADER_SIZE;
+      }
+      else
+        this.channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private void write(ByteBuffer[] buffers, long position) throws IOException {
+      channel.position(position);
+      long remaining = 0;
+      for(ByteBuffer buffer : buffers)
+        remaining += buffer.remaining();
+      while(remaining > 0)
+        remaining -= channel.write(buffers);
+    }
+
+    /** Validate the records of the segment, and truncate any invalid tail */
+    private void recover() throws IOException {
+      final long fileSize = channel.size();
+      if(fileSize < SEGMENT_HEADER_SIZE) {
+        LOG.warn("Truncated header of {} - rewriting", path);
+        final ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        channel.truncate(0);
+        write(new ByteBuffer[] {header}, 0);
+        size = SEGMENT_HEADER_SIZE;
+        return;
+      }
+
+      final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+      if(buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+        throw new IOException(path + " is not a log segment of version " + VERSION);
+
+      final CRC32 crc = new CRC32();
+      long position = SEGMENT_HEADER_SIZE;
+      while(position + RECORD_HEADER_SIZE <= fileSize) {
+        final int length = buffer.getInt((int) position);
+        if(length < 0 || position + RECORD_HEADER_SIZE + length > fileSize)
+          break;
+        crc.reset();
+        crc.update(slice(buffer, (int) position + RECORD_HEADER_SIZE, length));
+        if((int) crc.getValue() != buffer.getInt((int) position + 4))
+          break;
+        position += RECORD_HEADER_SIZE + length;
+      }
+      size = position;
+      if(position < fileSize) {
+        LOG.warn("Truncating {} bytes of incomplete or corrupt records at the end of {}", fileSize - position, path);
+        channel.truncate(position);
+        channel.force(false);
+      }
+    }
+
+    private ByteBuffer map(long minSize) throws IOException {
+      MappedByteBuffer current = mapped;
+      if(current == null || current.capacity() < minSize) {
+        current = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        mapped = current;
+      }
+      return current;
+    }
+  }
+}
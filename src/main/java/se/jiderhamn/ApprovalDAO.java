@@ -1,7 +1,9 @@
 package se.jiderhamn;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * @author Mattias Jiderhamn
@@ -9,14 +11,53 @@ import java.util.Map;
 @SuppressWarnings("WeakerAccess")
 public class ApprovalDAO {
   
-  private static final Map<String, Boolean> approved = new HashMap<>();
+  private static final Map<String, Boolean> approved = new ConcurrentHashMap<>();
+  
+  /** Listeners waiting for a key to be approved, each called once */
+  private static final Map<String, List<Runnable>> listeners = new ConcurrentHashMap<>();
   
   public static void setManuallyApproved(String key, boolean value) {
     approved.put(key, value);
+    if(value)
+      notifyListeners(key);
   }
   
   public static boolean isManuallyApproved(String key) {
     return approved.getOrDefault(key, Boolean.FALSE);
   }
   
-}
\ No newline at end of file
+  /** 
+   * Call {@code listener} once {@code key} is approved, or right away if already approved. The listener is called by 
+   * the thread approving, so it should hand off any real work.
+   */
+  public static void onApproval(String key, Runnable listener) {
+    listeners.compute(key, (k, waiting) -> {
+      final List<Runnable> list = (waiting != null) ? waiting : new ArrayList<>();
+      list.add(listener);
+      return list;
+    });
+    if(isManuallyApproved(key)) // Approved while registering
+      notifyListeners(key);
+  }
+  
+  /** Stop waiting for {@code key} to be approved, if {@code listener} has not been called yet */
+  public static void removeListener(String key, Runnable listener) {
+    listeners.computeIfPresent(key, (k, waiting) -> {
+      waiting.remove(listener);
+      return waiting.isEmpty() ? null : waiting;
+    });
+  }
+  
+  private static void notifyListeners(String key) {
+    final List<Runnable> waiting = listeners.remove(key); // Atomic with registration, so each listener is called once
+    if(waiting != null)
+      waiting.forEach(Runnable::run);
+  }
+  
+  /** Reset fake repository for next text case */
+  public static void reset() {
+    approved.clear();
+    listeners.clear();
+  }
+  
+}
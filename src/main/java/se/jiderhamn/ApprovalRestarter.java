@@ -0,0 +1,180 @@
+package se.jiderhamn;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobExecutionListener;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.configuration.JobRegistry;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.core.launch.JobLauncher;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Restarts a job that stopped for manual approval as soon as its call log, or all of its call logs, are approved in
+ * {@link ApprovalDAO}, if job parameter {@code autoRestartOnApproval} is true. This way neither an operator nor a
+ * scheduler needs to relaunch parked jobs to find out whether they have been approved. Restarts are run by the given
+ * executor, so approving many files at once queues the jobs instead of launching them all at the same time. A job
+ * instance that stops again before it has been restarted, such as when relaunched manually, is only restarted once.
+ * An instance that completes when relaunched manually, or that is abandoned, is no longer waited for.
+ * @author Mattias Jiderhamn
+ */
+public class ApprovalRestarter implements JobExecutionListener {
+
+  private static final Logger LOG = LoggerFactory.getLogger("ApprovalRestarter");
+
+  static final String AUTO_RESTART = "autoRestartOnApproval";
+
+  /** Max time to wait for the stopped execution to be saved before restarting */
+  private static final long STOP_TIMEOUT_MILLIS = 10_000;
+
+  private final JobRegistry jobRegistry;
+
+  private final JobLauncher jobLauncher;
+
+  private final JobExplorer jobExplorer;
+
+  private final Executor executor;
+
+  /** Job instances waiting for approval or to be restarted, by instance id */
+  private final Map<Long, Waiting> pending = new ConcurrentHashMap<>();
+
+  public ApprovalRestarter(JobRegistry jobRegistry, JobLauncher jobLauncher, JobExplorer jobExplorer,
+                           Executor executor) {
+    this.jobRegistry = jobRegistry;
+    this.jobLauncher = jobLauncher;
+    this.jobExplorer = jobExplorer;
+    this.executor = executor;
+  }
+
+  @Override
+  public void beforeJob(JobExecution jobExecution) {
+  }
+
+  @Override
+  public void afterJob(JobExecution jobExecution) {
+    releaseAbandoned();
+    final JobInstance jobInstance = jobExecution.getJobInstance();
+    if(jobExecution.getStatus() != BatchStatus.STOPPED) { // Such as when relaunched manually
+      release(jobInstance.getInstanceId());
+      return;
+    }
+
+    final JobParameters jobParameters = jobExecution.getJobParameters();
+    if(! Boolean.parseBoolean(jobParameters.getString("manualApproval")) ||
+        ! Boolean.parseBoolean(jobParameters.getString(AUTO_RESTART)))
+      return;
+
+    final List<String> files = CallLogFiles.getFiles(jobExecution);
+    final List<String> notApproved = ((files != null) ? files : Collections.singletonList(jobParameters.getString("filePath")))
+        .stream().filter(file -> ! ApprovalDAO.isManuallyApproved(file)).collect(toList());
+    final Waiting waiting = new Waiting(jobExecution, notApproved);
+    if(pending.putIfAbsent(jobInstance.getInstanceId(), waiting) != null) {
+      LOG.info("Job {} already waiting to be restarted", jobInstance);
+      return;
+    }
+
+    if(notApproved.isEmpty()) // Approved since the gate was passed
+      restart(jobExecution);
+    else {
+      LOG.info("Job {} will be restarted when {} approved", jobInstance, notApproved);
+      for(String file : notApproved)
+        ApprovalDAO.onApproval(file, waiting);
+    }
+  }
+
+  /** Stop waiting for the job instance, and deregister it from {@link ApprovalDAO} */
+  private void release(long instanceId) {
+    final Waiting waiting = pending.remove(instanceId);
+    if(waiting != null)
+      waiting.files.forEach(file -> ApprovalDAO.removeListener(file, waiting));
+  }
+
+  /** Release job instances that have been abandoned, which listeners are not told about */
+  private void releaseAbandoned() {
+    for(Long instanceId : pending.keySet()) {
+      final JobInstance jobInstance = jobExplorer.getJobInstance(instanceId);
+      if(jobInstance == null || lastExecution(jobInstance).getStatus() == BatchStatus.ABANDONED) {
+        LOG.info("No longer waiting for abandoned job {}", jobInstance);
+        release(instanceId);
+      }
+    }
+  }
+
+  private void restart(JobExecution stoppedExecution) {
+    final JobInstance jobInstance = stoppedExecution.getJobInstance();
+    executor.execute(() -> {
+      try {
+        final JobExecution lastExecution = awaitSaved(jobInstance);
+        release(jobInstance.getInstanceId()); // If stopping again, it is to be restarted again
+        if(lastExecution.getStatus() != BatchStatus.STOPPED) {
+          LOG.info("Not restarting job {}, that is already {}", jobInstance, lastExecution.getStatus());
+          return;
+        }
+        LOG.info("Restarting approved job {}", jobInstance);
+        jobLauncher.run(jobRegistry.getJob(jobInstance.getJobName()), stoppedExecution.getJobParameters());
+      }
+      catch (Exception e) {
+        LOG.error("Unable to restart job " + jobInstance, e);
+      }
+      finally {
+        release(jobInstance.getInstanceId());
+      }
+    });
+  }
+
+  /** 
+   * Listeners are called before the final status is saved, which must be done before the job can be restarted
+   * @return The last execution of the job instance, once saved
+   * @throws IllegalStateException If any execution is still running after {@link #STOP_TIMEOUT_MILLIS}
+   */
+  private JobExecution awaitSaved(JobInstance jobInstance) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + STOP_TIMEOUT_MILLIS;
+    while(true) {
+      final List<JobExecution> executions = jobExplorer.getJobExecutions(jobInstance);
+      if(executions.stream().noneMatch(JobExecution::isRunning))
+        return lastExecution(jobInstance);
+      if(System.currentTimeMillis() >= deadline)
+        throw new IllegalStateException("Job " + jobInstance + " still running after " + STOP_TIMEOUT_MILLIS + " ms");
+      Thread.sleep(10);
+    }
+  }
+
+  private JobExecution lastExecution(JobInstance jobInstance) {
+    return jobExplorer.getJobExecutions(jobInstance).stream().max(Comparator.comparing(JobExecution::getId)).get();
+  }
+
+  /** Listener of a stopped job instance, that restarts it once all of its call logs are approved */
+  private class Waiting implements Runnable {
+
+    private final JobExecution stoppedExecution;
+
+    /** Call logs not approved when the job stopped */
+    private final List<String> files;
+
+    private final AtomicInteger remaining;
+
+    private Waiting(JobExecution stoppedExecution, List<String> files) {
+      this.stoppedExecution = stoppedExecution;
+      this.files = files;
+      this.remaining = new AtomicInteger(files.size());
+    }
+
+    @Override
+    public void run() {
+      if(remaining.decrementAndGet() == 0)
+        restart(stoppedExecution);
+    }
+  }
+}
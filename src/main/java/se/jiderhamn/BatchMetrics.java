@@ -0,0 +1,124 @@
+package se.jiderhamn;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobExecutionListener;
+import org.springframework.batch.core.StepExecution;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Keeps {@link StepMetrics} per step of each running job execution. The metrics of the latest execution of each step
+ * are exposed via JMX as {@code se.jiderhamn:type=StepMetrics,job=<job>,step=<step>}. If the job has a
+ * {@code metricsFile} parameter, the metrics of all steps are dumped to that file as JSON when the job ends.
+ * @author Mattias Jiderhamn
+ */
+@SuppressWarnings("WeakerAccess")
+public class BatchMetrics implements JobExecutionListener {
+
+  private static final Logger LOG = LoggerFactory.getLogger("Metrics");
+
+  public static final String METRICS_FILE = "metricsFile";
+
+  /** Metrics per step name, in the order the steps started, per job execution ID */
+  private final Map<Long, Map<String, StepMetrics>> jobExecutions = new ConcurrentHashMap<>();
+
+  private final MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+
+  /** Metrics of the step that the step execution belongs to. Partitions share the metrics of their step. */
+  public StepMetrics forStep(StepExecution stepExecution) {
+    final JobExecution jobExecution = stepExecution.getJobExecution();
+    final String jobName = jobExecution.getJobInstance().getJobName();
+    final String stepName = stepExecution.getStepName().replaceFirst(":.*", ""); // Remove partition name
+    return jobExecutions.computeIfAbsent(jobExecution.getId(), id -> newStepMap())
+        .computeIfAbsent(stepName, name -> register(new StepMetrics(jobName, jobExecution.getId(), name)));
+  }
+
+  @Override
+  public void beforeJob(JobExecution jobExecution) {
+    jobExecutions.putIfAbsent(jobExecution.getId(), newStepMap());
+  }
+
+  @Override
+  public void afterJob(JobExecution jobExecution) {
+    final Map<String, StepMetrics> steps = jobExecutions.remove(jobExecution.getId());
+    if(steps == null)
+      return;
+    final String metricsFile = jobExecution.getJobParameters().getString(METRICS_FILE);
+    if(metricsFile != null) {
+      try {
+        Files.write(Paths.get(metricsFile), toJson(jobExecution, steps).getBytes(StandardCharsets.UTF_8));
+        LOG.info("Wrote metrics of {} to {}", jobExecution.getJobInstance(), metricsFile);
+      }
+      catch (IOException e) {
+        LOG.error("Unable to write metrics to " + metricsFile, e);
+      }
+    }
+  }
+
+  private static Map<String, StepMetrics> newStepMap() {
+    return Collections.synchronizedMap(new LinkedHashMap<>());
+  }
+
+  /** Register step metrics via JMX, replacing metrics of previous execution of the same step */
+  private StepMetrics register(StepMetrics stepMetrics) {
+    try {
+      final ObjectName name = new ObjectName("se.jiderhamn:type=StepMetrics" +
+          ",job=" + ObjectName.quote(stepMetrics.getJobName()) +
+          ",step=" + ObjectName.quote(stepMetrics.getStepName()));
+      synchronized (mBeanServer) {
+        if(mBeanServer.isRegistered(name))
+          mBeanServer.unregisterMBean(name);
+        mBeanServer.registerMBean(stepMetrics, name);
+      }
+    }
+    catch (JMException e) {
+      LOG.warn("Unable to register metrics of step {} via JMX", stepMetrics.getStepName(), e);
+    }
+    return stepMetrics;
+  }
+
+  static String toJson(JobExecution jobExecution, Map<String, StepMetrics> steps) {
+    final StringBuilder json = new StringBuilder("{\n");
+    json.append("  \"job\": \"").append(jobExecution.getJobInstance().getJobName()).append("\",\n");
+    json.append("  \"jobExecutionId\": ").append(jobExecution.getId()).append(",\n");
+    json.append("  \"status\": \"").append(jobExecution.getStatus()).append("\",\n");
+    json.append("  \"steps\": {");
+    String separator = "\n";
+    for(StepMetrics stepMetrics : new ArrayList<>(steps.values())) {
+      json.append(separator).append("    \"").append(stepMetrics.getStepName()).append("\": ");
+      appendJson(json, stepMetrics.toMap());
+      separator = ",\n";
+    }
+    return json.append("\n  }\n}\n").toString();
+  }
+
+  private static void appendJson(StringBuilder json, Map<String, ?> map) {
+    json.append('{');
+    String separator = "";
+    for(Map.Entry<String, ?> entry : map.entrySet()) {
+      json.append(separator).append('"').append(entry.getKey()).append("\": ");
+      if(entry.getValue() instanceof Map) {
+        @SuppressWarnings("unchecked") final Map<String, ?> value = (Map<String, ?>) entry.getValue();
+        appendJson(json, value);
+      }
+      else
+        json.append(entry.getValue());
+      separator = ", ";
+    }
+    json.append('}');
+  }
+}
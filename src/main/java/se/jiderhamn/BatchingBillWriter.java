@@ -0,0 +1,193 @@
+package se.jiderhamn;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStream;
+import org.springframework.batch.item.ItemWriter;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+import static java.util.function.Function.identity;
+import static java.util.stream.Collectors.toMap;
+
+/**
+ * Writer that submits each chunk of bills as a batch to a {@link BillSender}, without waiting for the batch to be
+ * delivered before the next chunk is read, but with a limited number of batches in flight. Bills that fail are
+ * submitted again, up to a number of attempts, and are marked as sent in {@link BillDAO} once delivered.
+ *
+ * Since chunks may be committed before they are delivered, {@link #getRestartBarrier()} tells the reader where to
+ * restart from, and each bill is sent with an idempotency key that is the same if the job instance is restarted, so
+ * that the sender may ignore bills already delivered. The step fails at the end if any bill could not be sent, so that
+ * it can be restarted. It must be registered as listener of the step.
+ * @author Mattias Jiderhamn
+ */
+@SuppressWarnings("WeakerAccess")
+public class BatchingBillWriter implements ItemWriter<Bill>, ItemStream, StepExecutionListener {
+
+  private static final Logger LOG = LoggerFactory.getLogger("BatchingBillWriter");
+
+  private final BillSender sender;
+
+  private final int maxBatchesInFlight;
+
+  private final int maxAttempts;
+
+  private final Semaphore batchesInFlight;
+
+  /** Number of items the reader has read, after reading the items to write */
+  private final IntSupplier readCount;
+
+  /** Read count before the first item of each batch that has not been delivered */
+  private final ConcurrentSkipListSet<Integer> undelivered = new ConcurrentSkipListSet<>();
+
+  /** Read count when previous batch was written */
+  private int lastReadCount;
+
+  private final LongAdder sent = new LongAdder();
+
+  private final LongAdder failed = new LongAdder();
+
+  private volatile long jobInstanceId;
+
+  public BatchingBillWriter(BillSender sender, int maxBatchesInFlight, int maxAttempts, IntSupplier readCount) {
+    this.sender = sender;
+    this.maxBatchesInFlight = maxBatchesInFlight;
+    this.maxAttempts = maxAttempts;
+    this.batchesInFlight = new Semaphore(maxBatchesInFlight);
+    this.readCount = readCount;
+  }
+
+  /** Read count that all bills before have been delivered, so that a restart may continue from there */
+  public int getRestartBarrier() {
+    final Integer first = undelivered.ceiling(Integer.MIN_VALUE); // Unlike first(), no exception if just emptied
+    return first != null ? first : Integer.MAX_VALUE;
+  }
+
+  /** Key that identifies the bill of the subscriber across restarts of the job instance */
+  String idempotencyKey(Bill bill) {
+    return jobInstanceId + "/" + bill.getSubscriber();
+  }
+
+  @Override
+  public void write(List<? extends Bill> bills) throws Exception {
+    final Map<String, Bill> batch = new LinkedHashMap<>();
+    for(Bill bill : bills) {
+      batch.put(idempotencyKey(bill), bill);
+    }
+    final int batchStart = lastReadCount;
+    lastReadCount = readCount.getAsInt();
+    batchesInFlight.acquire();
+    undelivered.add(batchStart);
+    submit(batch, 1).whenComplete((allSent, t) -> {
+      if(t != null) { // Such as failing to mark bills sent, so whether delivered is unknown
+        LOG.error("Unable to send batch of {} bills", batch.size(), t);
+        failed.add(batch.size());
+      }
+      else if(allSent)
+        undelivered.remove(batchStart);
+      batchesInFlight.release();
+    });
+  }
+
+  /** @return Future that tells whether all bills of the batch were sent */
+  private CompletableFuture<Boolean> submit(Map<String, Bill> batch, int attempt) {
+    CompletableFuture<List<BillSender.Result>> future;
+    try {
+      future = sender.send(batch);
+    }
+    catch (RuntimeException e) {
+      future = new CompletableFuture<>();
+      future.completeExceptionally(e);
+    }
+
+    return future
+        .handle((results, t) -> {
+          if(t != null) {
+            LOG.warn("Attempt {} to send {} bills failed", attempt, batch.size(), t);
+            return batch;
+          }
+          final Map<String, BillSender.Result> resultByKey = results.stream()
+              .collect(toMap(BillSender.Result::getIdempotencyKey, identity()));
+          final List<Bill> sentBills = new ArrayList<>(batch.size());
+          final Map<String, Bill> unsent = new LinkedHashMap<>();
+          batch.forEach((idempotencyKey, bill) -> {
+            final BillSender.Result result = resultByKey.get(idempotencyKey);
+            if(result != null && result.isSent())
+              sentBills.add(bill);
+            else {
+              LOG.debug("Attempt {} to send {} failed: {}", attempt, idempotencyKey, result);
+              unsent.put(idempotencyKey, bill);
+            }
+          });
+          BillDAO.markSent(sentBills);
+          sent.add(sentBills.size());
+          return unsent;
+        })
+        .thenCompose(unsent -> {
+          if(unsent.isEmpty())
+            return CompletableFuture.completedFuture(true);
+          else if(attempt < maxAttempts)
+            return submit(unsent, attempt + 1);
+          else {
+            LOG.error("Unable to send {} bills after {} attempts: {}", unsent.size(), attempt, unsent.keySet());
+            failed.add(unsent.size());
+            return CompletableFuture.completedFuture(false);
+          }
+        });
+  }
+
+  //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // ItemStream
+
+  /** Must be opened after the reader */
+  @Override
+  public void open(ExecutionContext executionContext) {
+    lastReadCount = readCount.getAsInt();
+    undelivered.clear();
+  }
+
+  @Override
+  public void update(ExecutionContext executionContext) {
+  }
+
+  @Override
+  public void close() {
+  }
+
+  //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // StepExecutionListener
+
+  @Override
+  public void beforeStep(StepExecution stepExecution) {
+    jobInstanceId = stepExecution.getJobExecution().getJobInstance().getInstanceId();
+    sent.reset();
+    failed.reset();
+  }
+
+  /** Wait for all batches in flight, and fail the step if any bill could not be sent */
+  @Override
+  public ExitStatus afterStep(StepExecution stepExecution) {
+    batchesInFlight.acquireUninterruptibly(maxBatchesInFlight);
+    batchesInFlight.release(maxBatchesInFlight);
+
+    LOG.info("Sent {} bills, failed to send {}", sent.sum(), failed.sum());
+    if(failed.sum() > 0) {
+      stepExecution.setStatus(BatchStatus.FAILED);
+      return ExitStatus.FAILED.addExitDescription("Unable to send " + failed.sum() + " bills");
+    }
+    return null;
+  }
+}
@@ -1,5 +1,6 @@
 package se.jiderhamn;
 
+import java.io.Serializable;
 import java.math.BigDecimal;
 import java.time.Duration;
 
@@ -7,33 +8,58 @@ import java.time.Duration;
  * @author Mattias Jiderhamn
  */
 @SuppressWarnings({"WeakerAccess", "FieldCanBeLocal", "unused"})
-public class Bill {
+public class Bill implements Serializable {
+
+  private static final long serialVersionUID = 1L;
 
-  private static final BigDecimal COST_PER_CALL = new BigDecimal("0.5");
-  
-  private static final BigDecimal COST_PER_SECOND = new BigDecimal("0.0125");
-  
   private String subscriber;
   
   private long noOfCalls;
   
   private Duration totalDuration;
   
-  private BigDecimal amount;
+  private Tariff tariff;
+  
+  /** Amount in fixed point units of the {@link #tariff} */
+  private long amount;
   
-  private boolean sent = false;
+  private volatile boolean sent = false;
 
   public Bill(String subscriber, long noOfCalls, Duration totalDuration) {
+    this(subscriber, noOfCalls, totalDuration, TariffDAO.getTariff(subscriber));
+  }
+
+  public Bill(String subscriber, long noOfCalls, Duration totalDuration, Tariff tariff) {
     this.subscriber = subscriber;
     this.noOfCalls = noOfCalls;
     this.totalDuration = totalDuration;
-    this.amount = COST_PER_CALL.multiply(new BigDecimal(noOfCalls))
-                .add(COST_PER_SECOND.multiply(new BigDecimal(totalDuration.getSeconds())));
+    this.tariff = tariff;
+    this.amount = tariff.getAmount(noOfCalls, totalDuration.getSeconds());
+  }
+
+  public String getSubscriber() {
+    return subscriber;
+  }
+
+  public long getNoOfCalls() {
+    return noOfCalls;
+  }
+
+  public Duration getTotalDuration() {
+    return totalDuration;
+  }
+
+  public Tariff getTariff() {
+    return tariff;
+  }
+
+  public BigDecimal getAmount() {
+    return tariff.toBigDecimal(amount);
   }
 
-  public Bill send() {
-    sent = true; // Pretend to be sent
-    return this;
+  /** Bill has been delivered by a {@link BillSender} */
+  public void markSent() {
+    sent = true;
   }
 
   public boolean isSent() {
@@ -46,7 +72,7 @@ public class Bill {
         "subscriber='" + subscriber + '\'' +
         ", noOfCalls=" + noOfCalls +
         ", totalDuration=" + totalDuration +
-        ", amount=" + amount +
+        ", amount=" + getAmount() +
         ", sent=" + sent +
         '}';
   }
@@ -1,29 +1,149 @@
 package se.jiderhamn;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static java.util.Collections.unmodifiableList;
 
 /**
+ * Thread safe, with bills appended without locking, while {@link #upsert(List)} is serialized. After
+ * {@link #open(Path)}, bills are also stored durably on disk, and loaded from there when opened again.
  * @author Mattias Jiderhamn
  */
 @SuppressWarnings("WeakerAccess")
 public class BillDAO {
   
-  private static List<Bill> bills = new ArrayList<>();
+  /** Replaced on {@link #reset()} */
+  private static volatile List<Bill> bills = new ConcurrentAppendList<>();
   
-  /** Reset fake repository for next text case */
-  public static void reset() {
-    bills.clear();
+  /** Bills stored on disk in addition to {@link #bills}, if opened */
+  private static volatile FileBillStore file;
+
+  /** Index in {@link #bills} of the latest bill of each subscriber, built when needed. Guarded by class. */
+  private static final Map<String, Integer> indexes = new HashMap<>();
+
+  /** Number of {@link #bills} in {@link #indexes}. Guarded by class. */
+  private static int indexed;
+
+  /** Store bills in directory, restoring any bills already stored there. No-op if already open in directory. */
+  public static synchronized void open(Path directory) {
+    if(file != null && file.getDirectory().equals(directory))
+      return;
+    try {
+      final FileBillStore opened = new FileBillStore(directory);
+      final List<Bill> loaded = new ConcurrentAppendList<>();
+      loaded.addAll(opened.load());
+      close();
+      bills = loaded;
+      file = opened;
+      clearIndexes();
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static void close() {
+    final FileBillStore current = file;
+    file = null;
+    if(current != null) {
+      try {
+        current.close();
+      }
+      catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  /** Reset fake repository for next text case. Any bills stored on disk are kept. */
+  public static synchronized void reset() {
+    close();
+    bills = new ConcurrentAppendList<>();
+    clearIndexes();
+  }
+
+  private static void clearIndexes() {
+    indexes.clear();
+    indexed = 0;
   }
   
   public static List<Bill> findAll() {
     return unmodifiableList(bills);
   }
 
+  /** @return Page of at most {@code max} bills, starting at index {@code from} of {@link #findAll()} */
+  public static List<Bill> find(int from, int max) {
+    final List<Bill> bills = BillDAO.bills;
+    final int size = bills.size();
+    return new ArrayList<>(bills.subList(Math.min(from, size), Math.min(from + max, size)));
+  }
+
+  /** @return Latest bill of the subscriber, or null if none */
+  public static synchronized Bill findBySubscriber(String subscriber) {
+    updateIndexes();
+    final Integer index = indexes.get(subscriber);
+    return (index != null) ? bills.get(index) : null;
+  }
+
   public static void persist(List<? extends Bill> phoneCalls) {
+    final FileBillStore file = BillDAO.file;
+    if(file != null)
+      file.append(phoneCalls);
     bills.addAll(phoneCalls);
   }
+
+  /** 
+   * Replace the bill of each subscriber that already has a bill, unless the bill is unchanged, and append bills for
+   * other subscribers
+   * @return The bills replaced or appended
+   */
+  public static synchronized List<Bill> upsert(List<? extends Bill> newBills) {
+    updateIndexes();
+    final List<Bill> changed = new ArrayList<>(newBills.size());
+    for(Bill bill : newBills) {
+      final Integer index = indexes.get(bill.getSubscriber());
+      if(index == null || ! isSame(bills.get(index), bill))
+        changed.add(bill);
+    }
+
+    final FileBillStore file = BillDAO.file;
+    if(file != null && ! changed.isEmpty())
+      file.upsert(changed);
+    for(Bill bill : changed) {
+      final Integer index = indexes.get(bill.getSubscriber());
+      if(index != null)
+        bills.set(index, bill);
+      else {
+        bills.add(bill);
+        updateIndexes();
+      }
+    }
+    return changed;
+  }
+
+  /** Index bills appended since last call */
+  private static void updateIndexes() {
+    final List<Bill> bills = BillDAO.bills;
+    for(final int size = bills.size(); indexed < size; indexed++)
+      indexes.put(bills.get(indexed).getSubscriber(), indexed);
+  }
+
+  private static boolean isSame(Bill bill, Bill other) {
+    return bill.getNoOfCalls() == other.getNoOfCalls() && bill.getTotalDuration().equals(other.getTotalDuration()) &&
+        bill.getAmount().equals(other.getAmount());
+  }
+
+  public static void markSent(List<? extends Bill> sentBills) {
+    final FileBillStore file = BillDAO.file;
+    if(file != null)
+      file.appendSent(sentBills);
+    sentBills.forEach(Bill::markSent);
+  }
   
 }
\ No newline at end of file
@@ -0,0 +1,59 @@
+package se.jiderhamn;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Delivery channel for {@link Bill}s, such as a mail, print or SMS gateway, that accepts bills in batches.
+ * @author Mattias Jiderhamn
+ */
+public interface BillSender {
+
+  /**
+   * Submit a batch of bills for delivery, without waiting for it to be delivered. Submitting a bill with an
+   * idempotency key that has already been delivered must not deliver it again.
+   * @param bills Bills to send, by idempotency key
+   * @return Future result of each bill, in the same order as the bills
+   */
+  CompletableFuture<List<Result>> send(Map<String, Bill> bills);
+
+  /** Outcome of sending a single bill */
+  final class Result {
+
+    private final String idempotencyKey;
+
+    /** Reason for failure, or null if sent */
+    private final String failure;
+
+    private Result(String idempotencyKey, String failure) {
+      this.idempotencyKey = idempotencyKey;
+      this.failure = failure;
+    }
+
+    public static Result sent(String idempotencyKey) {
+      return new Result(idempotencyKey, null);
+    }
+
+    public static Result failed(String idempotencyKey, String failure) {
+      return new Result(idempotencyKey, failure);
+    }
+
+    public String getIdempotencyKey() {
+      return idempotencyKey;
+    }
+
+    public boolean isSent() {
+      return failure == null;
+    }
+
+    public String getFailure() {
+      return failure;
+    }
+
+    @Override
+    public String toString() {
+      return idempotencyKey + (isSent() ? " sent" : " failed: " + failure);
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package se.jiderhamn;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.item.ItemProcessor;
+import org.springframework.retry.support.RetryTemplate;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Workers of remote chunking, that create {@link Bill}s for the chunks of subscribers received from a
+ * {@link ChunkChannel}, on threads of their own, and send the bills back. Each subscriber has its own retries, and if
+ * those are exhausted, the failure is included in the response instead of failing the whole chunk.
+ * @author Mattias Jiderhamn
+ */
+public class BillingWorkers {
+
+  private static final Logger LOG = LoggerFactory.getLogger("BillingWorkers");
+
+  /** How often workers check whether they have been stopped */
+  private static final long POLL_MILLIS = 100;
+
+  private final ChunkChannel channel;
+
+  private final ItemProcessor<? super String, ? extends Bill> processor;
+
+  private final RetryTemplate retryTemplate;
+
+  private final int noOfThreads;
+
+  private final List<Thread> threads = new ArrayList<>();
+
+  private volatile boolean running;
+
+  public BillingWorkers(ChunkChannel channel, ItemProcessor<? super String, ? extends Bill> processor,
+                        RetryTemplate retryTemplate, int noOfThreads) {
+    this.channel = channel;
+    this.processor = processor;
+    this.retryTemplate = retryTemplate;
+    this.noOfThreads = noOfThreads;
+  }
+
+  public synchronized void start() {
+    running = true;
+    for(int i = 0; i < noOfThreads; i++) {
+      final Thread thread = new Thread(this::work, "billing-worker-" + i);
+      thread.setDaemon(true);
+      thread.start();
+      threads.add(thread);
+    }
+  }
+
+  public synchronized void stop() throws InterruptedException {
+    running = false;
+    for(Thread thread : threads)
+      thread.interrupt();
+    for(Thread thread : threads)
+      thread.join();
+    threads.clear();
+  }
+
+  private void work() {
+    try {
+      while(running) {
+        final ChunkChannel.Request request = channel.receiveRequest(POLL_MILLIS, TimeUnit.MILLISECONDS);
+        if(request != null)
+          channel.sendResponse(process(request));
+      }
+    }
+    catch (InterruptedException e) {
+      // Stopped
+    }
+  }
+
+  ChunkChannel.Response process(ChunkChannel.Request request) {
+    final List<Bill> bills = new ArrayList<>(request.getSubscribers().size());
+    final Map<String, String> failures = new LinkedHashMap<>();
+    for(String subscriber : request.getSubscribers()) {
+      try {
+        final Bill bill = retryTemplate.execute(context -> processor.process(subscriber));
+        if(bill != null)
+          bills.add(bill);
+      }
+      catch (Exception e) {
+        LOG.warn("Unable to create bill for {}", subscriber, e);
+        failures.put(subscriber, e.toString());
+      }
+    }
+    return new ChunkChannel.Response(request.getStepExecutionId(), request.getSequence(), bills, failures);
+  }
+}
@@ -0,0 +1,184 @@
+package se.jiderhamn;
+
+import java.time.Duration;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Column wise storage of {@link PhoneCall}s in primitive arrays, that grow in blocks. Subscriber numbers consisting
+ * of up to 15 digits (such as {@code 0701234567}) are encoded as a {@code long} that includes the number of digits, so
+ * that leading zeros are retained. Other subscriber numbers are stored in a dictionary and referred to by negative
+ * codes. Durations are stored as {@code int} seconds. That is 20 bytes per call, rather than 150+ for a
+ * {@link PhoneCall} with two Strings and a {@link Duration}.
+ *
+ * Writers must synchronize on the columns, which the list returned by {@link #asList()} and its views also do.
+ * @author Mattias Jiderhamn
+ */
+class CallColumns {
+
+  private static final int BLOCK_SIZE = 8192;
+
+  private static final int MAX_DIGITS = 15;
+
+  private static final int LENGTH_SHIFT = 50; // 10^15 < 2^50
+
+  private static final long VALUE_MASK = (1L << LENGTH_SHIFT) - 1;
+
+  private final List<long[]> fromBlocks = new ArrayList<>();
+
+  private final List<long[]> toBlocks = new ArrayList<>();
+
+  private final List<int[]> durationBlocks = new ArrayList<>();
+
+  private int size;
+
+  /** Subscriber numbers that cannot be encoded as digits */
+  private final Map<String, Long> otherNumberCodes = new HashMap<>();
+
+  private final List<String> otherNumbers = new ArrayList<>();
+
+  void add(PhoneCall call) {
+    final int block = size / BLOCK_SIZE;
+    final int index = size % BLOCK_SIZE;
+    if(block == fromBlocks.size()) {
+      fromBlocks.add(new long[BLOCK_SIZE]);
+      toBlocks.add(new long[BLOCK_SIZE]);
+      durationBlocks.add(new int[BLOCK_SIZE]);
+    }
+    fromBlocks.get(block)[index] = encode(call.getFromSubscriber());
+    toBlocks.get(block)[index] = encode(call.getToSubscriber());
+    durationBlocks.get(block)[index] = Math.toIntExact(call.getDuration().getSeconds());
+    size++;
+  }
+
+  int size() {
+    return size;
+  }
+
+  String getFromSubscriber(int i) {
+    return decode(fromBlocks.get(i / BLOCK_SIZE)[i % BLOCK_SIZE]);
+  }
+
+  String getToSubscriber(int i) {
+    return decode(toBlocks.get(i / BLOCK_SIZE)[i % BLOCK_SIZE]);
+  }
+
+  int getDurationSeconds(int i) {
+    return durationBlocks.get(i / BLOCK_SIZE)[i % BLOCK_SIZE];
+  }
+
+  /** @return Read only list of views of the stored calls, that decode their properties when accessed */
+  List<PhoneCall> asList() {
+    return new AbstractList<PhoneCall>() {
+      @Override
+      public PhoneCall get(int index) {
+        final int size = size();
+        if(index < 0 || index >= size)
+          throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        return new CallView(index);
+      }
+
+      @Override
+      public int size() {
+        synchronized (CallColumns.this) {
+          return size;
+        }
+      }
+    };
+  }
+
+  void clear() {
+    fromBlocks.clear();
+    toBlocks.clear();
+    durationBlocks.clear();
+    size = 0;
+    otherNumberCodes.clear();
+    otherNumbers.clear();
+  }
+
+  long encode(String number) {
+    final long code = encodeDigits(number);
+    return (code >= 0) ? code : otherNumberCodes.computeIfAbsent(number, n -> {
+      otherNumbers.add(n);
+      return (long) -otherNumbers.size();
+    });
+  }
+
+  String decode(long code) {
+    return (code < 0) ? otherNumbers.get((int) (-code - 1)) : decodeDigits(code);
+  }
+
+  /** @return Code of a number of up to 15 digits, or -1 if the number is not only digits or too long */
+  static long encodeDigits(String number) {
+    final int length = number.length();
+    if(length > MAX_DIGITS)
+      return -1;
+    long value = 0;
+    for(int i = 0; i < length; i++) {
+      final char c = number.charAt(i);
+      if(c < '0' || c > '9')
+        return -1;
+      value = value * 10 + (c - '0');
+    }
+    return ((long) length << LENGTH_SHIFT) | value;
+  }
+
+  static String decodeDigits(long code) {
+    final char[] digits = new char[(int) (code >>> LENGTH_SHIFT)];
+    long value = code & VALUE_MASK;
+    for(int i = digits.length - 1; i >= 0; i--) {
+      digits[i] = (char) ('0' + value % 10);
+      value /= 10;
+    }
+    return new String(digits);
+  }
+
+  /** Flyweight {@link PhoneCall} backed by the columns */
+  private class CallView extends PhoneCall {
+
+    private final int index;
+
+    private CallView(int index) {
+      this.index = index;
+    }
+
+    @Override
+    public String getFromSubscriber() {
+      synchronized (CallColumns.this) {
+        return CallColumns.this.getFromSubscriber(index);
+      }
+    }
+
+    @Override
+    public String getToSubscriber() {
+      synchronized (CallColumns.this) {
+        return CallColumns.this.getToSubscriber(index);
+      }
+    }
+
+    @Override
+    public Duration getDuration() {
+      synchronized (CallColumns.this) {
+        return Duration.ofSeconds(getDurationSeconds(index));
+      }
+    }
+
+    @Override
+    public void setFromSubscriber(String fromSubscriber) {
+      throw new UnsupportedOperationException("Stored calls are read only");
+    }
+
+    @Override
+    public void setToSubscriber(String toSubscriber) {
+      throw new UnsupportedOperationException("Stored calls are read only");
+    }
+
+    @Override
+    public void setDuration(String durationString) {
+      throw new UnsupportedOperationException("Stored calls are read only");
+    }
+  }
+}
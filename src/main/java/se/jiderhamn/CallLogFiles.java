@@ -0,0 +1,147 @@
+package se.jiderhamn;
+
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobExecutionListener;
+import org.springframework.batch.core.partition.support.Partitioner;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Resolves the {@code fileGlob} job parameter of a job reading multiple call logs into a list of files. So that a
+ * restart processes the same files even if more files have arrived, the latest modification time of the files is
+ * stored in the job {@link ExecutionContext}, and files modified after that are left out when resolving the glob
+ * again. This keeps the context small however many files there are. In case files have been deleted, or moved into
+ * the directory with an earlier modification time, the number of files and a digest of their paths are stored too,
+ * and a restart that resolves other files fails. Partitions are named by file, so that each file completed before
+ * the restart is matched by name rather than by its position among the files. The parameter is either a
+ * directory, meaning all files in it, or a glob for the file names in a directory, such as
+ * {@code /data/calls/switch-*.txt}.
+ * @author Mattias Jiderhamn
+ */
+public class CallLogFiles implements JobExecutionListener {
+
+  static final String FILE_GLOB = "fileGlob";
+
+  /** Job context key for the latest modification time, in milliseconds, of the files */
+  static final String LAST_MODIFIED = "callLogFiles.lastModified";
+
+  /** Job context key for the number of files */
+  static final String COUNT = "callLogFiles.count";
+
+  /** Job context key for the SHA-256 of the paths of the files */
+  static final String DIGEST = "callLogFiles.digest";
+
+  @Override
+  public void beforeJob(JobExecution jobExecution) {
+    final ExecutionContext context = jobExecution.getExecutionContext();
+    if(context.containsKey(LAST_MODIFIED)) {
+      getFiles(jobExecution); // Fail restart if files differ
+      return;
+    }
+    final List<Path> files = resolve(jobExecution.getJobParameters().getString(FILE_GLOB), Long.MAX_VALUE);
+    long lastModified = 0;
+    for(Path file : files)
+      lastModified = Math.max(lastModified, lastModified(file));
+    context.putLong(LAST_MODIFIED, lastModified);
+    context.putInt(COUNT, files.size());
+    context.putString(DIGEST, digest(files));
+  }
+
+  @Override
+  public void afterJob(JobExecution jobExecution) {
+  }
+
+  /** 
+   * @return Files of the job execution, or null if not a job reading multiple files
+   * @throws IllegalStateException If not the same files as when the job instance was first run
+   */
+  static List<String> getFiles(JobExecution jobExecution) {
+    final ExecutionContext context = jobExecution.getExecutionContext();
+    if(! context.containsKey(LAST_MODIFIED))
+      return null;
+    final String fileGlob = jobExecution.getJobParameters().getString(FILE_GLOB);
+    final List<Path> files = resolve(fileGlob, context.getLong(LAST_MODIFIED));
+    if(files.size() != context.getInt(COUNT) || ! digest(files).equals(context.getString(DIGEST)))
+      throw new IllegalStateException(files.size() + " files matching " + fileGlob + " instead of " + 
+          context.getInt(COUNT) + " files when first run - files have been deleted, or moved there since");
+    return files.stream()
+        .map(Path::toString)
+        .collect(toList());
+  }
+
+  /** @return Hex of SHA-256 of the paths */
+  private static String digest(List<Path> files) {
+    try {
+      final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      for(Path file : files)
+        digest.update((file.toString() + '\n').getBytes(StandardCharsets.UTF_8));
+      final StringBuilder hex = new StringBuilder();
+      for(byte b : digest.digest())
+        hex.append(String.format("%02x", b));
+      return hex.toString();
+    }
+    catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e); // Required of every JVM
+    }
+  }
+
+  /** @return Regular files matching the glob, not modified after {@code lastModified}, sorted by name */
+  static List<Path> resolve(String fileGlob, long lastModified) {
+    final Path path = Paths.get(fileGlob);
+    final Path directory = Files.isDirectory(path) ? path : path.toAbsolutePath().getParent();
+    final String glob = Files.isDirectory(path) ? "*" : path.getFileName().toString();
+    final List<Path> files = new ArrayList<>();
+    try(DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+      for(Path file : stream) {
+        if(Files.isRegularFile(file) && lastModified(file) <= lastModified)
+          files.add(file);
+      }
+    }
+    catch (IOException e) {
+      throw new ItemStreamException("Unable to list " + fileGlob, e);
+    }
+    if(files.isEmpty())
+      throw new IllegalArgumentException("No call logs matching " + fileGlob);
+    files.sort(null);
+    return files;
+  }
+
+  private static long lastModified(Path file) {
+    try {
+      return Files.getLastModifiedTime(file).toMillis();
+    }
+    catch (IOException e) {
+      throw new ItemStreamException("Unable to read " + file, e);
+    }
+  }
+
+  /** @return Partitioner with one partition per file, each read as a whole and named by the file name */
+  static Partitioner partitioner(List<String> files) {
+    return gridSize -> {
+      final Map<String, ExecutionContext> partitions = new LinkedHashMap<>();
+      for(String file : files) {
+        final ExecutionContext context = new ExecutionContext();
+        context.putString(CallLogPartitioner.FILE_PATH, file);
+        context.putLong(CallLogPartitioner.START_OFFSET, 0);
+        context.putLong(CallLogPartitioner.END_OFFSET, -1);
+        partitions.put(Paths.get(file).getFileName().toString(), context); // Unique within the directory
+      }
+      return partitions;
+    };
+  }
+}
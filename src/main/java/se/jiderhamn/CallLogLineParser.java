@@ -0,0 +1,109 @@
+package se.jiderhamn;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+/**
+ * Parses call log lines on the format {@code fromSubscriber | toSubscriber | HH:mm:ss} straight from bytes, without
+ * tokenizing into intermediate Strings or mapping via reflection.
+ * @author Mattias Jiderhamn
+ */
+class CallLogLineParser {
+
+  private static final byte DELIMITER = '|';
+
+  /** Offsets of the fields of the current line; start and end of each field */
+  private final int[] fields = new int[6];
+
+  /** Scratch buffer for decoding subscriber numbers */
+  private byte[] chars = new byte[16];
+
+  /**
+   * Parse the line between {@code start} (inclusive) and {@code end} (exclusive) of {@code buffer}.
+   * @param lineNumber Used in exception message
+   * @param resourceDescription Used in exception message
+   * @throws CallLogParseException If the line cannot be parsed
+   */
+  PhoneCall parse(ByteBuffer buffer, int start, int end, int lineNumber, String resourceDescription) {
+    int noOfFields = 0;
+    int fieldStart = start;
+    for(int i = start; i <= end; i++) {
+      if(i == end || buffer.get(i) == DELIMITER) {
+        if(noOfFields == 3)
+          throw parseError("Too many fields", buffer, start, end, lineNumber, resourceDescription);
+        fields[2 * noOfFields] = fieldStart;
+        fields[2 * noOfFields + 1] = i;
+        noOfFields++;
+        fieldStart = i + 1;
+      }
+    }
+    if(noOfFields != 3)
+      throw parseError("Too few fields", buffer, start, end, lineNumber, resourceDescription);
+
+    trim(buffer);
+
+    final int durationSeconds = parseDuration(buffer, fields[4], fields[5]);
+    if(durationSeconds < 0)
+      throw parseError("Invalid duration", buffer, start, end, lineNumber, resourceDescription);
+
+    return new PhoneCall(toString(buffer, fields[0], fields[1]), toString(buffer, fields[2], fields[3]),
+        Duration.ofSeconds(durationSeconds));
+  }
+
+  /** Remove leading and trailing whitespace from all fields */
+  private void trim(ByteBuffer buffer) {
+    for(int f = 0; f < fields.length; f += 2) {
+      while(fields[f] < fields[f + 1] && isWhitespace(buffer.get(fields[f])))
+        fields[f]++;
+      while(fields[f + 1] > fields[f] && isWhitespace(buffer.get(fields[f + 1] - 1)))
+        fields[f + 1]--;
+    }
+  }
+
+  /** Parse {@code HH:mm:ss} or {@code HH:mm} into seconds, or return -1 if not a valid time of day */
+  static int parseDuration(ByteBuffer buffer, int start, int end) {
+    final int length = end - start;
+    if(length != 5 && length != 8)
+      return -1;
+    final int hours = twoDigits(buffer, start, 24);
+    final int minutes = (buffer.get(start + 2) == ':') ? twoDigits(buffer, start + 3, 60) : -1;
+    final int seconds = (length == 5) ? 0 : (buffer.get(start + 5) == ':') ? twoDigits(buffer, start + 6, 60) : -1;
+    if(hours < 0 || minutes < 0 || seconds < 0)
+      return -1;
+    return hours * 3600 + minutes * 60 + seconds;
+  }
+
+  /** Parse two digits into a number less than {@code limit}, or return -1 if invalid */
+  private static int twoDigits(ByteBuffer buffer, int offset, int limit) {
+    final int tens = buffer.get(offset) - '0';
+    final int ones = buffer.get(offset + 1) - '0';
+    if(tens < 0 || tens > 9 || ones < 0 || ones > 9)
+      return -1;
+    final int value = tens * 10 + ones;
+    return (value < limit) ? value : -1;
+  }
+
+  private String toString(ByteBuffer buffer, int start, int end) {
+    final int length = end - start;
+    if(length > chars.length)
+      chars = new byte[length];
+    for(int i = 0; i < length; i++)
+      chars[i] = buffer.get(start + i);
+    return new String(chars, 0, length, StandardCharsets.ISO_8859_1);
+  }
+
+  private static boolean isWhitespace(byte b) {
+    return b == ' ' || b == '\t';
+  }
+
+  /** Create exception. Only now do we need the line as a String. */
+  private static CallLogParseException parseError(String reason, ByteBuffer buffer, int start, int end,
+                                                  int lineNumber, String resourceDescription) {
+    final byte[] bytes = new byte[end - start];
+    for(int i = 0; i < bytes.length; i++)
+      bytes[i] = buffer.get(start + i);
+    final String line = new String(bytes, StandardCharsets.ISO_8859_1);
+    return new CallLogParseException(reason, line, lineNumber, resourceDescription);
+  }
+}
@@ -0,0 +1,38 @@
+package se.jiderhamn;
+
+import org.springframework.batch.item.file.FlatFileParseException;
+
+/**
+ * A line of a call log that cannot be parsed. Bad lines are expected and skipped, so no stack trace is filled in;
+ * the message tells where the line is and what is wrong with it.
+ * @author Mattias Jiderhamn
+ */
+public class CallLogParseException extends FlatFileParseException {
+
+  private static final long serialVersionUID = 1L;
+
+  private final String reason;
+
+  private final String resourceDescription;
+
+  CallLogParseException(String reason, String input, int lineNumber, String resourceDescription) {
+    super(reason + " - parsing error at line: " + lineNumber + " in resource=[" + resourceDescription + "], input=[" +
+        input + "]", input, lineNumber);
+    this.reason = reason;
+    this.resourceDescription = resourceDescription;
+  }
+
+  /** @return Why the line could not be parsed, such as {@code Too few fields} */
+  public String getReason() {
+    return reason;
+  }
+
+  public String getResourceDescription() {
+    return resourceDescription;
+  }
+
+  @Override
+  public synchronized Throwable fillInStackTrace() {
+    return this;
+  }
+}
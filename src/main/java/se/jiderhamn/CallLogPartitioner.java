@@ -0,0 +1,95 @@
+package se.jiderhamn;
+
+import org.springframework.batch.core.partition.support.Partitioner;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Split a call log file into byte ranges that start and end at line breaks, so that each range can be read
+ * independently of the others.
+ * @author Mattias Jiderhamn
+ */
+public class CallLogPartitioner implements Partitioner {
+
+  static final String FILE_PATH = "filePath";
+
+  /** Offset of first byte in range, inclusive */
+  static final String START_OFFSET = "startOffset";
+
+  /** Offset of last byte in range, exclusive */
+  static final String END_OFFSET = "endOffset";
+
+  private final Path file;
+
+  private final long startOffset;
+
+  /** Offset of end of the part to partition, or -1 for end of file */
+  private final long endOffset;
+
+  public CallLogPartitioner(Path file) {
+    this(file, 0, -1);
+  }
+
+  /** Partition only the part of the file between the offsets, which must be at line breaks */
+  public CallLogPartitioner(Path file, long startOffset, long endOffset) {
+    this.file = file;
+    this.startOffset = startOffset;
+    this.endOffset = endOffset;
+  }
+
+  /** 
+   * @return Exactly {@code gridSize} partitions, some of which may be empty if the file is small, or a single partition
+   * if the file is compressed
+   */
+  @Override
+  public Map<String, ExecutionContext> partition(int gridSize) {
+    final int noOfPartitions = CompressedCallLogItemReader.isCompressed(file) ? 1 : gridSize;
+    try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      final long size = (endOffset < 0) ? channel.size() : Math.min(endOffset, channel.size());
+      final long length = size - startOffset;
+      final Map<String, ExecutionContext> partitions = new LinkedHashMap<>();
+      long start = startOffset;
+      for(int i = 0; i < noOfPartitions; i++) {
+        final long end = (i == noOfPartitions - 1) ? size :
+            Math.max(start, Math.min(size, nextLineStart(channel, startOffset + length * (i + 1) / noOfPartitions)));
+        final ExecutionContext context = new ExecutionContext();
+        context.putString(FILE_PATH, file.toString());
+        context.putLong(START_OFFSET, start);
+        context.putLong(END_OFFSET, end);
+        partitions.put("partition" + i, context);
+        start = end;
+      }
+      return partitions;
+    }
+    catch (IOException e) {
+      throw new ItemStreamException("Unable to partition " + file, e);
+    }
+  }
+
+  /** Find the offset of the first line starting at or after {@code position} */
+  private static long nextLineStart(FileChannel channel, long position) throws IOException {
+    if(position == 0)
+      return 0;
+
+    final ByteBuffer buffer = ByteBuffer.allocate(256);
+    long offset = position - 1; // If previous byte is a line break, position is already at the start of a line
+    while(channel.read(buffer, offset) > 0) {
+      buffer.flip();
+      while(buffer.hasRemaining()) {
+        offset++;
+        if(buffer.get() == '\n')
+          return offset;
+      }
+      buffer.clear();
+    }
+    return channel.size();
+  }
+}
@@ -0,0 +1,103 @@
+package se.jiderhamn;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transport of chunks of subscribers from a manager, that reads the subscribers, to workers that create the
+ * {@link Bill}s, and of the bills back to the manager. Implementations may use a message broker for workers in other
+ * JVMs, so the messages are serializable.
+ * @author Mattias Jiderhamn
+ */
+public interface ChunkChannel {
+
+  /** Send chunk to any worker */
+  void sendRequest(Request request) throws InterruptedException;
+
+  /** @return Next chunk for a worker, or null if none within the timeout */
+  Request receiveRequest(long timeout, TimeUnit unit) throws InterruptedException;
+
+  /** Start accepting responses to the step execution, before sending any request */
+  void openResponses(long stepExecutionId);
+
+  /** Stop accepting responses to the step execution, that has ended, and discard any not received */
+  void closeResponses(long stepExecutionId);
+
+  /** Send the outcome of a chunk back to the manager, or discard it if its step execution has ended */
+  void sendResponse(Response response) throws InterruptedException;
+
+  /** @return Next outcome of a chunk of the step execution, or null if none within the timeout */
+  Response receiveResponse(long stepExecutionId, long timeout, TimeUnit unit) throws InterruptedException;
+
+  /** Chunk of subscribers to create bills for */
+  final class Request implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Identifies the step execution, so that the response is sent to its manager */
+    private final long stepExecutionId;
+
+    /** Number of the chunk within the step execution */
+    private final long sequence;
+
+    private final List<String> subscribers;
+
+    public Request(long stepExecutionId, long sequence, List<String> subscribers) {
+      this.stepExecutionId = stepExecutionId;
+      this.sequence = sequence;
+      this.subscribers = subscribers;
+    }
+
+    public long getStepExecutionId() {
+      return stepExecutionId;
+    }
+
+    public long getSequence() {
+      return sequence;
+    }
+
+    public List<String> getSubscribers() {
+      return subscribers;
+    }
+  }
+
+  /** Bills created for a chunk, and the subscribers for which no bill could be created */
+  final class Response implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long stepExecutionId;
+
+    private final long sequence;
+
+    private final List<Bill> bills;
+
+    /** Reason for failure by subscriber */
+    private final Map<String, String> failures;
+
+    public Response(long stepExecutionId, long sequence, List<Bill> bills, Map<String, String> failures) {
+      this.stepExecutionId = stepExecutionId;
+      this.sequence = sequence;
+      this.bills = bills;
+      this.failures = failures;
+    }
+
+    public long getStepExecutionId() {
+      return stepExecutionId;
+    }
+
+    public long getSequence() {
+      return sequence;
+    }
+
+    public List<Bill> getBills() {
+      return bills;
+    }
+
+    public Map<String, String> getFailures() {
+      return failures;
+    }
+  }
+}
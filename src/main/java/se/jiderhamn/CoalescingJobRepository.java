@@ -0,0 +1,144 @@
+package se.jiderhamn;
+
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.repository.JobExecutionAlreadyRunningException;
+import org.springframework.batch.core.repository.JobInstanceAlreadyCompleteException;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.core.repository.JobRestartException;
+import org.springframework.batch.item.ExecutionContext;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link JobRepository} that coalesces the updates of the {@link ExecutionContext} of running steps, which are
+ * otherwise written on every chunk commit. A context that is unchanged since it was last written is not written again,
+ * and with a {@code contextCommitInterval} above 1, a changed context is written on every n:th commit only. The context
+ * is always written when the step ends, also if it fails, so the interval only matters if the process dies, in which
+ * case a restart may process up to {@code contextCommitInterval - 1} chunks again. Since writing a chunk again counts
+ * it twice unless the writer is idempotent, the interval only applies to the steps named as idempotent. The contexts
+ * of other steps are written on every commit where they have changed.
+ * @author Mattias Jiderhamn
+ */
+public class CoalescingJobRepository implements JobRepository {
+
+  private final JobRepository delegate;
+
+  private final int contextCommitInterval;
+
+  /** Names of the steps, excluding any partition name, whose writers may write the same chunk again */
+  private final Set<String> idempotentSteps;
+
+  /** Context last written per running step execution id */
+  private final Map<Long, Written> written = new ConcurrentHashMap<>();
+
+  private static class Written {
+
+    private final ExecutionContext context;
+
+    /** Number of updates not written since */
+    private int deferred;
+
+    private Written(ExecutionContext context) {
+      this.context = new ExecutionContext(context);
+    }
+  }
+
+  public CoalescingJobRepository(JobRepository delegate, int contextCommitInterval, Set<String> idempotentSteps) {
+    if(contextCommitInterval < 1)
+      throw new IllegalArgumentException("contextCommitInterval must be at least 1: " + contextCommitInterval);
+    this.delegate = delegate;
+    this.contextCommitInterval = contextCommitInterval;
+    this.idempotentSteps = idempotentSteps;
+  }
+
+  private int getContextCommitInterval(StepExecution stepExecution) {
+    return idempotentSteps.contains(stepExecution.getStepName().replaceFirst(":.*", "")) ? contextCommitInterval : 1;
+  }
+
+  @Override
+  public void updateExecutionContext(StepExecution stepExecution) {
+    final ExecutionContext context = stepExecution.getExecutionContext();
+    final boolean running = stepExecution.getStatus() == BatchStatus.STARTED;
+    if(running) {
+      final Written last = written.get(stepExecution.getId());
+      if(last != null && (last.context.equals(context) || ++last.deferred < getContextCommitInterval(stepExecution)))
+        return;
+    }
+    delegate.updateExecutionContext(stepExecution);
+    if(running)
+      written.put(stepExecution.getId(), new Written(context));
+    else
+      written.remove(stepExecution.getId());
+  }
+
+  //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  @Override
+  public boolean isJobInstanceExists(String jobName, JobParameters jobParameters) {
+    return delegate.isJobInstanceExists(jobName, jobParameters);
+  }
+
+  @Override
+  public JobInstance createJobInstance(String jobName, JobParameters jobParameters) {
+    return delegate.createJobInstance(jobName, jobParameters);
+  }
+
+  @Override
+  public JobExecution createJobExecution(JobInstance jobInstance, JobParameters jobParameters,
+                                         String jobConfigurationLocation) {
+    return delegate.createJobExecution(jobInstance, jobParameters, jobConfigurationLocation);
+  }
+
+  @Override
+  public JobExecution createJobExecution(String jobName, JobParameters jobParameters)
+      throws JobExecutionAlreadyRunningException, JobRestartException, JobInstanceAlreadyCompleteException {
+    return delegate.createJobExecution(jobName, jobParameters);
+  }
+
+  @Override
+  public void update(JobExecution jobExecution) {
+    delegate.update(jobExecution);
+  }
+
+  @Override
+  public void add(StepExecution stepExecution) {
+    delegate.add(stepExecution);
+  }
+
+  @Override
+  public void addAll(Collection<StepExecution> stepExecutions) {
+    delegate.addAll(stepExecutions);
+  }
+
+  @Override
+  public void update(StepExecution stepExecution) {
+    delegate.update(stepExecution);
+  }
+
+  @Override
+  public void updateExecutionContext(JobExecution jobExecution) {
+    delegate.updateExecutionContext(jobExecution);
+  }
+
+  @Override
+  public StepExecution getLastStepExecution(JobInstance jobInstance, String stepName) {
+    return delegate.getLastStepExecution(jobInstance, stepName);
+  }
+
+  @Override
+  public int getStepExecutionCount(JobInstance jobInstance, String stepName) {
+    return delegate.getStepExecutionCount(jobInstance, stepName);
+  }
+
+  @Override
+  public JobExecution getLastJobExecution(String jobName, JobParameters jobParameters) {
+    return delegate.getLastJobExecution(jobName, jobParameters);
+  }
+}
@@ -0,0 +1,271 @@
+package se.jiderhamn;
+
+import com.github.luben.zstd.ZstdInputStream;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamReader;
+import org.springframework.batch.item.ItemStreamSupport;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reader of gzip or zstd compressed call logs, that decompresses the file on a separate thread while the lines are
+ * parsed using {@link CallLogLineParser}. The decompressed bytes are passed between the threads in a fixed number of
+ * buffers that are reused, so that decompression can run ahead of parsing by at most that many buffers.
+ *
+ * Since there is no way to seek in the compressed stream, a restart decompresses the file from the start, but skips
+ * the number of lines saved in the {@link ExecutionContext} without parsing them.
+ * @author Mattias Jiderhamn
+ */
+public class CompressedCallLogItemReader extends ItemStreamSupport implements ItemStreamReader<PhoneCall> {
+
+  /** Compression format, detected by the magic bytes at the start of the file */
+  public enum Compression {
+    NONE, GZIP, ZSTD;
+
+    public static Compression of(Path file) throws IOException {
+      final ByteBuffer magic = ByteBuffer.allocate(4);
+      try(FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        while(magic.hasRemaining() && channel.read(magic) > 0) {
+        }
+      }
+      if(magic.position() >= 2 && (magic.get(0) & 0xff) == 0x1f && (magic.get(1) & 0xff) == 0x8b)
+        return GZIP;
+      if(magic.position() == 4 && magic.getInt(0) == 0x28b52ffd)
+        return ZSTD;
+      return NONE;
+    }
+  }
+
+  /** @return Whether the file is in any of the supported compression formats */
+  public static boolean isCompressed(Path file) {
+    try {
+      return Compression.of(file) != Compression.NONE;
+    }
+    catch (IOException e) {
+      throw new ItemStreamException("Unable to read " + file, e);
+    }
+  }
+
+  private static final String LINE_NUMBER = "lineNumber";
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private static final int NO_OF_BUFFERS = 8;
+
+  /** Marks the end of the decompressed stream */
+  private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+  private final Path file;
+
+  private final CallLogLineParser parser = new CallLogLineParser();
+
+  /** Empty buffers, to be filled by the decompressor */
+  private BlockingQueue<ByteBuffer> free;
+
+  /** Buffers filled by the decompressor, to be parsed */
+  private BlockingQueue<ByteBuffer> filled;
+
+  private Thread decompressor;
+
+  /** Exception thrown by the decompressor, if any */
+  private volatile Throwable failure;
+
+  /** Description of the file, for error messages */
+  private String description;
+
+  /** Buffer being parsed, if any */
+  private ByteBuffer current;
+
+  /** Start of a line that continues in the next buffer */
+  private byte[] partialLine = new byte[256];
+
+  private int partialLineLength;
+
+  /** Number of lines read */
+  private int lineNumber;
+
+  /** Number of lines already processed before restart */
+  private int linesToSkip;
+
+  public CompressedCallLogItemReader(Path file) {
+    this.file = file;
+    setName("callLogReader");
+  }
+
+  @Override
+  public void open(ExecutionContext executionContext) throws ItemStreamException {
+    final InputStream input;
+    try {
+      final Compression compression = Compression.of(file);
+      description = "file [" + file + "] (" + compression + ")";
+      final InputStream fileInput = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE);
+      switch (compression) {
+        case GZIP:
+          input = new GZIPInputStream(fileInput, BUFFER_SIZE);
+          break;
+        case ZSTD:
+          input = new ZstdInputStream(fileInput);
+          break;
+        default:
+          input = fileInput;
+      }
+    }
+    catch (IOException e) {
+      throw new ItemStreamException("Unable to open " + file, e);
+    }
+
+    free = new ArrayBlockingQueue<>(NO_OF_BUFFERS);
+    filled = new ArrayBlockingQueue<>(NO_OF_BUFFERS + 1); // Room for END
+    for(int i = 0; i < NO_OF_BUFFERS; i++)
+      free.add(ByteBuffer.allocate(BUFFER_SIZE));
+    failure = null;
+    current = null;
+    partialLineLength = 0;
+    lineNumber = 0;
+    linesToSkip = executionContext.getInt(getExecutionContextKey(LINE_NUMBER), 0);
+
+    decompressor = new Thread(() -> decompress(input), "decompress-" + file.getFileName());
+    decompressor.setDaemon(true);
+    decompressor.start();
+  }
+
+  /** 
+   * Fill free buffers with decompressed bytes, until end of stream, failure or interrupted by {@link #close()}. There is
+   * always room for {@link #END} in {@link #filled}, since it holds at most all buffers.
+   */
+  private void decompress(InputStream input) {
+    try(InputStream in = input) {
+      while(true) {
+        final ByteBuffer buffer = free.take();
+        buffer.clear();
+        final byte[] bytes = buffer.array();
+        int length = 0;
+        int read = 0;
+        while(length < bytes.length && (read = in.read(bytes, length, bytes.length - length)) >= 0)
+          length += read;
+        buffer.limit(length);
+        if(length > 0)
+          filled.put(buffer);
+        if(read < 0)
+          break;
+      }
+    }
+    catch (InterruptedException e) {
+      // Closed
+    }
+    catch (Throwable t) { // Such as a corrupt zstd frame, that may not be an IOException
+      failure = t;
+    }
+    finally {
+      filled.add(END); // So that the reader never waits forever
+    }
+  }
+
+  @Override
+  public void update(ExecutionContext executionContext) throws ItemStreamException {
+    executionContext.putInt(getExecutionContextKey(LINE_NUMBER), lineNumber);
+  }
+
+  @Override
+  public void close() throws ItemStreamException {
+    if(decompressor != null) {
+      decompressor.interrupt();
+      try {
+        decompressor.join();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      decompressor = null;
+    }
+    free = filled = null;
+    current = null;
+  }
+
+  @Override
+  public PhoneCall read() throws IOException, InterruptedException {
+    while(true) {
+      if(current == null || ! current.hasRemaining()) {
+        if(current != null)
+          free.put(current);
+        current = filled.take();
+        if(current == END) {
+          filled.put(END); // For repeated calls at end of file
+          current = null;
+          if(failure != null)
+            throw new IOException("Unable to decompress " + file, failure);
+          if(partialLineLength == 0)
+            return null;
+          final int length = partialLineLength; // Last line has no line break
+          partialLineLength = 0;
+          final PhoneCall call = parse(ByteBuffer.wrap(partialLine), 0, length);
+          if(call != null)
+            return call;
+          continue;
+        }
+      }
+
+      final int lineStart = current.position();
+      final int lineEnd = indexOfLineBreak(current, lineStart);
+      if(lineEnd < 0) { // Line continues in next buffer
+        appendToPartialLine(current, lineStart, current.limit());
+        current.position(current.limit());
+        continue;
+      }
+      current.position(lineEnd + 1);
+
+      final PhoneCall call;
+      if(partialLineLength > 0) {
+        appendToPartialLine(current, lineStart, lineEnd);
+        final int length = partialLineLength;
+        partialLineLength = 0;
+        call = parse(ByteBuffer.wrap(partialLine), 0, length);
+      }
+      else
+        call = parse(current, lineStart, lineEnd);
+      if(call != null)
+        return call;
+    }
+  }
+
+  /** Parse line, or return null if the line is empty or processed before restart */
+  private PhoneCall parse(ByteBuffer buffer, int start, int end) {
+    lineNumber++;
+    if(lineNumber <= linesToSkip)
+      return null;
+    if(end > start && buffer.get(end - 1) == '\r')
+      end--;
+    return (end > start) ? // Ignore empty lines
+        parser.parse(buffer, start, end, lineNumber, description) : null;
+  }
+
+  private void appendToPartialLine(ByteBuffer buffer, int start, int end) {
+    final int length = end - start;
+    if(partialLineLength + length > partialLine.length)
+      partialLine = Arrays.copyOf(partialLine, Math.max(2 * partialLine.length, partialLineLength + length));
+    System.arraycopy(buffer.array(), start, partialLine, partialLineLength, length);
+    partialLineLength += length;
+  }
+
+  private static int indexOfLineBreak(ByteBuffer buffer, int from) {
+    final byte[] bytes = buffer.array();
+    final int limit = buffer.limit();
+    for(int i = from; i < limit; i++) {
+      if(bytes[i] == '\n')
+        return i;
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,112 @@
+package se.jiderhamn;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * List that can only be appended to, by any number of threads concurrently without locking. Each append reserves a
+ * range of indexes using an atomic counter, and the items are stored in segments of fixed size that are never copied.
+ * A lock is only taken when a new segment is needed. Readers of an index that has been reserved but not yet written
+ * wait for the item. Null items are not allowed. Items may be replaced, but not removed.
+ * @author Mattias Jiderhamn
+ */
+class ConcurrentAppendList<T> extends AbstractList<T> implements RandomAccess {
+
+  private static final int SEGMENT_BITS = 12;
+
+  private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+
+  private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+  private final AtomicInteger reserved = new AtomicInteger();
+
+  private volatile AtomicReferenceArray<T>[] segments = newSegments(16);
+
+  @Override
+  public boolean add(T item) {
+    Objects.requireNonNull(item);
+    write(reserve(1), item);
+    return true;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public boolean addAll(Collection<? extends T> items) {
+    final Object[] array = items.toArray();
+    if(array.length == 0)
+      return false;
+    for(Object item : array) // Before reserving, since readers wait for every index reserved
+      Objects.requireNonNull(item);
+    int index = reserve(array.length);
+    for(Object item : array) {
+      write(index++, (T) item);
+    }
+    return true;
+  }
+
+  /** @return First index of a range of {@code count} indexes, reserved unless the list would be full */
+  private int reserve(int count) {
+    int first;
+    do {
+      first = reserved.get();
+      if(first + count < 0) // Overflow
+        throw new IllegalStateException("List is full");
+    } while(! reserved.compareAndSet(first, first + count));
+    return first;
+  }
+
+  private void write(int index, T item) {
+    segment(index >>> SEGMENT_BITS).lazySet(index & SEGMENT_MASK, item);
+  }
+
+  @Override
+  public T get(int index) {
+    if(index < 0 || index >= size())
+      throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+    final AtomicReferenceArray<T> segment = segment(index >>> SEGMENT_BITS);
+    T item;
+    while((item = segment.get(index & SEGMENT_MASK)) == null) // Reserved but not yet written
+      Thread.yield();
+    return item;
+  }
+
+  /** Replace item at an index that has already been written */
+  @Override
+  public T set(int index, T item) {
+    Objects.requireNonNull(item);
+    final T previous = get(index); // Wait until written
+    segment(index >>> SEGMENT_BITS).set(index & SEGMENT_MASK, item);
+    return previous;
+  }
+
+  @Override
+  public int size() {
+    return reserved.get();
+  }
+
+  private AtomicReferenceArray<T> segment(int segmentIndex) {
+    final AtomicReferenceArray<T>[] current = segments;
+    if(segmentIndex < current.length && current[segmentIndex] != null)
+      return current[segmentIndex];
+
+    synchronized (this) {
+      AtomicReferenceArray<T>[] grown = segments;
+      if(segmentIndex >= grown.length)
+        grown = Arrays.copyOf(grown, Math.max(segmentIndex + 1, grown.length * 2));
+      if(grown[segmentIndex] == null)
+        grown[segmentIndex] = new AtomicReferenceArray<>(SEGMENT_SIZE);
+      segments = grown; // Publish
+      return grown[segmentIndex];
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> AtomicReferenceArray<T>[] newSegments(int length) {
+    return (AtomicReferenceArray<T>[]) new AtomicReferenceArray[length];
+  }
+}
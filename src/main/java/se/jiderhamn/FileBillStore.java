@@ -0,0 +1,148 @@
+package se.jiderhamn;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Durable storage of {@link Bill}s in an {@link AppendOnlyLog}, with one record per persisted chunk. Since bills may
+ * be replaced and their sent flag changes after they are stored, each record starts with its type, and the records are
+ * applied in order when the bills are loaded.
+ * @author Mattias Jiderhamn
+ */
+class FileBillStore implements Closeable {
+
+  private static final long MAX_SEGMENT_SIZE = 256L << 20;
+
+  /** Record of bills appended */
+  private static final byte PERSISTED = 0;
+
+  /** Record of bills replacing any previous bill of the same subscriber */
+  private static final byte UPSERTED = 1;
+
+  /** Record of subscribers whose bills have been sent */
+  private static final byte SENT = 2;
+
+  private final Path directory;
+
+  private final AppendOnlyLog log;
+
+  FileBillStore(Path directory) throws IOException {
+    this.directory = directory;
+    this.log = new AppendOnlyLog(directory, "bills", MAX_SEGMENT_SIZE);
+  }
+
+  Path getDirectory() {
+    return directory;
+  }
+
+  /** @return All stored bills, in the order they were first stored, with replaced bills and sent flags applied */
+  List<Bill> load() throws IOException {
+    final List<Bill> bills = new ArrayList<>();
+    final Map<String, Integer> indexes = new HashMap<>();
+    log.forEach((location, payload) -> {
+      final byte type = payload.get();
+      while(payload.hasRemaining()) {
+        if(type == SENT) {
+          final Integer index = indexes.get(readString(payload));
+          if(index != null)
+            bills.get(index).markSent();
+        }
+        else {
+          final Bill bill = readBill(payload);
+          final Integer index = indexes.get(bill.getSubscriber());
+          if(type == UPSERTED && index != null)
+            bills.set(index, bill);
+          else {
+            indexes.put(bill.getSubscriber(), bills.size());
+            bills.add(bill);
+          }
+        }
+      }
+    });
+    return bills;
+  }
+
+  /** Append bills and force them to disk before returning */
+  void append(List<? extends Bill> newBills) {
+    write(PERSISTED, newBills);
+  }
+
+  /** Replace the bills of the same subscribers, and force that to disk before returning */
+  void upsert(List<? extends Bill> newBills) {
+    write(UPSERTED, newBills);
+  }
+
+  private void write(byte type, List<? extends Bill> newBills) {
+    final ByteBuffer payload = allocate(type, newBills, 36);
+    for(Bill bill : newBills) {
+      final Tariff tariff = bill.getTariff();
+      writeString(payload, bill.getSubscriber());
+      payload.putLong(bill.getNoOfCalls());
+      payload.putLong(bill.getTotalDuration().getSeconds());
+      payload.putInt(tariff.getScale());
+      payload.putLong(tariff.getCostPerCallUnits());
+      payload.putLong(tariff.getCostPerSecondUnits());
+    }
+    write(payload);
+  }
+
+  /** Record bills as sent, and force that to disk before returning */
+  void appendSent(List<? extends Bill> sentBills) {
+    final ByteBuffer payload = allocate(SENT, sentBills, 0);
+    for(Bill bill : sentBills)
+      writeString(payload, bill.getSubscriber());
+    write(payload);
+  }
+
+  private void write(ByteBuffer payload) {
+    payload.flip();
+    try {
+      log.sync(log.append(payload).sequence);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /** Allocate buffer for a record of the bills, given the size of each bill besides the subscriber */
+  private static ByteBuffer allocate(byte type, List<? extends Bill> bills, int fixedSize) {
+    int size = 1;
+    for(Bill bill : bills)
+      size += 2 + 3 * bill.getSubscriber().length() + fixedSize; // UTF-8 is at most 3 bytes per char
+    return ByteBuffer.allocate(size).put(type);
+  }
+
+  private static Bill readBill(ByteBuffer payload) {
+    final String subscriber = readString(payload);
+    final long noOfCalls = payload.getLong();
+    final Duration totalDuration = Duration.ofSeconds(payload.getLong());
+    final Tariff tariff = new Tariff(payload.getInt(), payload.getLong(), payload.getLong());
+    return new Bill(subscriber, noOfCalls, totalDuration, tariff);
+  }
+
+  private static void writeString(ByteBuffer buffer, String string) {
+    final byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+    buffer.putShort((short) bytes.length);
+    buffer.put(bytes);
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    final byte[] bytes = new byte[Short.toUnsignedInt(buffer.getShort())];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  @Override
+  public void close() throws IOException {
+    log.close();
+  }
+}
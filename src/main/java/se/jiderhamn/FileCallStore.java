@@ -0,0 +1,260 @@
+package se.jiderhamn;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Durable storage of {@link PhoneCall}s in an {@link AppendOnlyLog}, with one record per persisted chunk. Calls are
+ * encoded the same way as in {@link CallColumns}, that is 20 bytes per call, with subscriber numbers that cannot be
+ * encoded as digits in a separate dictionary log. Only the location of each record is kept in memory; the calls are
+ * read from the memory mapped log.
+ *
+ * Since a chunk is stored before the step commits its position, a chunk stored by a step that then crashed is written
+ * again when restarted. Each record is therefore prefixed by the stream of chunks it belongs to, such as a step of a
+ * job instance, and its number in the stream, as committed by the step. When opened, a record replaces all previous
+ * records of the same stream with the same or a higher number, that were never committed.
+ * @author Mattias Jiderhamn
+ */
+class FileCallStore implements Closeable {
+
+  private static final long MAX_SEGMENT_SIZE = 256L << 20;
+
+  private static final int CALL_SIZE = 20;
+
+  private final Path directory;
+
+  private final AppendOnlyLog calls;
+
+  /** One number per record, referred to by negative codes */
+  private final AppendOnlyLog dictionary;
+
+  private final Map<String, Long> otherNumberCodes = new ConcurrentHashMap<>();
+
+  private final List<String> otherNumbers = new ConcurrentAppendList<>();
+
+  /** Sequence of the last dictionary record, that must be synced before calls referring to it */
+  private volatile long dictionarySequence;
+
+  /** Guarded by this */
+  private final List<Chunk> chunks = new ArrayList<>();
+
+  /** Guarded by this */
+  private int size;
+
+  /** Open store in directory, passing all previously stored calls to {@code replay} */
+  FileCallStore(Path directory, Consumer<PhoneCall> replay) throws IOException {
+    this.directory = directory;
+    this.dictionary = new AppendOnlyLog(directory, "dictionary", MAX_SEGMENT_SIZE);
+    dictionary.forEach((location, payload) -> {
+      final String number = StandardCharsets.UTF_8.decode(payload).toString();
+      otherNumbers.add(number);
+      otherNumberCodes.put(number, (long) -otherNumbers.size());
+    });
+
+    this.calls = new AppendOnlyLog(directory, "chunks", MAX_SEGMENT_SIZE);
+    final List<Record> records = new ArrayList<>();
+    final Map<String, List<Record>> streams = new HashMap<>();
+    calls.forEach((location, payload) -> {
+      final Record record = new Record(location, payload);
+      if(! record.stream.isEmpty()) {
+        final List<Record> stream = streams.computeIfAbsent(record.stream, s -> new ArrayList<>());
+        for(Iterator<Record> it = stream.iterator(); it.hasNext(); ) {
+          final Record previous = it.next();
+          if(previous.number >= record.number) { // Not committed before restart
+            previous.replaced = true;
+            it.remove();
+          }
+        }
+        stream.add(record);
+      }
+      records.add(record);
+    });
+    for(Record record : records) {
+      if(! record.replaced) {
+        final Chunk chunk = new Chunk(record.location, record.callsOffset, size);
+        chunks.add(chunk);
+        size += chunk.size();
+        final ByteBuffer buffer = calls.mapped(record.location);
+        for(int i = 0; i < chunk.size(); i++)
+          replay.accept(read(buffer, chunk.position(i)));
+      }
+    }
+  }
+
+  Path getDirectory() {
+    return directory;
+  }
+
+  /** Append calls that are not part of any stream, and force them to disk before returning */
+  void append(List<? extends PhoneCall> phoneCalls) {
+    append("", -1, phoneCalls);
+  }
+
+  /** 
+   * Append calls as chunk number {@code number} of {@code stream}, and force them to disk before returning
+   * @param stream Unique across restarts, such as the job instance and step name, or empty if never written again
+   */
+  void append(String stream, long number, List<? extends PhoneCall> phoneCalls) {
+    try {
+      final ByteBuffer streamName = StandardCharsets.UTF_8.encode(stream);
+      final ByteBuffer payload = ByteBuffer.allocate(2 + streamName.remaining() + 8 + phoneCalls.size() * CALL_SIZE);
+      payload.putShort((short) streamName.remaining()).put(streamName).putLong(number);
+      final int callsOffset = payload.position();
+      for(PhoneCall call : phoneCalls) {
+        payload.putLong(encode(call.getFromSubscriber()));
+        payload.putLong(encode(call.getToSubscriber()));
+        payload.putInt(Math.toIntExact(call.getDuration().getSeconds()));
+      }
+      payload.flip();
+
+      final AppendOnlyLog.Location location;
+      synchronized (this) {
+        location = calls.append(payload);
+        chunks.add(new Chunk(location, callsOffset, size));
+        size += phoneCalls.size();
+      }
+      dictionary.sync(dictionarySequence);
+      calls.sync(location.sequence);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private long encode(String number) throws IOException {
+    final long code = CallColumns.encodeDigits(number);
+    if(code >= 0)
+      return code;
+    final Long otherCode = otherNumberCodes.get(number);
+    if(otherCode != null)
+      return otherCode;
+    synchronized (otherNumbers) {
+      if(! otherNumberCodes.containsKey(number)) {
+        dictionarySequence = dictionary.append(StandardCharsets.UTF_8.encode(number)).sequence;
+        otherNumbers.add(number);
+        otherNumberCodes.put(number, (long) -otherNumbers.size());
+      }
+      return otherNumberCodes.get(number);
+    }
+  }
+
+  private String decode(long code) {
+    return (code < 0) ? otherNumbers.get((int) (-code - 1)) : CallColumns.decodeDigits(code);
+  }
+
+  private PhoneCall read(ByteBuffer buffer, int position) {
+    return new PhoneCall(decode(buffer.getLong(position)), decode(buffer.getLong(position + 8)),
+        Duration.ofSeconds(buffer.getInt(position + 16)));
+  }
+
+  /** @return Read only list of the stored calls, that are read from disk when accessed */
+  List<PhoneCall> asList() {
+    return new AbstractList<PhoneCall>() {
+      @Override
+      public PhoneCall get(int index) {
+        final Chunk chunk = findChunk(index);
+        try {
+          return read(calls.mapped(chunk.location), chunk.position(index - chunk.firstCall));
+        }
+        catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+
+      @Override
+      public int size() {
+        synchronized (FileCallStore.this) {
+          return size;
+        }
+      }
+    };
+  }
+
+  private synchronized Chunk findChunk(int index) {
+    if(index < 0 || index >= size)
+      throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+    int low = 0;
+    int high = chunks.size() - 1;
+    while(low < high) {
+      final int middle = (low + high + 1) >>> 1;
+      if(chunks.get(middle).firstCall <= index)
+        low = middle;
+      else
+        high = middle - 1;
+    }
+    return chunks.get(low);
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      calls.close();
+    }
+    finally {
+      dictionary.close();
+    }
+  }
+
+  /** Location of a record of calls, and the index of its first call */
+  private static class Chunk {
+
+    private final AppendOnlyLog.Location location;
+
+    /** Position of the first call in the record */
+    private final int callsOffset;
+
+    private final int firstCall;
+
+    private Chunk(AppendOnlyLog.Location location, int callsOffset, int firstCall) {
+      this.location = location;
+      this.callsOffset = callsOffset;
+      this.firstCall = firstCall;
+    }
+
+    private int size() {
+      return (location.length - callsOffset) / CALL_SIZE;
+    }
+
+    /** @return Position in the segment of the call with the index within this chunk */
+    private int position(int index) {
+      return Math.toIntExact(location.position) + callsOffset + index * CALL_SIZE;
+    }
+  }
+
+  /** Stream and number of a record read when opening the store */
+  private static class Record {
+
+    private final AppendOnlyLog.Location location;
+
+    private final String stream;
+
+    private final long number;
+
+    private final int callsOffset;
+
+    /** Whether replaced by a later record of the same stream */
+    private boolean replaced;
+
+    private Record(AppendOnlyLog.Location location, ByteBuffer payload) {
+      this.location = location;
+      final ByteBuffer streamName = payload.duplicate();
+      streamName.position(2).limit(2 + payload.getShort(0));
+      this.stream = StandardCharsets.UTF_8.decode(streamName).toString();
+      this.number = payload.getLong(streamName.limit());
+      this.callsOffset = streamName.limit() + 8;
+    }
+  }
+}
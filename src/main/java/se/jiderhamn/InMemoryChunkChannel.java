@@ -0,0 +1,64 @@
+package se.jiderhamn;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ChunkChannel} with queues between threads in the same JVM, so that remote chunking can be used without a
+ * message broker. There is one queue of responses per step execution, so that concurrent executions only receive
+ * their own. The queues are unbounded, since the manager limits the number of chunks outstanding.
+ * @author Mattias Jiderhamn
+ */
+public class InMemoryChunkChannel implements ChunkChannel {
+
+  private static final Logger LOG = LoggerFactory.getLogger("InMemoryChunkChannel");
+
+  private final BlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+
+  /** Responses by step execution id, for executions that have not ended */
+  private final Map<Long, BlockingQueue<Response>> responses = new ConcurrentHashMap<>();
+
+  @Override
+  public void sendRequest(Request request) throws InterruptedException {
+    requests.put(request);
+  }
+
+  @Override
+  public Request receiveRequest(long timeout, TimeUnit unit) throws InterruptedException {
+    return requests.poll(timeout, unit);
+  }
+
+  @Override
+  public void openResponses(long stepExecutionId) {
+    responses.putIfAbsent(stepExecutionId, new LinkedBlockingQueue<>());
+  }
+
+  @Override
+  public void closeResponses(long stepExecutionId) {
+    responses.remove(stepExecutionId);
+  }
+
+  @Override
+  public void sendResponse(Response response) throws InterruptedException {
+    final BlockingQueue<Response> queue = responses.get(response.getStepExecutionId());
+    if(queue != null)
+      queue.put(response);
+    else
+      LOG.debug("Discarding response to chunk {} of ended step execution {}", response.getSequence(), 
+          response.getStepExecutionId());
+  }
+
+  @Override
+  public Response receiveResponse(long stepExecutionId, long timeout, TimeUnit unit) throws InterruptedException {
+    final BlockingQueue<Response> queue = responses.get(stepExecutionId);
+    if(queue == null)
+      throw new IllegalStateException("Responses to step execution " + stepExecutionId + " not open");
+    return queue.poll(timeout, unit);
+  }
+}
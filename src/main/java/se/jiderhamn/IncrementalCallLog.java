@@ -0,0 +1,264 @@
+package se.jiderhamn;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.ItemWriteListener;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobExecutionListener;
+import org.springframework.batch.core.JobInstance;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.core.scope.context.StepSynchronizationManager;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.file.FlatFileParseException;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of how much of a growing call log has been ingested, so that a job with the {@code incremental} job
+ * parameter only reads the lines appended since the last job instance for the same file. Before the job, the range
+ * of complete lines not yet ingested is put in the job {@link ExecutionContext}. A partially written last line is
+ * left for the next run. When the step reading the call log completes, the end of the range is recorded as ingested,
+ * for the next job instance to find via the {@link JobExplorer}. If the latest job instance reading the file did so
+ * without {@code incremental}, or has not completed, the job fails rather than reading the calls again.
+ *
+ * The subscribers that have made calls in the range are recorded as the calls are written, so that only their bills
+ * need to be created and sent. If restarted in another JVM, they are found by reading the range again.
+ *
+ * Since only the new calls are read, the totals of previous runs must still be in {@link PhoneCallDAO}, either in the
+ * same JVM or via the {@code storeDirectory}. The latter cannot be used with {@code readMode} STREAMING, where only the
+ * totals are kept, in memory.
+ * @author Mattias Jiderhamn
+ */
+public class IncrementalCallLog implements JobExecutionListener, StepExecutionListener, ItemWriteListener<PhoneCall> {
+
+  private static final Logger LOG = LoggerFactory.getLogger("IncrementalCallLog");
+
+  static final String INCREMENTAL = "incremental";
+
+  /** Offset of the first byte to read in this job instance */
+  static final String START_OFFSET = "incremental.startOffset";
+
+  /** Offset after the last complete line to read in this job instance */
+  static final String END_OFFSET = "incremental.endOffset";
+
+  /** Number of lines before {@link #START_OFFSET} */
+  static final String START_LINE = "incremental.startLine";
+
+  /** Number of lines before {@link #END_OFFSET} */
+  static final String END_LINE = "incremental.endLine";
+
+  /** Offset up to which the file has been ingested by this job instance */
+  static final String INGESTED_OFFSET = "incremental.ingestedOffset";
+
+  /** Number of lines ingested by this and previous job instances */
+  static final String INGESTED_LINES = "incremental.ingestedLines";
+
+  /** Number of job instances to fetch at a time when looking for the previous run */
+  private static final int PAGE_SIZE = 100;
+
+  /** Max number of bytes mapped at a time when looking for complete lines */
+  private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+  private final JobExplorer jobExplorer;
+
+  /** Subscribers that have made calls in the range, by id of the job instance */
+  private final Map<Long, Set<String>> touched = new ConcurrentHashMap<>();
+
+  public IncrementalCallLog(JobExplorer jobExplorer) {
+    this.jobExplorer = jobExplorer;
+  }
+
+  static boolean isIncremental(JobExecution jobExecution) {
+    return Boolean.parseBoolean(jobExecution.getJobParameters().getString(INCREMENTAL, "false"));
+  }
+
+  @Override
+  public void beforeJob(JobExecution jobExecution) {
+    final ExecutionContext context = jobExecution.getExecutionContext();
+    if(! isIncremental(jobExecution))
+      return;
+    final String filePath = jobExecution.getJobParameters().getString("filePath");
+    final long instanceId = jobExecution.getJobInstance().getInstanceId();
+    if(context.containsKey(END_OFFSET)) { // Restart reads the same range
+      touched.computeIfAbsent(instanceId, id -> readSubscribers(filePath, context));
+      return;
+    }
+
+    if(CompressedCallLogItemReader.isCompressed(Paths.get(filePath)))
+      throw new IllegalStateException(filePath + " is compressed and cannot be read " + INCREMENTAL + "ly");
+    final ExecutionContext previous = findPreviouslyIngested(jobExecution.getJobInstance(), filePath);
+    final long startOffset = (previous != null) ? previous.getLong(INGESTED_OFFSET) : 0;
+    final int startLine = (previous != null) ? previous.getInt(INGESTED_LINES) : 0;
+
+    try(FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+      final long size = channel.size();
+      if(size < startOffset)
+        throw new IllegalStateException(filePath + " is shorter than the " + startOffset + " bytes already ingested" +
+            " - must be run without " + INCREMENTAL);
+
+      // Find the last complete line, counting lines on the way
+      long endOffset = startOffset;
+      int endLine = startLine;
+      for(long windowOffset = startOffset; windowOffset < size; windowOffset += WINDOW_SIZE) {
+        final MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowOffset,
+            Math.min(WINDOW_SIZE, size - windowOffset));
+        for(int i = 0; i < window.limit(); i++) {
+          if(window.get(i) == '\n') {
+            endOffset = windowOffset + i + 1;
+            endLine++;
+          }
+        }
+      }
+
+      context.putLong(START_OFFSET, startOffset);
+      context.putLong(END_OFFSET, endOffset);
+      context.putInt(START_LINE, startLine);
+      context.putInt(END_LINE, endLine);
+      touched.put(instanceId, ConcurrentHashMap.newKeySet());
+      LOG.info("Ingesting lines {}-{} (bytes {}-{}) of {}", startLine + 1, endLine, startOffset, endOffset, filePath);
+    }
+    catch (IOException e) {
+      throw new ItemStreamException("Unable to read " + filePath, e);
+    }
+  }
+
+  /** 
+   * @return Job context of the latest other job instance that has ingested the file, or null if none
+   * @throws IllegalStateException If the latest other job instance that read the file did so without 
+   *   {@code incremental}, since what it read is not known, and would be counted again, or if it has not completed,
+   *   since the chunks it has committed would be counted again, both now and when it is restarted
+   */
+  private ExecutionContext findPreviouslyIngested(JobInstance current, String filePath) {
+    for(int start = 0; ; start += PAGE_SIZE) {
+      final List<JobInstance> instances = jobExplorer.getJobInstances(current.getJobName(), start, PAGE_SIZE);
+      for(JobInstance instance : instances) { // Latest first
+        if(instance.getInstanceId() == current.getInstanceId())
+          continue;
+        final List<JobExecution> executions = jobExplorer.getJobExecutions(instance);
+        if(executions.isEmpty() || 
+            ! Objects.equals(filePath, executions.get(0).getJobParameters().getString("filePath")))
+          continue;
+        final JobExecution last = executions.stream().max(Comparator.comparing(JobExecution::getId)).get();
+        if(! isIncremental(last)) {
+          if(executions.stream().flatMap(execution -> execution.getStepExecutions().stream())
+              .anyMatch(step -> step.getReadCount() + step.getReadSkipCount() > 0))
+            throw new IllegalStateException(filePath + " was read by job instance " + instance.getInstanceId() +
+                " without " + INCREMENTAL + " - must be run without " + INCREMENTAL);
+        }
+        else if(last.getStatus() != BatchStatus.COMPLETED) {
+          if(last.getExecutionContext().containsKey(END_OFFSET)) // Not failed before reading
+            throw new IllegalStateException(filePath + " is being read by job instance " + instance.getInstanceId() +
+                ", that is " + last.getStatus() + " - it must be restarted and complete first");
+        }
+        else if(last.getExecutionContext().containsKey(INGESTED_OFFSET))
+          return last.getExecutionContext();
+      }
+      if(instances.size() < PAGE_SIZE)
+        return null;
+    }
+  }
+
+  /** @return Subscribers that have made calls in the range of the previous job execution */
+  private static Set<String> readSubscribers(String filePath, ExecutionContext context) {
+    final Set<String> subscribers = ConcurrentHashMap.newKeySet();
+    final MappedCallLogItemReader reader = new MappedCallLogItemReader(Paths.get(filePath),
+        context.getLong(START_OFFSET), context.getLong(END_OFFSET));
+    reader.open(new ExecutionContext());
+    try {
+      while(true) {
+        try {
+          final PhoneCall call = reader.read();
+          if(call == null)
+            break;
+          subscribers.add(call.getFromSubscriber());
+        }
+        catch (FlatFileParseException e) {
+          // Skipped when read by the step
+        }
+      }
+    }
+    catch (IOException e) {
+      throw new ItemStreamException("Unable to read " + filePath, e);
+    }
+    finally {
+      reader.close();
+    }
+    LOG.info("Found {} subscribers with calls in bytes {}-{} of {}", subscribers.size(), context.getLong(START_OFFSET),
+        context.getLong(END_OFFSET), filePath);
+    return subscribers;
+  }
+
+  /** 
+   * @return Subscribers that have made calls in the range, in the same order on restart, or null if not 
+   * {@code incremental}
+   */
+  List<String> getTouchedSubscribers(JobExecution jobExecution) {
+    final Set<String> subscribers = touched.get(jobExecution.getJobInstance().getInstanceId());
+    if(subscribers == null)
+      return null;
+    final List<String> sorted = new ArrayList<>(subscribers);
+    sorted.sort(null);
+    return sorted;
+  }
+
+  /** Forget the subscribers unless the job instance may be restarted */
+  @Override
+  public void afterJob(JobExecution jobExecution) {
+    if(jobExecution.getStatus() == BatchStatus.COMPLETED || jobExecution.getStatus() == BatchStatus.ABANDONED)
+      touched.remove(jobExecution.getJobInstance().getInstanceId());
+  }
+
+  @Override
+  public void beforeStep(StepExecution stepExecution) {
+  }
+
+  /** Record the range as ingested when the step reading the call log completes */
+  @Override
+  public ExitStatus afterStep(StepExecution stepExecution) {
+    final JobExecution jobExecution = stepExecution.getJobExecution();
+    final ExecutionContext context = jobExecution.getExecutionContext();
+    if(isIncremental(jobExecution) && stepExecution.getStatus() == BatchStatus.COMPLETED) {
+      context.putLong(INGESTED_OFFSET, context.getLong(END_OFFSET));
+      context.putInt(INGESTED_LINES, context.getInt(END_LINE));
+    }
+    return null;
+  }
+
+  //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // ItemWriteListener
+
+  @Override
+  public void beforeWrite(List<? extends PhoneCall> calls) {
+  }
+
+  /** Record the subscribers of the calls written, if {@code incremental} */
+  @Override
+  public void afterWrite(List<? extends PhoneCall> calls) {
+    final JobExecution jobExecution = StepSynchronizationManager.getContext().getStepExecution().getJobExecution();
+    final Set<String> subscribers = touched.get(jobExecution.getJobInstance().getInstanceId());
+    if(subscribers != null) {
+      for(PhoneCall call : calls)
+        subscribers.add(call.getFromSubscriber());
+    }
+  }
+
+  @Override
+  public void onWriteError(Exception exception, List<? extends PhoneCall> calls) {
+  }
+}
@@ -0,0 +1,72 @@
+package se.jiderhamn;
+
+import org.springframework.batch.core.configuration.annotation.DefaultBatchConfigurer;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.core.explore.support.JobExplorerFactoryBean;
+import org.springframework.batch.core.repository.ExecutionContextSerializer;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.core.repository.support.JobRepositoryFactoryBean;
+
+import javax.sql.DataSource;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Configuration of a job repository in a database, for use instead of the in-memory one. Besides the steps' own
+ * updates of the database, each chunk commit updates the step execution and its {@link
+ * org.springframework.batch.item.ExecutionContext}, so the repository is tuned for that:
+ * <ul>
+ *   <li>Contexts are serialized by {@link PositionExecutionContextSerializer}, keeping them small</li>
+ *   <li>Context updates are coalesced by {@link CoalescingJobRepository}, for idempotent steps only</li>
+ * </ul>
+ * Job executions are still created with isolation level SERIALIZABLE, since jobs may be launched concurrently, such
+ * as when {@link ApprovalRestarter} restarts a job that an operator relaunches.
+ * The tables are expected to exist, see {@code /org/springframework/batch/core/schema-*.sql}.
+ * @author Mattias Jiderhamn
+ */
+public class JdbcBatchConfigurer extends DefaultBatchConfigurer {
+
+  private final DataSource dataSource;
+
+  private final ExecutionContextSerializer serializer = new PositionExecutionContextSerializer();
+
+  private int contextCommitInterval = 1;
+
+  private Set<String> idempotentSteps = Collections.emptySet();
+
+  public JdbcBatchConfigurer(DataSource dataSource) {
+    super(dataSource);
+    this.dataSource = dataSource;
+  }
+
+  /** 
+   * Write the execution context of a running step on every n:th chunk commit only, for the steps named. Defaults to 1.
+   * If the process dies, a restart writes up to n - 1 chunks again, so only name steps whose writers are idempotent,
+   * or the chunks will be counted twice. Of {@link JobConfiguration}, see {@link JobConfiguration#IDEMPOTENT_STEPS}.
+   */
+  public void setContextCommitInterval(int contextCommitInterval, String... idempotentSteps) {
+    this.contextCommitInterval = contextCommitInterval;
+    this.idempotentSteps = new HashSet<>(Arrays.asList(idempotentSteps));
+  }
+
+  @Override
+  protected JobRepository createJobRepository() throws Exception {
+    final JobRepositoryFactoryBean factory = new JobRepositoryFactoryBean();
+    factory.setDataSource(dataSource);
+    factory.setTransactionManager(getTransactionManager());
+    factory.setSerializer(serializer);
+    factory.afterPropertiesSet();
+    return new CoalescingJobRepository(factory.getObject(), contextCommitInterval, idempotentSteps);
+  }
+
+  @Override
+  protected JobExplorer createJobExplorer() throws Exception {
+    final JobExplorerFactoryBean factory = new JobExplorerFactoryBean();
+    factory.setDataSource(dataSource);
+    factory.setSerializer(serializer);
+    factory.afterPropertiesSet();
+    return factory.getObject();
+  }
+}
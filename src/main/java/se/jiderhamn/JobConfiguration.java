@@ -2,6 +2,8 @@ package se.jiderhamn;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ChunkListener;
 import org.springframework.batch.core.ExitStatus;
 import org.springframework.batch.core.ItemProcessListener;
 import org.springframework.batch.core.ItemReadListener;
@@ -9,37 +11,64 @@ import org.springframework.batch.core.ItemWriteListener;
 import org.springframework.batch.core.Job;
 import org.springframework.batch.core.JobExecution;
 import org.springframework.batch.core.JobExecutionListener;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.JobParametersInvalidException;
+import org.springframework.batch.core.JobParametersValidator;
 import org.springframework.batch.core.SkipListener;
 import org.springframework.batch.core.Step;
 import org.springframework.batch.core.StepExecution;
 import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.core.configuration.JobRegistry;
 import org.springframework.batch.core.configuration.annotation.JobBuilderFactory;
 import org.springframework.batch.core.configuration.annotation.JobScope;
 import org.springframework.batch.core.configuration.annotation.StepBuilderFactory;
 import org.springframework.batch.core.configuration.annotation.StepScope;
+import org.springframework.batch.core.configuration.support.JobRegistryBeanPostProcessor;
+import org.springframework.batch.core.explore.JobExplorer;
+import org.springframework.batch.core.job.CompositeJobParametersValidator;
 import org.springframework.batch.core.job.DefaultJobParametersValidator;
 import org.springframework.batch.core.job.builder.FlowBuilder;
 import org.springframework.batch.core.job.flow.FlowExecutionStatus;
 import org.springframework.batch.core.job.flow.JobExecutionDecider;
 import org.springframework.batch.core.job.flow.support.SimpleFlow;
+import org.springframework.batch.core.launch.JobLauncher;
+import org.springframework.batch.core.partition.support.Partitioner;
+import org.springframework.batch.core.scope.context.StepSynchronizationManager;
+import org.springframework.batch.core.step.builder.FaultTolerantStepBuilder;
+import org.springframework.batch.core.step.builder.SimpleStepBuilder;
+import org.springframework.batch.core.step.skip.SkipPolicy;
+import org.springframework.batch.item.ExecutionContext;
 import org.springframework.batch.item.ItemProcessor;
-import org.springframework.batch.item.ItemReader;
-import org.springframework.batch.item.file.FlatFileItemReader;
+import org.springframework.batch.item.ItemStreamReader;
+import org.springframework.batch.item.ItemWriter;
 import org.springframework.batch.item.file.FlatFileParseException;
-import org.springframework.batch.item.file.builder.FlatFileItemReaderBuilder;
-import org.springframework.batch.item.support.ListItemReader;
 import org.springframework.batch.repeat.RepeatStatus;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.core.task.TaskExecutor;
+import org.springframework.retry.RetryCallback;
+import org.springframework.retry.RetryContext;
 import org.springframework.retry.backoff.ExponentialBackOffPolicy;
+import org.springframework.retry.listener.RetryListenerSupport;
+import org.springframework.retry.policy.SimpleRetryPolicy;
+import org.springframework.retry.support.RetryTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
+import java.nio.file.Paths;
 import java.time.Duration;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeoutException;
 
+import static java.util.Collections.singletonMap;
+import static java.util.stream.Collectors.toList;
+
 /**
  * @author Mattias Jiderhamn
  */
@@ -49,177 +78,574 @@ public class JobConfiguration {
 
   private static final Logger LOG = LoggerFactory.getLogger("JobConfiguration");
 
+  /** Store all {@link PhoneCall}s, then create bills in a separate step */
+  static final String READ_MODE_SEQUENTIAL = "SEQUENTIAL";
+
+  /** Only keep running totals per subscriber while reading, and create bills at the end of the step */
+  static final String READ_MODE_STREAMING = "STREAMING";
+
+  /** Read byte ranges of the call log in parallel, then create bills in a separate step */
+  static final String READ_MODE_PARTITIONED = "PARTITIONED";
+
+  /** Create bills for one subscriber at a time */
+  static final String BILLING_MODE_SERIAL = "SERIAL";
+
+  /** Create bills for all subscribers of a chunk concurrently */
+  static final String BILLING_MODE_PARALLEL = "PARALLEL";
+
+  /** Send chunks of subscribers to {@link BillingWorkers} over a {@link ChunkChannel}, like remote chunking */
+  static final String BILLING_MODE_REMOTE = "REMOTE";
+
+  /** 
+   * Job parameter with directory where calls and bills are stored durably, so that a restart can continue after the 
+   * JVM has been recycled 
+   */
+  static final String STORE_DIRECTORY = "storeDirectory";
+
+  /** 
+   * Steps that may write the same chunk again on restart without counting it twice, since the chunks of calls that
+   * were not committed are replaced in the {@link #STORE_DIRECTORY}, and bills are sent with idempotency keys. See 
+   * {@link JdbcBatchConfigurer#setContextCommitInterval(int, String...)}.
+   */
+  static final String[] IDEMPOTENT_STEPS = {"readCallDataFromFile", "readCallDataFromFileRange", "sendBills"};
+
+  /** Step context key with the number of chunks of calls persisted and committed */
+  private static final String PERSISTED_CHUNKS = "persistedChunks";
+
+  private static final String COMPLETED = ExitStatus.COMPLETED.getExitCode();
+
+  /** Number of skips always allowed when reading the call log, whatever {@link SkipRatioPolicy#MAX_SKIP_RATIO} */
+  private static final int MIN_SKIP_LIMIT = 10;
+
+  /** Share of the lines of the call log that may be skipped, unless overridden by job parameter */
+  private static final double MAX_SKIP_RATIO = 0.001;
+
+  /** Number of skipped lines that may be waiting for the {@link #quarantineWriter()} */
+  private static final int QUARANTINE_QUEUE_CAPACITY = 10_000;
+
+  /** Commit-limit, unless adapted by {@link #chunkCompletionPolicy} */
+  private static final int CHUNK_SIZE = 100;
+
+  /** Number of items to read from DAOs at a time */
+  private static final int PAGE_SIZE = 1000;
+
+  /** Number of attempts to create bill for a subscriber */
+  private static final int RETRY_LIMIT = 10;
+
+  /** Number of attempts to send a bill */
+  private static final int SEND_ATTEMPTS = 3;
+
+  /** Max time to wait for {@link BillingWorkers} to respond */
+  private static final long WORKER_RESPONSE_TIMEOUT_MILLIS = 60_000;
+
   @Autowired
   private StepBuilderFactory steps;
   
   @Autowired
   private JobBuilderFactory jobs;
 
+  @Autowired
+  private JobExplorer jobExplorer;
+
+  @Autowired
+  private JobLauncher jobLauncher;
+
+  @Autowired
+  private JobRegistry jobRegistry;
+
   //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
   
   @Bean(name = "parseCallLogJob")
   protected Job parseCallLogJob() {
     return jobs.get("parseCallLog")
-        .validator(new DefaultJobParametersValidator(new String[] {"filePath"}, new String[] {"manualApproval"}))
-        .start(readCallDataFromFile())
-        .next(createBills())
-        .next(stopForManualApproval( /* Overridden by expression */))
-        .next(sendBills())
-        .next(notifyDone())
-        .listener(new JobExecutionListener() {
-          @Override
-          public void beforeJob(JobExecution jobExecution) {
-            LOG.info("Starting job {}, with parameters {}", jobExecution.getJobInstance(), jobExecution.getJobParameters());
-          }
+        .validator(parseCallLogValidator())
+        .start(new FlowBuilder<SimpleFlow>("parseCallLogFlow")
+          .start(decideOnReadMode())
+            .on(READ_MODE_STREAMING).to(aggregateCallDataFromFile())
+            .next(stopForManualApproval())
+          .from(decideOnReadMode())
+            .on(READ_MODE_PARTITIONED).to(readCallDataFromFilePartitioned())
+            .on(COMPLETED).to(decideOnBillingMode())
+          .from(decideOnReadMode())
+            .on("*").to(readCallDataFromFile())
+            .on(COMPLETED).to(decideOnBillingMode())
+          .from(decideOnBillingMode())
+            .on(BILLING_MODE_PARALLEL).to(createBillsInParallel())
+            .next(stopForManualApproval())
+          .from(decideOnBillingMode())
+            .on(BILLING_MODE_REMOTE).to(createBillsRemotely())
+            .next(stopForManualApproval())
+          .from(decideOnBillingMode())
+            .on("*").to(createBills())
+            .next(stopForManualApproval( /* Overridden by expression */))
+            .next(sendBills())
+            .next(notifyDone())
+          .build())
+        .end()
+        .listener(jobLifecycleListener())
+        .listener(batchMetrics())
+        .listener((JobExecutionListener) incrementalCallLog())
+        .listener(approvalRestarter())
+        .listener((JobExecutionListener) quarantine())
+        .build();
+  }
 
-          @Override
-          public void afterJob(JobExecution jobExecution) {
-            final String path = jobExecution.getJobParameters().getString("filePath");
-            // NOTE! Comparison must be made on exitCode only, which compareTo() does
-            if(ExitStatus.COMPLETED.compareTo(jobExecution.getExitStatus()) == 0) {
-              LOG.info("Job completed successfully for file " + path);
-            }  
-            else if(ExitStatus.FAILED.compareTo(jobExecution.getExitStatus()) == 0) {
-              LOG.info("Job failed for file " + path);
-            }  
-            else if(ExitStatus.STOPPED.compareTo(jobExecution.getExitStatus()) == 0) {
-              LOG.error("Job stopped - file " + path);
-            }
-            else {
-              // ExitStatus.UNKNOWN, ExitStatus.EXECUTING, ExitStatus.NOOP
-              LOG.error("Job exited with status {}", jobExecution.getExitStatus());
-            }
-          }
-        })
+  private static JobParametersValidator parseCallLogValidator() {
+    final CompositeJobParametersValidator validator = new CompositeJobParametersValidator();
+    validator.setValidators(Arrays.asList(
+        new DefaultJobParametersValidator(new String[] {"filePath"}, new String[] {"manualApproval", "readMode", "partitions", "billingMode", BatchMetrics.METRICS_FILE,
+            "adaptiveChunkSteps", "targetCommitLatency", "minChunkSize", "maxChunkSize", "maxBatchesInFlight", "maxChunksOutstanding", STORE_DIRECTORY, IncrementalCallLog.INCREMENTAL, ApprovalRestarter.AUTO_RESTART,
+            SkipRatioPolicy.MAX_SKIP_RATIO, Quarantine.QUARANTINE_FILE, "run.id"}),
+        jobParameters -> { // Only the calls are stored, and streaming keeps the totals in memory only
+          if(READ_MODE_STREAMING.equalsIgnoreCase(jobParameters.getString("readMode")) &&
+              jobParameters.getString(STORE_DIRECTORY) != null)
+            throw new JobParametersInvalidException(STORE_DIRECTORY + " cannot be used with readMode " +
+                READ_MODE_STREAMING + ", since the totals would not survive a restart in another JVM");
+        }));
+    return validator;
+  }
+
+  /** Variant of {@link #parseCallLogJob()} that reads all call logs matching {@code fileGlob}, one file per partition */
+  @Bean(name = "parseCallLogsJob")
+  protected Job parseCallLogsJob() {
+    return jobs.get("parseCallLogs")
+        .validator(new DefaultJobParametersValidator(new String[] {CallLogFiles.FILE_GLOB}, new String[] {"manualApproval", "concurrency", "billingMode", BatchMetrics.METRICS_FILE,
+            "adaptiveChunkSteps", "targetCommitLatency", "minChunkSize", "maxChunkSize", "maxBatchesInFlight", "maxChunksOutstanding", STORE_DIRECTORY, ApprovalRestarter.AUTO_RESTART,
+            SkipRatioPolicy.MAX_SKIP_RATIO, Quarantine.QUARANTINE_FILE, "run.id"}))
+        .start(new FlowBuilder<SimpleFlow>("parseCallLogsFlow")
+          .start(readCallDataFromFiles())
+            .on(COMPLETED).to(decideOnBillingMode())
+          .from(decideOnBillingMode())
+            .on(BILLING_MODE_PARALLEL).to(createBillsInParallel())
+            .next(stopForManualApproval())
+          .from(decideOnBillingMode())
+            .on(BILLING_MODE_REMOTE).to(createBillsRemotely())
+            .next(stopForManualApproval())
+          .from(decideOnBillingMode())
+            .on("*").to(createBills())
+            .next(stopForManualApproval())
+            .next(sendBills())
+            .next(notifyDone())
+          .build())
+        .end()
+        .listener(new CallLogFiles())
+        .listener(jobLifecycleListener())
+        .listener(batchMetrics())
+        .listener(approvalRestarter())
+        .listener((JobExecutionListener) quarantine())
         .build();
   }
 
+  /** Launch {@link #parseCallLogJob()} for call logs, keeping this context warm between files */
+  @Bean
+  JobLaunchService jobLaunchService() {
+    return new JobLaunchService(jobLauncher, parseCallLogJob(), launchTaskExecutor());
+  }
+
+  @Bean
+  TaskExecutor launchTaskExecutor() {
+    final ThreadPoolTaskExecutor taskExecutor = new ThreadPoolTaskExecutor();
+    taskExecutor.setCorePoolSize(1); // Jobs share the DAOs
+    taskExecutor.setThreadNamePrefix("launch-");
+    return taskExecutor;
+  }
+
+  /** Log start and outcome of job, and open the {@link #STORE_DIRECTORY} if any */
+  @Bean
+  JobExecutionListener jobLifecycleListener() {
+    return new JobExecutionListener() {
+      @Override
+      public void beforeJob(JobExecution jobExecution) {
+        LOG.info("Starting job {}, with parameters {}", jobExecution.getJobInstance(), jobExecution.getJobParameters());
+        final String storeDirectory = jobExecution.getJobParameters().getString(STORE_DIRECTORY);
+        if(storeDirectory != null) { // Reopen on restart, in case the JVM has been recycled
+          PhoneCallDAO.open(Paths.get(storeDirectory));
+          BillDAO.open(Paths.get(storeDirectory));
+        }
+      }
+
+      @Override
+      public void afterJob(JobExecution jobExecution) {
+        final String path = jobExecution.getJobParameters().getString("filePath",
+            jobExecution.getJobParameters().getString(CallLogFiles.FILE_GLOB));
+        // NOTE! Comparison must be made on exitCode only, which compareTo() does
+        if(ExitStatus.COMPLETED.compareTo(jobExecution.getExitStatus()) == 0) {
+          LOG.info("Job completed successfully for file " + path);
+        }  
+        else if(ExitStatus.FAILED.compareTo(jobExecution.getExitStatus()) == 0) {
+          LOG.info("Job failed for file " + path);
+        }  
+        else if(ExitStatus.STOPPED.compareTo(jobExecution.getExitStatus()) == 0) {
+          LOG.error("Job stopped - file " + path);
+        }
+        else {
+          // ExitStatus.UNKNOWN, ExitStatus.EXECUTING, ExitStatus.NOOP
+          LOG.error("Job exited with status {}", jobExecution.getExitStatus());
+        }
+      }
+    };
+  }
+
+  /** 
+   * Restart jobs stopped for manual approval once approved, if {@code autoRestartOnApproval}, one at a time with the 
+   * launches of {@link #jobLaunchService()}, since all jobs share the DAOs
+   */
+  @Bean
+  ApprovalRestarter approvalRestarter() {
+    return new ApprovalRestarter(jobRegistry, jobLauncher, jobExplorer, launchTaskExecutor());
+  }
+
+  /** Register the jobs, so that {@link ApprovalRestarter} can find them by name */
+  @Bean
+  static JobRegistryBeanPostProcessor jobRegistryBeanPostProcessor(JobRegistry jobRegistry) {
+    final JobRegistryBeanPostProcessor postProcessor = new JobRegistryBeanPostProcessor();
+    postProcessor.setJobRegistry(jobRegistry);
+    return postProcessor;
+  }
+
+  @Bean
+  BatchMetrics batchMetrics() {
+    return new BatchMetrics();
+  }
+
+  /** Read only lines not already read by a previous job instance, if {@code incremental} */
+  @Bean
+  IncrementalCallLog incrementalCallLog() {
+    return new IncrementalCallLog(jobExplorer);
+  }
+
+  /** 
+   * Decide whether to store all calls before creating bills ({@link #READ_MODE_SEQUENTIAL}, default), to do the same
+   * using multiple threads ({@link #READ_MODE_PARTITIONED}) or to create bills from running totals while reading the
+   * call log ({@link #READ_MODE_STREAMING}).
+   */
+  @Bean
+  JobExecutionDecider decideOnReadMode() {
+    return (jobExecution, stepExecution) -> 
+        new FlowExecutionStatus(jobExecution.getJobParameters().getString("readMode", READ_MODE_SEQUENTIAL).toUpperCase());
+  }
+
   //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
   @Bean
   Step readCallDataFromFile() {
-    return steps.get("readCallDataFromFile")
-        .<PhoneCall, PhoneCall>chunk(100) // Commit-limit
+    return instrument("readCallDataFromFile", steps.get("readCallDataFromFile")
+        .<PhoneCall, PhoneCall>chunk(chunkCompletionPolicy())
         .faultTolerant()
-          .skip(FlatFileParseException.class).skipLimit(10)
-        .reader(flatFileReader("Overridden by expression"))
-        .writer(PhoneCallDAO::persist)
-        .listener(new ItemReadListener<PhoneCall> () {
-          @Override
-          public void beforeRead() {
-            // LOG.info("beforeRead()");
-          }
+          .skipPolicy(skipRatioPolicy())
+          .listener((SkipListener<PhoneCall, PhoneCall>) quarantine())
+        .listener((ItemWriteListener<PhoneCall>) incrementalCallLog())
+        .reader(callLogReader("Overridden by expression", null, null, null))
+        .writer(callPersister()))
+        .listener((StepExecutionListener) incrementalCallLog())
+        .listener((StepExecutionListener) quarantine())
+        .build();
+  }
 
-          @Override
-          public void afterRead(PhoneCall item) {
-            // LOG.info("afterRead() " + item);
-          }
+  /** Read the whole file, or only the range given by {@link #incrementalCallLog()}, unless compressed */
+  @Bean
+  @JobScope // Needed for @Value
+  ItemStreamReader<PhoneCall> callLogReader(
+      @Value("#{jobParameters[filePath]}") String filePath,
+      @Value("#{jobExecutionContext['" + IncrementalCallLog.START_OFFSET + "']}") Long startOffset,
+      @Value("#{jobExecutionContext['" + IncrementalCallLog.END_OFFSET + "']}") Long endOffset,
+      @Value("#{jobExecutionContext['" + IncrementalCallLog.START_LINE + "']}") Integer startLine) {
+    if(CompressedCallLogItemReader.isCompressed(Paths.get(filePath)))
+      return new CompressedCallLogItemReader(Paths.get(filePath));
+    if(startOffset == null)
+      return new MappedCallLogItemReader(Paths.get(filePath));
+    final MappedCallLogItemReader reader = new MappedCallLogItemReader(Paths.get(filePath), startOffset, endOffset);
+    reader.setLinesBefore(startLine);
+    return reader;
+  }
 
-          @Override
-          public void onReadError(Exception ex) {
-            LOG.error("Error reading", ex);
-          }
-        })
-        .listener(new SkipListener<PhoneCall, PhoneCall>() {
-          @Override
-          public void onSkipInRead(Throwable t) {
-            LOG.error("Skip reading call log", t);
-          }
+  /** Alternative to {@link #readCallDataFromFile()} that reads the file in partitions on multiple threads */
+  @Bean
+  Step readCallDataFromFilePartitioned() {
+    return steps.get("readCallDataFromFilePartitioned")
+        .listener((StepExecutionListener) instrumentation("readCallDataFromFilePartitioned"))
+        .listener((StepExecutionListener) incrementalCallLog())
+        .partitioner("readCallDataFromFileRange", callLogPartitioner("Overridden by expression", null, null, null))
+        .step(readCallDataFromFileRange())
+        .gridSize(Runtime.getRuntime().availableProcessors()) // Default, if not overridden by job parameter
+        .taskExecutor(partitionTaskExecutor())
+        .build();
+  }
 
-          @Override
-          public void onSkipInWrite(PhoneCall item, Throwable t) {
-            LOG.error("Skip writing call " + item, t);
-          }
+  @Bean
+  Step readCallDataFromFileRange() {
+    return instrument("readCallDataFromFileRange", steps.get("readCallDataFromFileRange")
+        .<PhoneCall, PhoneCall>chunk(chunkCompletionPolicy())
+        .faultTolerant()
+          .skipPolicy(sharedSkipRatioPolicy())
+          .listener((SkipListener<PhoneCall, PhoneCall>) quarantine())
+        .listener((ItemWriteListener<PhoneCall>) incrementalCallLog())
+        .reader(fileRangeReader("Overridden by expression", null, null))
+        .writer(callPersister()))
+        .listener((StepExecutionListener) quarantine())
+        .build();
+  }
 
-          @Override
-          public void onSkipInProcess(PhoneCall item, Throwable t) {
-            LOG.error("Skip processing call" + item, t);
-          }
-        })
-        
-        .listener(new ItemWriteListener<PhoneCall>() {
+  @Bean
+  @JobScope // Needed for @Value
+  Partitioner callLogPartitioner(
+      @Value("#{jobParameters[filePath]}") String filePath,
+      @Value("#{jobParameters[partitions]}") String partitions,
+      @Value("#{jobExecutionContext['" + IncrementalCallLog.START_OFFSET + "']}") Long startOffset,
+      @Value("#{jobExecutionContext['" + IncrementalCallLog.END_OFFSET + "']}") Long endOffset) {
+    final Partitioner partitioner = (startOffset == null) ? new CallLogPartitioner(Paths.get(filePath)) :
+        new CallLogPartitioner(Paths.get(filePath), startOffset, endOffset);
+    return gridSize -> partitioner.partition(partitions != null ? Integer.parseInt(partitions) : gridSize);
+  }
 
-          @Override
-          public void beforeWrite(List item) {
-            // LOG.info("beforeWrite() " + item);
-          }
+  /** Skip bad lines, up to {@code maxSkipRatio} of the lines read by the step */
+  @Bean
+  SkipPolicy skipRatioPolicy() {
+    return new SkipRatioPolicy(FlatFileParseException.class, MAX_SKIP_RATIO, MIN_SKIP_LIMIT, false);
+  }
 
-          @Override
-          public void afterWrite(List item) {
-            // LOG.info("afterWrite() " + item);
-          }
+  /** Like {@link #skipRatioPolicy()}, but for the lines read by all partitions of the job execution */
+  @Bean
+  SkipPolicy sharedSkipRatioPolicy() {
+    return new SkipRatioPolicy(FlatFileParseException.class, MAX_SKIP_RATIO, MIN_SKIP_LIMIT, true);
+  }
 
-          @Override
-          public void onWriteError(Exception ex, List items) {
-            LOG.error("onWriteError() " + items, ex);
-          }
-        })
+  /** Record skipped lines in a quarantine file */
+  @Bean
+  Quarantine quarantine() {
+    return new Quarantine(quarantineWriter());
+  }
+
+  @Bean(initMethod = "start", destroyMethod = "stop")
+  QuarantineWriter quarantineWriter() {
+    return new QuarantineWriter(QUARANTINE_QUEUE_CAPACITY);
+  }
+
+  @Bean
+  @StepScope // Needed for @Value
+  ItemStreamReader<PhoneCall> fileRangeReader(@Value("#{stepExecutionContext[filePath]}") String filePath,
+                                              @Value("#{stepExecutionContext[startOffset]}") Long startOffset,
+                                              @Value("#{stepExecutionContext[endOffset]}") Long endOffset) {
+    if(CompressedCallLogItemReader.isCompressed(Paths.get(filePath))) // Single partition
+      return new CompressedCallLogItemReader(Paths.get(filePath));
+    return new MappedCallLogItemReader(Paths.get(filePath), startOffset, endOffset);
+  }
+
+  @Bean
+  TaskExecutor partitionTaskExecutor() {
+    final ThreadPoolTaskExecutor taskExecutor = new ThreadPoolTaskExecutor();
+    taskExecutor.setCorePoolSize(Runtime.getRuntime().availableProcessors());
+    taskExecutor.setThreadNamePrefix("partition-");
+    return taskExecutor;
+  }
+
+  /** 
+   * Read each of the {@link CallLogFiles} in a partition of its own, with up to {@code concurrency} (default number of
+   * processors) files at a time. The calls of all files are stored together, so the totals are for all files.
+   */
+  @Bean
+  Step readCallDataFromFiles() {
+    return steps.get("readCallDataFromFiles")
+        .listener((StepExecutionListener) instrumentation("readCallDataFromFiles"))
+        .partitioner("readCallLogFile", callLogFilesPartitioner(null))
+        .step(readCallLogFile())
+        .taskExecutor(fileTaskExecutor(null))
+        .build();
+  }
+
+  /** Like {@link #readCallDataFromFileRange()}, but with the skip ratio applying to each file */
+  @Bean
+  Step readCallLogFile() {
+    return instrument("readCallLogFile", steps.get("readCallLogFile")
+        .<PhoneCall, PhoneCall>chunk(chunkCompletionPolicy())
+        .faultTolerant()
+          .skipPolicy(skipRatioPolicy())
+          .listener((SkipListener<PhoneCall, PhoneCall>) quarantine())
+        .reader(fileRangeReader("Overridden by expression", null, null))
+        .writer(callPersister()))
+        .listener((StepExecutionListener) quarantine())
+        .build();
+  }
+
+  @Bean
+  @JobScope // Needed for @Value
+  Partitioner callLogFilesPartitioner(@Value("#{jobExecution}") JobExecution jobExecution) {
+    return CallLogFiles.partitioner(CallLogFiles.getFiles(jobExecution));
+  }
+
+  @Bean
+  @JobScope // Needed for @Value
+  TaskExecutor fileTaskExecutor(@Value("#{jobParameters[concurrency]}") String concurrency) {
+    final SimpleAsyncTaskExecutor taskExecutor = new SimpleAsyncTaskExecutor("file-");
+    taskExecutor.setConcurrencyLimit(
+        (concurrency != null) ? Integer.parseInt(concurrency) : Runtime.getRuntime().availableProcessors());
+    return taskExecutor;
+  }
+
+  /** Alternative to {@link #readCallDataFromFile()} + {@link #createBills()} that never holds the calls in memory */
+  @Bean
+  Step aggregateCallDataFromFile() {
+    return instrument("aggregateCallDataFromFile", steps.get("aggregateCallDataFromFile")
+        .<PhoneCall, PhoneCall>chunk(chunkCompletionPolicy())
+        .faultTolerant()
+          .skipPolicy(skipRatioPolicy())
+          .listener((SkipListener<PhoneCall, PhoneCall>) quarantine())
+        .listener((ItemWriteListener<PhoneCall>) incrementalCallLog())
+        .reader(callLogReader("Overridden by expression", null, null, null))
+        .writer(PhoneCallDAO::aggregate))
+        .listener((StepExecutionListener) incrementalCallLog())
+        .listener((StepExecutionListener) quarantine())
         .listener(new StepExecutionListener() {
           @Override
           public void beforeStep(StepExecution stepExecution) {
-            // *Before* tx started
-            LOG.info("Here we can check pre-conditions (such as duplicate prevention) and log progress");
           }
 
           @Override
           public ExitStatus afterStep(StepExecution stepExecution) {
+            if(stepExecution.getStatus() == BatchStatus.COMPLETED) {
+              final List<String> touched = incrementalCallLog().getTouchedSubscribers(stepExecution.getJobExecution());
+              final List<Bill> bills = ((touched != null) ? touched : PhoneCallDAO.getSubscribers()).stream()
+                  .map(JobConfiguration::createBill)
+                  .filter(Objects::nonNull)
+                  .collect(toList());
+              if(IncrementalCallLog.isIncremental(stepExecution.getJobExecution()))
+                LOG.info("Created {} new or changed bills from running totals", BillDAO.upsert(bills).size());
+              else {
+                BillDAO.persist(bills);
+                LOG.info("Created {} bills from running totals", bills.size());
+              }
+            }
             return null;
           }
         })
         .build();
   }
 
-  @Bean
-  @JobScope // Needed for @Value
-  FlatFileItemReader<PhoneCall> flatFileReader(@Value("#{jobParameters[filePath]}") String filePath) {
-    return new FlatFileItemReaderBuilder<PhoneCall>()
-        .name("callLogReader")
-        .resource(new FileSystemResource(filePath))
-        .delimited().delimiter("|")
-        .names(new String[] {"fromSubscriber", "toSubscriber", "duration"})
-        .targetType(PhoneCall.class)
-        .build();
-  }
-
   //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
   @Bean
   protected Step createBills() {
-    return steps.get("createBills")
-        .<String, Bill>chunk(100)
+    return instrument("createBills", steps.get("createBills")
+        .<String, Bill>chunk(chunkCompletionPolicy())
         .faultTolerant()
           .retry(TimeoutException.class)
-          .retryLimit(10)
+          .retryLimit(RETRY_LIMIT)
           .backOffPolicy(new ExponentialBackOffPolicy())
         .reader(phoneCallReader())
         .processor(createBillsProcessor())
-        .listener(new ItemProcessListener<String, Bill>() {
-          @Override
-          public void beforeProcess(String item) {
-            LOG.info("beforeProcess() " + item);
-          }
+        .writer(billPersister(null)))
+        .build();
+  }
+  
+  /** 
+   * Decide whether to create bills for one subscriber at a time ({@link #BILLING_MODE_SERIAL}, default) or for all 
+   * subscribers in a chunk concurrently ({@link #BILLING_MODE_PARALLEL})
+   */
+  @Bean
+  JobExecutionDecider decideOnBillingMode() {
+    return (jobExecution, stepExecution) -> 
+        new FlowExecutionStatus(jobExecution.getJobParameters().getString("billingMode", BILLING_MODE_SERIAL).toUpperCase());
+  }
 
-          @Override
-          public void afterProcess(String item, Bill result) {
-            LOG.info("afterProcess() " + item + " => " + result);
-          }
+  /** Alternative to {@link #createBills()} where the bills of each chunk are created concurrently */
+  @Bean
+  Step createBillsInParallel() {
+    return instrument("createBillsInParallel", steps.get("createBillsInParallel")
+        .<String, String>chunk(chunkCompletionPolicy())
+        .reader(phoneCallReader())
+        .writer(new ParallelBillWriter(createBillsProcessor(), billingRetryTemplate(),
+            useVirtualThreads() ? ioExecutor() : billingPool(), billPersister(null))))
+        .build();
+  }
 
-          @Override
-          public void onProcessError(String item, Exception e) {
-            if(e instanceof TimeoutException)
-              LOG.info("onProcessError: Timed out processing " + item + " - will retry");
-            else
-              LOG.error("onProcessError: " + item, e);
-          }
-        })
-        .writer(BillDAO::persist)
+  /** Retries of each subscriber, for creating bills outside of the chunk, with the same limit as {@link #createBills()} */
+  private RetryTemplate billingRetryTemplate() {
+    final RetryTemplate retryTemplate = new RetryTemplate();
+    retryTemplate.setRetryPolicy(new SimpleRetryPolicy(RETRY_LIMIT, singletonMap(TimeoutException.class, true)));
+    final ExponentialBackOffPolicy backOffPolicy = new ExponentialBackOffPolicy();
+    backOffPolicy.setSleeper(new ParallelBillWriter.ManagedBlockingSleeper());
+    retryTemplate.setBackOffPolicy(backOffPolicy);
+    retryTemplate.registerListener(new RetryListenerSupport() {
+      @Override
+      public <T, E extends Throwable> void onError(RetryContext context, RetryCallback<T, E> callback, Throwable t) {
+        if(t instanceof TimeoutException)
+          LOG.trace("Timed out processing subscriber - will retry");
+      }
+    });
+    return retryTemplate;
+  }
+
+  /** Alternative to {@link #createBills()} where the bills are created by {@link #billingWorkers()} */
+  @Bean
+  Step createBillsRemotely() {
+    return instrument("createBillsRemotely", steps.get("createBillsRemotely")
+        .<String, String>chunk(chunkCompletionPolicy())
+        .reader(phoneCallReader())
+        .writer(remoteChunkingBillWriter(null)))
+        .listener((StepExecutionListener) remoteChunkingBillWriter(null))
         .build();
   }
-  
+
+  /** Send each chunk to the workers, with up to {@code maxChunksOutstanding} (default 4) chunks not yet responded to */
   @Bean
-  @StepScope // Needed for postponed DAO invocation
-  ItemReader<String> phoneCallReader() {
-    return new ListItemReader<>(PhoneCallDAO.getSubscribers());
+  @StepScope // State per step execution
+  RemoteChunkingBillWriter remoteChunkingBillWriter(@Value("#{jobParameters[maxChunksOutstanding]}") String maxChunksOutstanding) {
+    final PagingDAOItemReader<String> subscriberReader = phoneCallReader();
+    final RemoteChunkingBillWriter billWriter = new RemoteChunkingBillWriter(billingChannel(),
+        (maxChunksOutstanding != null) ? Integer.parseInt(maxChunksOutstanding) : 4, WORKER_RESPONSE_TIMEOUT_MILLIS,
+        subscriberReader, billPersister(null));
+    subscriberReader.setRestartBarrier(billWriter::getRestartBarrier); // Restart from first chunk not persisted
+    return billWriter;
+  }
+
+  /** Channel to the workers, which are in this JVM */
+  @Bean
+  ChunkChannel billingChannel() {
+    return new InMemoryChunkChannel();
+  }
+
+  @Bean(initMethod = "start", destroyMethod = "stop")
+  BillingWorkers billingWorkers() {
+    return new BillingWorkers(billingChannel(), createBillsProcessor(), billingRetryTemplate(),
+        Runtime.getRuntime().availableProcessors());
+  }
+
+  /** Append the bills, or if {@code incremental}, replace the bills of subscribers whose totals have changed */
+  @Bean
+  @StepScope // Needed for @Value
+  ItemWriter<Bill> billPersister(@Value("#{jobParameters[incremental]}") String incremental) {
+    if(Boolean.parseBoolean(incremental))
+      return bills -> LOG.debug("{} of {} bills new or changed", BillDAO.upsert(bills).size(), bills.size());
+    else
+      return BillDAO::persist;
+  }
+
+  @Bean(destroyMethod = "shutdown")
+  ForkJoinPool billingPool() {
+    return new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+  }
+
+  /** 
+   * Whether tasks that mostly wait, that is creating bills in parallel with back-off and sending bills, should run on
+   * {@link #ioExecutor()}. Enabled with system property {@code virtualThreads.enabled}.
+   */
+  private static boolean useVirtualThreads() {
+    return Boolean.getBoolean("virtualThreads.enabled");
+  }
+
+  /** Executor with a virtual thread per task if available, otherwise a fixed pool of platform threads */
+  @Bean(destroyMethod = "shutdown")
+  ExecutorService ioExecutor() {
+    return VirtualThreads.newExecutor("io-");
+  }
+
+  @Bean
+  @StepScope // State per step execution
+  PagingDAOItemReader<String> phoneCallReader() {
+    final JobExecution jobExecution = StepSynchronizationManager.getContext().getStepExecution().getJobExecution();
+    final List<String> touched = incrementalCallLog().getTouchedSubscribers(jobExecution); // If incremental
+    return new PagingDAOItemReader<>("phoneCallReader",
+        (touched != null) ? PagingDAOItemReader.pagesOf(touched) : PhoneCallDAO::getSubscribers, PAGE_SIZE);
   }
 
   private ItemProcessor<? super String, ? extends Bill> createBillsProcessor() {
@@ -227,21 +653,27 @@ public class JobConfiguration {
       if(Math.random() < 0.01) // Lower for larger file
         throw new TimeoutException();
       
-      final long noOfCalls = PhoneCallDAO.getTotalNoOfCallsFrom(subscriber);
-      if(noOfCalls > 0) {
-        final Duration totalDuration = PhoneCallDAO.getTotalDurationOfCallsFrom(subscriber);
-        return new Bill(subscriber, noOfCalls, totalDuration);
-      }
-      else
-        return null; // Skip
+      return createBill(subscriber);
     };
   }
 
+  /** Create bill from the totals in {@link PhoneCallDAO}, or return null if subscriber has not made any calls */
+  private static Bill createBill(String subscriber) {
+    final long noOfCalls = PhoneCallDAO.getTotalNoOfCallsFrom(subscriber);
+    if(noOfCalls > 0) {
+      final Duration totalDuration = PhoneCallDAO.getTotalDurationOfCallsFrom(subscriber);
+      return new Bill(subscriber, noOfCalls, totalDuration);
+    }
+    else
+      return null; // Skip
+  }
+
   //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
 
   @Bean
   protected Step stopForManualApproval() {
     return steps.get("stopForManualApprovalStep")
+        .listener((StepExecutionListener) instrumentation("stopForManualApprovalStep"))
         .flow(new FlowBuilder<SimpleFlow>("stopForManualApprovalFlow")
           .start(decideOnManualApproval()).on(FlowExecutionStatus.STOPPED.getName()).stopAndRestart(sendBills())
           .from(decideOnManualApproval()).on("*").to(sendBills())
@@ -252,8 +684,11 @@ public class JobConfiguration {
   private JobExecutionDecider decideOnManualApproval() {
     return (jobExecution, stepExecution) -> {
       final String filePath = jobExecution.getJobParameters().getString("filePath");
+      final List<String> files = CallLogFiles.getFiles(jobExecution); // If multiple files, all must be approved
       final boolean manualApproval = Boolean.parseBoolean(jobExecution.getJobParameters().getString("manualApproval", "false"));
-      if(manualApproval && ! ApprovalDAO.isManuallyApproved(filePath)) {
+      final boolean approved = (files != null) ? files.stream().allMatch(ApprovalDAO::isManuallyApproved) :
+          ApprovalDAO.isManuallyApproved(filePath);
+      if(manualApproval && ! approved) {
         return FlowExecutionStatus.STOPPED;
       }
       else
@@ -265,60 +700,123 @@ public class JobConfiguration {
 
   @Bean
   Step sendBills() {
-    return steps.get("sendBills")
-        .<Bill, Bill>chunk(100)
+    return instrument("sendBills", steps.get("sendBills")
+        .<Bill, Bill>chunk(chunkCompletionPolicy())
         .reader(billReader())
-        .processor((ItemProcessor<Bill, Bill>) Bill::send) // NOTE! This should be idempotent!
-        .writer(items -> { }) // No writing - storing is expected to happen in processor
-        .listener(new ItemReadListener<Bill>() {
-          @Override
-          public void beforeRead() {
-            LOG.info("Before reading bills");
-          }
-
-          @Override
-          public void afterRead(Bill item) {
-            LOG.warn("sendBills read " + item);
-          }
-
-          @Override
-          public void onReadError(Exception ex) {
-
-          }
-        })
-        .listener(new SkipListener<Bill, Bill>() {
-          @Override
-          public void onSkipInRead(Throwable t) {
-            LOG.error("Error reading bill - skipping", t);
-          }
+        .processor((ItemProcessor<Bill, Bill>) bill -> bill.isSent() ? null : bill) // Already sent before restart
+        .writer(billWriter(null)))
+        .listener((StepExecutionListener) billWriter(null))
+        .build();
+  }
 
-          @Override
-          public void onSkipInWrite(Bill item, Throwable t) {
-            LOG.error("Error writing bill - skipping " + item, t);
-          }
+  /** Send each chunk as a batch, with up to {@code maxBatchesInFlight} (default 4) batches not yet delivered */
+  @Bean
+  @StepScope // State per step execution
+  BatchingBillWriter billWriter(@Value("#{jobParameters[maxBatchesInFlight]}") String maxBatchesInFlight) {
+    final PagingDAOItemReader<Bill> billReader = billReader();
+    final BatchingBillWriter billWriter = new BatchingBillWriter(billSender(),
+        (maxBatchesInFlight != null) ? Integer.parseInt(maxBatchesInFlight) : 4, SEND_ATTEMPTS,
+        billReader::getCurrentItemCount);
+    billReader.setRestartBarrier(billWriter::getRestartBarrier); // Restart from first bill not delivered
+    return billWriter;
+  }
 
-          @Override
-          public void onSkipInProcess(Bill item, Throwable t) {
-            LOG.error("Error processing bill - skipping" + item, t);
-          }
-        })
-        .build();
+  @Bean(destroyMethod = "shutdown")
+  BillSender billSender() {
+    final StubBillSender billSender = new StubBillSender();
+    if(useVirtualThreads())
+      billSender.setBlockingExecutor(ioExecutor());
+    return billSender;
   }
 
   @Bean
-  @StepScope // Needed for postponed DAO invocation
-  ListItemReader<Bill> billReader() {
-    return new ListItemReader<>(BillDAO.findAll());
+  @StepScope // State per step execution
+  PagingDAOItemReader<Bill> billReader() {
+    final JobExecution jobExecution = StepSynchronizationManager.getContext().getStepExecution().getJobExecution();
+    final List<String> touched = incrementalCallLog().getTouchedSubscribers(jobExecution);
+    if(touched == null)
+      return new PagingDAOItemReader<>("billReader", BillDAO::find, PAGE_SIZE);
+    final List<Bill> bills = touched.stream() // Only those that may be new or changed
+        .map(BillDAO::findBySubscriber)
+        .filter(Objects::nonNull)
+        .collect(toList());
+    return new PagingDAOItemReader<>("billReader", PagingDAOItemReader.pagesOf(bills), PAGE_SIZE);
   }
 
   @Bean
   protected Step notifyDone() {
+    final StepInstrumentationListener<Object, Object> instrumentation = instrumentation("notifyDoneStep");
     return steps.get("notifyDoneStep")
         .tasklet((contribution, chunkContext) -> {
           LOG.info("Pretend that we're sending an e-mail");
           return RepeatStatus.FINISHED;
         })
+        .listener((StepExecutionListener) instrumentation)
+        .listener((ChunkListener) instrumentation)
         .build();
   }
 
+  //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  /** 
+   * Persist calls as numbered chunks of the step, with the number of chunks persisted kept in the step context, so that
+   * a chunk written again on restart replaces the one that was never committed
+   */
+  private static ItemWriter<PhoneCall> callPersister() {
+    return calls -> {
+      final StepExecution stepExecution = StepSynchronizationManager.getContext().getStepExecution();
+      final ExecutionContext context = stepExecution.getExecutionContext();
+      final long number = context.getLong(PERSISTED_CHUNKS, 0);
+      PhoneCallDAO.persist(stepExecution.getJobExecution().getJobId() + "/" + stepExecution.getStepName(), number, calls);
+      context.putLong(PERSISTED_CHUNKS, number + 1);
+    };
+  }
+
+  /**
+   * Chunk size of the step, adjusted toward {@code targetCommitLatency} milliseconds (default 1000) if the step is
+   * among the comma separated {@code adaptiveChunkSteps} ({@code *} for all), within {@code minChunkSize} (default
+   * 10) and {@code maxChunkSize} (default 10000).
+   */
+  @Bean
+  @StepScope // State per step execution
+  AdaptiveCompletionPolicy chunkCompletionPolicy() {
+    final StepExecution stepExecution = StepSynchronizationManager.getContext().getStepExecution();
+    final JobParameters jobParameters = stepExecution.getJobParameters();
+    final String stepName = stepExecution.getStepName().replaceFirst(":.*", ""); // Remove partition name
+    final String adaptiveSteps = jobParameters.getString("adaptiveChunkSteps", "");
+    final boolean enabled = Arrays.asList(adaptiveSteps.split(",")).contains(stepName) || "*".equals(adaptiveSteps);
+    return new AdaptiveCompletionPolicy(enabled, CHUNK_SIZE,
+        Long.parseLong(jobParameters.getString("targetCommitLatency", "1000")),
+        Integer.parseInt(jobParameters.getString("minChunkSize", "10")),
+        Integer.parseInt(jobParameters.getString("maxChunkSize", "10000")));
+  }
+
+  /** Register the {@link #instrumentation(String)} and {@link #chunkCompletionPolicy()} of the step for all events */
+  @SuppressWarnings("unchecked")
+  private <I, O> SimpleStepBuilder<I, O> instrument(String stepName, SimpleStepBuilder<I, O> builder) {
+    builder.listener((StepExecutionListener) chunkCompletionPolicy());
+    builder.listener((ChunkListener) chunkCompletionPolicy());
+    final StepInstrumentationListener<I, O> instrumentation = instrumentation(stepName);
+    builder.listener((StepExecutionListener) instrumentation);
+    builder.listener((ChunkListener) instrumentation);
+    builder.listener((ItemReadListener<I>) instrumentation);
+    builder.listener((ItemProcessListener<I, O>) instrumentation);
+    builder.listener((ItemWriteListener<O>) instrumentation);
+    if(builder instanceof FaultTolerantStepBuilder)
+      ((FaultTolerantStepBuilder<I, O>) builder).listener((SkipListener<I, O>) instrumentation);
+    return builder;
+  }
+
+  /** 
+   * Create listener that counts, times and logs progress of a step, and records its {@link #batchMetrics()}. Defaults
+   * can be overridden with system properties. Override to plug in other instrumentation.
+   */
+  protected <I, O> StepInstrumentationListener<I, O> instrumentation(String stepName) {
+    return new MetricsListener<>(stepName,
+        Long.getLong("instrumentation.progressItems", 10_000),
+        Long.getLong("instrumentation.progressSeconds", 10),
+        Long.getLong("instrumentation.sampleRate", 0),
+        batchMetrics());
+  }
+
 }
\ No newline at end of file
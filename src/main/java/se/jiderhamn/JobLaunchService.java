@@ -0,0 +1,71 @@
+package se.jiderhamn;
+
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobExecutionException;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.JobParametersInvalidException;
+import org.springframework.batch.core.launch.JobLauncher;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Launches a job for call logs as they arrive, from a long-lived context, so that each file only pays for running the
+ * job and not for creating the context. Launches are queued in process, and run one at a time by a single thread, in
+ * the order submitted. All jobs share the static DAOs, so they are reset before each launch, so that each file is billed
+ * only for its own calls. A job that continues from the state of an earlier execution, that is an incremental run or a
+ * restart, therefore needs a {@code storeDirectory} of its own to reopen. For the same reason, jobs waiting for manual
+ * approval are rejected without one, and {@link ApprovalRestarter} must restart jobs by the same executor, so that a
+ * restart is queued with the launches instead of running while the DAOs are reset.
+ * Note that an in-memory job repository keeps all executions for the lifetime of the context, so a service
+ * running for long should use a database, such as with {@link JdbcBatchConfigurer}.
+ * @author Mattias Jiderhamn
+ */
+public class JobLaunchService {
+
+  private final JobLauncher jobLauncher;
+
+  private final Job job;
+
+  private final Executor executor;
+
+  /** @param executor Must run one task at a time */
+  public JobLaunchService(JobLauncher jobLauncher, Job job, Executor executor) {
+    this.jobLauncher = jobLauncher;
+    this.job = job;
+    this.executor = executor;
+  }
+
+  /** Queue launch of the job for the call log, with default job parameters */
+  public CompletableFuture<JobExecution> launch(Path callLog) {
+    return launch(new JobParametersBuilder()
+        .addString("filePath", callLog.toAbsolutePath().toString())
+        .toJobParameters());
+  }
+
+  /** 
+   * Queue launch of the job
+   * @return Execution when the job has finished, whatever status, or exceptionally if the job could not be launched
+   */
+  public CompletableFuture<JobExecution> launch(JobParameters jobParameters) {
+    return CompletableFuture.supplyAsync(() -> {
+      if((Boolean.parseBoolean(jobParameters.getString("manualApproval")) ||
+          Boolean.parseBoolean(jobParameters.getString(ApprovalRestarter.AUTO_RESTART))) &&
+          jobParameters.getString(JobConfiguration.STORE_DIRECTORY) == null)
+        throw new CompletionException(new JobParametersInvalidException(
+            "Jobs waiting for approval need a " + JobConfiguration.STORE_DIRECTORY + ", as the DAOs are reset"));
+      BillDAO.reset();
+      PhoneCallDAO.reset();
+      try {
+        return jobLauncher.run(job, jobParameters);
+      }
+      catch (JobExecutionException e) {
+        throw new CompletionException(e);
+      }
+    }, executor);
+  }
+}
@@ -0,0 +1,98 @@
+package se.jiderhamn;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Thread safe histogram of latencies in nanoseconds, with buckets of exponentially growing width like HdrHistogram.
+ * Each power of two is split into 16 linear sub buckets, so values are reported with a relative error below 6.25%.
+ * Recording does not allocate any objects.
+ * @author Mattias Jiderhamn
+ */
+@SuppressWarnings("WeakerAccess")
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 4;
+
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+
+  private final LongAdder count = new LongAdder();
+
+  private final LongAdder sum = new LongAdder();
+
+  private final AtomicLong max = new AtomicLong();
+
+  public void record(long nanos) {
+    final long value = Math.max(0, nanos);
+    counts.incrementAndGet(index(value));
+    count.increment();
+    sum.add(value);
+    max.accumulateAndGet(value, Math::max);
+  }
+
+  public long getCount() {
+    return count.sum();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  public long getMean() {
+    final long n = count.sum();
+    return (n > 0) ? sum.sum() / n : 0;
+  }
+
+  /** @return Highest value in the bucket where the percentile is found, capped by the max value recorded */
+  public long getValueAtPercentile(double percentile) {
+    final long n = count.sum();
+    if(n == 0)
+      return 0;
+    final long target = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+    long cumulative = 0;
+    for(int i = 0; i < counts.length(); i++) {
+      cumulative += counts.get(i);
+      if(cumulative >= target)
+        return Math.min(highestValue(i), max.get());
+    }
+    return max.get();
+  }
+
+  static int index(long value) {
+    if(value < SUB_BUCKETS)
+      return (int) value;
+    final int exponent = 63 - Long.numberOfLeadingZeros(value);
+    final int shift = exponent - SUB_BUCKET_BITS;
+    return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+  }
+
+  static long highestValue(int index) {
+    if(index < SUB_BUCKETS)
+      return index;
+    final int shift = index / SUB_BUCKETS - 1;
+    final long lowest = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+    return lowest + (1L << shift) - 1;
+  }
+
+  /** @return Count, mean, percentiles and max, in nanoseconds */
+  public Map<String, Long> summary() {
+    final Map<String, Long> summary = new LinkedHashMap<>();
+    summary.put("count", getCount());
+    summary.put("mean", getMean());
+    summary.put("p50", getValueAtPercentile(50));
+    summary.put("p90", getValueAtPercentile(90));
+    summary.put("p99", getValueAtPercentile(99));
+    summary.put("max", getMax());
+    return summary;
+  }
+
+  @Override
+  public String toString() {
+    return summary().toString();
+  }
+}
@@ -0,0 +1,154 @@
+package se.jiderhamn;
+
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStreamException;
+import org.springframework.batch.item.ItemStreamReader;
+import org.springframework.batch.item.ItemStreamSupport;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reader of call logs that memory maps the file, or a byte range of it, and parses lines using
+ * {@link CallLogLineParser}. The byte offset of the next line is saved in the {@link ExecutionContext}, so that a
+ * restart can continue without re-reading the lines already processed.
+ * @author Mattias Jiderhamn
+ */
+public class MappedCallLogItemReader extends ItemStreamSupport implements ItemStreamReader<PhoneCall> {
+
+  /** Max number of bytes mapped at a time, which is also the max line length */
+  private static final int WINDOW_SIZE = 64 * 1024 * 1024;
+
+  private static final String POSITION = "position";
+
+  private static final String LINE_NUMBER = "lineNumber";
+
+  private final Path file;
+
+  private final long startOffset;
+
+  /** Offset of end of range, or -1 for end of file */
+  private final long endOffset;
+
+  private final CallLogLineParser parser = new CallLogLineParser();
+
+  private FileChannel channel;
+
+  /** Offset at which to stop reading */
+  private long end;
+
+  private MappedByteBuffer window;
+
+  /** Offset in file of the first byte in {@link #window} */
+  private long windowOffset;
+
+  /** Offset in file of the next line to read */
+  private long position;
+
+  /** Number of lines read, in this range, plus {@link #linesBefore} */
+  private int lineNumber;
+
+  /** Number of lines before the range, if known, so that line numbers are counted from the start of the file */
+  private int linesBefore;
+
+  public MappedCallLogItemReader(Path file) {
+    this(file, 0, -1);
+  }
+
+  public MappedCallLogItemReader(Path file, long startOffset, long endOffset) {
+    this.file = file;
+    this.startOffset = startOffset;
+    this.endOffset = endOffset;
+    setName("callLogReader");
+  }
+
+  public void setLinesBefore(int linesBefore) {
+    this.linesBefore = linesBefore;
+  }
+
+  @Override
+  public void open(ExecutionContext executionContext) throws ItemStreamException {
+    try {
+      channel = FileChannel.open(file, StandardOpenOption.READ);
+      end = (endOffset < 0) ? channel.size() : Math.min(endOffset, channel.size());
+    }
+    catch (IOException e) {
+      throw new ItemStreamException("Unable to open " + file, e);
+    }
+    position = executionContext.getLong(getExecutionContextKey(POSITION), startOffset);
+    lineNumber = executionContext.getInt(getExecutionContextKey(LINE_NUMBER), linesBefore);
+    window = null;
+  }
+
+  @Override
+  public void update(ExecutionContext executionContext) throws ItemStreamException {
+    executionContext.putLong(getExecutionContextKey(POSITION), position);
+    executionContext.putInt(getExecutionContextKey(LINE_NUMBER), lineNumber);
+  }
+
+  @Override
+  public void close() throws ItemStreamException {
+    window = null; // Unmapped when garbage collected
+    if(channel != null) {
+      try {
+        channel.close();
+      }
+      catch (IOException e) {
+        throw new ItemStreamException("Unable to close " + file, e);
+      }
+      channel = null;
+    }
+  }
+
+  @Override
+  public PhoneCall read() throws IOException {
+    while(position < end) {
+      if(window == null || position >= windowOffset + window.limit())
+        map(position);
+
+      int lineStart = (int) (position - windowOffset);
+      int lineEnd = indexOfLineBreak(lineStart);
+      if(lineEnd < 0) { // Line continues beyond window
+        if(windowOffset + window.limit() >= end) // ... but not beyond the range
+          lineEnd = window.limit();
+        else if(windowOffset == position)
+          throw new IOException("Line " + (lineNumber + 1) + " of " + file + " exceeds " + WINDOW_SIZE + " bytes");
+        else {
+          map(position);
+          continue;
+        }
+      }
+
+      position = windowOffset + lineEnd + 1;
+      lineNumber++;
+
+      if(lineEnd > lineStart && window.get(lineEnd - 1) == '\r')
+        lineEnd--;
+      if(lineEnd > lineStart) // Ignore empty lines
+        return parser.parse(window, lineStart, lineEnd, lineNumber, getDescription());
+    }
+    return null;
+  }
+
+  private void map(long offset) throws IOException {
+    windowOffset = offset;
+    window = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(WINDOW_SIZE, end - offset));
+  }
+
+  /** @return Index in window of next line break at or after {@code from}, or -1 if none */
+  private int indexOfLineBreak(int from) {
+    final int limit = window.limit();
+    for(int i = from; i < limit; i++) {
+      if(window.get(i) == '\n')
+        return i;
+    }
+    return -1;
+  }
+
+  private String getDescription() {
+    return (endOffset < 0) ? "file [" + file + "]" : "file [" + file + "] bytes " + startOffset + "-" + endOffset;
+  }
+}
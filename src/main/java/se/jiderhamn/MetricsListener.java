@@ -0,0 +1,93 @@
+package se.jiderhamn;
+
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.scope.context.ChunkContext;
+
+/**
+ * {@link StepInstrumentationListener} that also records {@link StepMetrics} of the step, such as the time spent
+ * reading, processing and writing each chunk. Only needs the {@link org.springframework.batch.core.StepExecutionListener}
+ * and {@link org.springframework.batch.core.ChunkListener} events to record the step as a whole, for example for
+ * tasklet steps.
+ * @author Mattias Jiderhamn
+ */
+@SuppressWarnings("WeakerAccess")
+public class MetricsListener<I, O> extends StepInstrumentationListener<I, O> {
+
+  private final BatchMetrics metrics;
+
+  public MetricsListener(String stepName, long progressItems, long progressSeconds, long sampleRate,
+                         BatchMetrics metrics) {
+    super(stepName, progressItems, progressSeconds, sampleRate);
+    this.metrics = metrics;
+  }
+
+  @Override
+  protected Counters newCounters(StepExecution stepExecution) {
+    return new MeteredCounters(stepExecution, (stepExecution != null) ?
+        metrics.forStep(stepExecution) : new StepMetrics(null, -1, getStepName())); // Not exposed
+  }
+
+  @Override
+  public void beforeStep(StepExecution stepExecution) {
+    super.beforeStep(stepExecution);
+    ((MeteredCounters) counters()).stepMetrics.stepStarted();
+  }
+
+  @Override
+  public ExitStatus afterStep(StepExecution stepExecution) {
+    final MeteredCounters c = (MeteredCounters) counters();
+    c.stepMetrics.stepEnded(stepExecution, c.retries.sum());
+    return super.afterStep(stepExecution);
+  }
+
+  @Override
+  public void beforeChunk(ChunkContext context) {
+    super.beforeChunk(context);
+    final MeteredCounters c = (MeteredCounters) counters();
+    c.readNanosAtChunkStart = c.readNanos.sum();
+    c.processNanosAtChunkStart = c.processNanos.sum();
+    c.writeNanosAtChunkStart = c.writeNanos.sum();
+    c.chunkStart = System.nanoTime();
+  }
+
+  @Override
+  public void afterChunk(ChunkContext context) {
+    recordChunk((MeteredCounters) counters());
+    super.afterChunk(context);
+  }
+
+  @Override
+  public void afterChunkError(ChunkContext context) {
+    recordChunk((MeteredCounters) counters());
+    super.afterChunkError(context);
+  }
+
+  private static void recordChunk(MeteredCounters c) {
+    final StepMetrics m = c.stepMetrics;
+    m.chunkLatency.record(System.nanoTime() - c.chunkStart);
+    m.readLatency.record(c.readNanos.sum() - c.readNanosAtChunkStart);
+    m.processLatency.record(c.processNanos.sum() - c.processNanosAtChunkStart);
+    m.writeLatency.record(c.writeNanos.sum() - c.writeNanosAtChunkStart);
+    m.sampleHeap();
+  }
+
+  /** Counters of a single step execution, with the state needed to time the current chunk */
+  protected static class MeteredCounters extends Counters {
+
+    private final StepMetrics stepMetrics;
+
+    private long chunkStart = System.nanoTime();
+
+    private long readNanosAtChunkStart;
+
+    private long processNanosAtChunkStart;
+
+    private long writeNanosAtChunkStart;
+
+    protected MeteredCounters(StepExecution stepExecution, StepMetrics stepMetrics) {
+      super(stepExecution);
+      this.stepMetrics = stepMetrics;
+    }
+  }
+}
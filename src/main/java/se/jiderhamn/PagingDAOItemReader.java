@@ -0,0 +1,105 @@
+package se.jiderhamn;
+
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.support.AbstractItemCountingItemStreamItemReader;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntSupplier;
+
+/**
+ * Reader that reads items from a DAO one page at a time, instead of listing all items up front. The number of items
+ * read is saved in the {@link org.springframework.batch.item.ExecutionContext}, so that a restarted step continues
+ * from the first page that has not been committed, without reading the preceding items. If items are not done with
+ * when committed, such as when they are sent asynchronously, a {@link #setRestartBarrier restart barrier} may hold back
+ * the saved position.
+ * @author Mattias Jiderhamn
+ */
+@SuppressWarnings("WeakerAccess")
+public class PagingDAOItemReader<T> extends AbstractItemCountingItemStreamItemReader<T> {
+
+  /** Query for a page of items, in an order that is the same on restart */
+  @FunctionalInterface
+  public interface PageQuery<T> {
+    List<T> find(int from, int max);
+  }
+
+  /** @return Query for pages of the list */
+  public static <T> PageQuery<T> pagesOf(List<T> items) {
+    return (from, max) -> items.subList(Math.min(from, items.size()), Math.min(from + max, items.size()));
+  }
+
+  private final PageQuery<T> query;
+
+  private final int pageSize;
+
+  private List<T> page = Collections.emptyList();
+
+  /** Index of the first item of {@link #page} */
+  private int pageStart;
+
+  /** Index of the next item to read */
+  private int next;
+
+  /** Whether {@link #page} is the last one */
+  private boolean lastPage;
+
+  private IntSupplier restartBarrier;
+
+  public PagingDAOItemReader(String name, PageQuery<T> query, int pageSize) {
+    this.query = query;
+    this.pageSize = pageSize;
+    setName(name);
+  }
+
+  /** Make the position available to whoever writes the items */
+  @Override
+  public int getCurrentItemCount() {
+    return super.getCurrentItemCount();
+  }
+
+  /** Restart from the index supplied, if lower than the number of items read when the chunk is committed */
+  public void setRestartBarrier(IntSupplier restartBarrier) {
+    this.restartBarrier = restartBarrier;
+  }
+
+  @Override
+  public void update(ExecutionContext executionContext) {
+    super.update(executionContext);
+    if(isSaveState() && restartBarrier != null) {
+      final String key = getExecutionContextKey("read.count");
+      executionContext.putInt(key, Math.min(executionContext.getInt(key), restartBarrier.getAsInt()));
+    }
+  }
+
+  @Override
+  protected void doOpen() {
+    jumpToItem(0);
+  }
+
+  @Override
+  protected T doRead() {
+    if(next - pageStart >= page.size()) {
+      if(lastPage)
+        return null;
+      pageStart = next;
+      page = query.find(next, pageSize);
+      lastPage = page.size() < pageSize;
+      if(page.isEmpty())
+        return null;
+    }
+    return page.get(next++ - pageStart);
+  }
+
+  @Override
+  protected void jumpToItem(int itemIndex) {
+    next = pageStart = itemIndex;
+    page = Collections.emptyList();
+    lastPage = false;
+  }
+
+  @Override
+  protected void doClose() {
+    page = Collections.emptyList();
+  }
+}
@@ -0,0 +1,104 @@
+package se.jiderhamn;
+
+import org.springframework.batch.item.ItemProcessor;
+import org.springframework.batch.item.ItemWriter;
+import org.springframework.retry.backoff.Sleeper;
+import org.springframework.retry.support.RetryTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Writer that creates {@link Bill}s for a chunk of subscribers concurrently, by running the processor for each
+ * subscriber as a separate task, and then persists the bills in the same order as the subscribers. Each task has its
+ * own retries, so that a subscriber waiting for back-off does not hold up the others.
+ * @author Mattias Jiderhamn
+ */
+public class ParallelBillWriter implements ItemWriter<String> {
+
+  private final ItemProcessor<? super String, ? extends Bill> processor;
+
+  /** Retry state, including back-off, is kept per subscriber */
+  private final RetryTemplate retryTemplate;
+
+  private final Executor executor;
+
+  /** Persists the bills of each chunk */
+  private final ItemWriter<? super Bill> billWriter;
+
+  public ParallelBillWriter(ItemProcessor<? super String, ? extends Bill> processor, RetryTemplate retryTemplate, 
+                            Executor executor) {
+    this(processor, retryTemplate, executor, BillDAO::persist);
+  }
+
+  public ParallelBillWriter(ItemProcessor<? super String, ? extends Bill> processor, RetryTemplate retryTemplate, 
+                            Executor executor, ItemWriter<? super Bill> billWriter) {
+    this.processor = processor;
+    this.retryTemplate = retryTemplate;
+    this.executor = executor;
+    this.billWriter = billWriter;
+  }
+
+  @Override
+  public void write(List<? extends String> subscribers) throws Exception {
+    final List<CompletableFuture<Bill>> futures = new ArrayList<>(subscribers.size());
+    for(String subscriber : subscribers) {
+      futures.add(CompletableFuture.supplyAsync(() -> process(subscriber), executor));
+    }
+
+    final List<Bill> bills = new ArrayList<>(subscribers.size());
+    try {
+      for(CompletableFuture<Bill> future : futures) {
+        bills.add(future.join());
+      }
+    }
+    catch (CompletionException e) {
+      futures.forEach(future -> future.cancel(false));
+      throw (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+    }
+    bills.removeIf(Objects::isNull);
+    billWriter.write(bills);
+  }
+
+  private Bill process(String subscriber) {
+    try {
+      return retryTemplate.execute(context -> processor.process(subscriber));
+    }
+    catch (Exception e) {
+      throw new CompletionException(e);
+    }
+  }
+
+  /** 
+   * Back-off sleeper that lets a {@link ForkJoinPool} know the thread is blocked, so that it may compensate by 
+   * activating another thread 
+   */
+  public static class ManagedBlockingSleeper implements Sleeper {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public void sleep(long backOffPeriod) throws InterruptedException {
+      final long wakeUp = System.currentTimeMillis() + backOffPeriod;
+      ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+        @Override
+        public boolean block() throws InterruptedException {
+          final long remaining = wakeUp - System.currentTimeMillis();
+          if(remaining > 0)
+            Thread.sleep(remaining);
+          return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+          return System.currentTimeMillis() >= wakeUp;
+        }
+      });
+    }
+  }
+}
@@ -52,6 +52,6 @@ public class PhoneCall {
 
   @Override
   public String toString() {
-    return "PhoneCall[" + fromSubscriber + " -> " + toSubscriber + " " + duration + "]";
+    return "PhoneCall[" + getFromSubscriber() + " -> " + getToSubscriber() + " " + getDuration() + "]";
   }
 }
\ No newline at end of file
@@ -1,54 +1,212 @@
 package se.jiderhamn;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Set;
-
-import static java.util.Collections.unmodifiableList;
-import static java.util.stream.Collectors.toSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
+ * Thread safe without any global lock. Calls are stored in stripes, where each thread writes to its own stripe as long
+ * as there are no more threads than stripes, and totals per subscriber are kept in a concurrent map.
+ * After {@link #open(Path)}, calls are instead stored durably on disk, and the totals are rebuilt from there when
+ * opened again.
  * @author Mattias Jiderhamn
  */
 @SuppressWarnings("WeakerAccess")
 public class PhoneCallDAO {
   
-  private static List<PhoneCall> calls = new ArrayList<>();
-
+  private static final int STRIPES = 2 * Runtime.getRuntime().availableProcessors();
+  
+  private static final AtomicInteger nextStripe = new AtomicInteger();
+  
+  /** Index of the stripe that the current thread writes to */
+  private static final ThreadLocal<Integer> stripe = ThreadLocal.withInitial(
+      () -> Math.floorMod(nextStripe.getAndIncrement(), STRIPES));
+  
+  /** Replaced as a whole on {@link #reset()} */
+  private static volatile Store store = new Store();
+  
+  /** Store calls in directory, restoring any calls already stored there. No-op if already open in directory. */
+  public static synchronized void open(Path directory) {
+    final FileCallStore current = store.file;
+    if(current != null && current.getDirectory().equals(directory))
+      return;
+    try {
+      final Store opened = new Store();
+      opened.file = new FileCallStore(directory, call -> opened.aggregate(call));
+      final Store previous = store;
+      store = opened;
+      previous.close();
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+  
   public static void persist(List<? extends PhoneCall> phoneCalls) {
-    calls.addAll(phoneCalls);
+    persist("", -1, phoneCalls);
   }
   
+  /** 
+   * Persist calls as chunk number {@code number} of {@code stream}, so that when stored on disk, a chunk written again
+   * on restart replaces the one that was never committed. See {@link FileCallStore}.
+   */
+  public static void persist(String stream, long number, List<? extends PhoneCall> phoneCalls) {
+    final Store store = PhoneCallDAO.store;
+    if(store.file != null) {
+      store.file.append(stream, number, phoneCalls);
+      store.aggregate(phoneCalls);
+      return;
+    }
+    final CallColumns calls = store.calls[stripe.get()];
+    synchronized (calls) { // Only contended if more threads than stripes
+      for(PhoneCall call : phoneCalls)
+        calls.add(call);
+    }
+    store.aggregate(phoneCalls);
+  }
+  
+  /** Update per subscriber totals with the calls, without storing the calls themselves */
+  public static void aggregate(List<? extends PhoneCall> phoneCalls) {
+    store.aggregate(phoneCalls);
+  }
+  
+  /** @return All calls, in the order they were persisted by each thread */
   public static List<PhoneCall> findAll() {
-    return unmodifiableList(calls);
+    final Store store = PhoneCallDAO.store;
+    if(store.file != null)
+      return store.file.asList();
+    final CallColumns[] calls = store.calls;
+    return new AbstractList<PhoneCall>() {
+      @Override
+      public PhoneCall get(int index) {
+        int i = index;
+        for(CallColumns stripe : calls) {
+          final List<PhoneCall> stripeCalls = stripe.asList();
+          if(i < stripeCalls.size())
+            return stripeCalls.get(i);
+          i -= stripeCalls.size();
+        }
+        throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+      }
+
+      @Override
+      public int size() {
+        int size = 0;
+        for(CallColumns stripe : calls)
+          size += stripe.asList().size();
+        return size;
+      }
+    };
   }
   
+  public static long getNoOfCalls() {
+    return store.noOfCalls.sum();
+  }
+  
+  /** @return All subscribers, in the order they first appeared */
   public static List<String> getSubscribers() {
-    final Set<String> subscribers = calls.stream()
-        .map(PhoneCall::getFromSubscriber)
-        .collect(toSet());
-    subscribers.addAll(calls.stream()
-            .map(PhoneCall::getToSubscriber)
-            .collect(toSet()));
-    return new ArrayList<>(subscribers);
+    return new ArrayList<>(store.subscribers);
+  }
+  
+  /** @return Page of at most {@code max} subscribers, starting at index {@code from} of {@link #getSubscribers()} */
+  public static List<String> getSubscribers(int from, int max) {
+    final List<String> subscribers = store.subscribers;
+    final int size = subscribers.size();
+    return new ArrayList<>(subscribers.subList(Math.min(from, size), Math.min(from + max, size)));
   }
   
   public static long getTotalNoOfCallsFrom(String subscriber) {
-    return calls.stream()
-        .filter(call -> subscriber.equals(call.getFromSubscriber()))
-        .count();
+    final CallTotals callTotals = store.totals.get(subscriber);
+    return (callTotals != null) ? callTotals.noOfCalls.get() : 0;
   }
   
   public static Duration getTotalDurationOfCallsFrom(String subscriber) {
-    return calls.stream()
-        .filter(call -> subscriber.equals(call.getFromSubscriber()))
-        .map(PhoneCall::getDuration)
-        .reduce(Duration::plus).orElse(null);
+    final CallTotals callTotals = store.totals.get(subscriber);
+    return (callTotals != null && callTotals.noOfCalls.get() > 0) ?
+        Duration.ofSeconds(callTotals.durationSeconds.get()) : null;
   }
   
-  /** Reset fake repository for next text case */
-  public static void reset() {
-    calls.clear();
+  /** Reset fake repository for next text case. Any calls stored on disk are kept. */
+  public static synchronized void reset() {
+    final Store previous = store;
+    store = new Store();
+    previous.close();
+  }
+  
+  /** All data of the repository */
+  private static class Store {
+
+    private final CallColumns[] calls = new CallColumns[STRIPES];
+
+    /** Aggregated calls per subscriber, including subscribers that have only received calls */
+    private final ConcurrentHashMap<String, CallTotals> totals = new ConcurrentHashMap<>();
+
+    /** Subscribers of {@link #totals}, in the order they first appeared, so that they can be read in pages */
+    private final List<String> subscribers = new ConcurrentAppendList<>();
+
+    /** Total number of calls aggregated, whether stored or not */
+    private final LongAdder noOfCalls = new LongAdder();
+
+    /** Calls stored on disk instead of in {@link #calls}, if opened */
+    private FileCallStore file;
+
+    private Store() {
+      for(int i = 0; i < calls.length; i++)
+        calls[i] = new CallColumns();
+    }
+
+    private void aggregate(List<? extends PhoneCall> phoneCalls) {
+      noOfCalls.add(phoneCalls.size());
+      for(PhoneCall call : phoneCalls) {
+        totalsOf(call.getFromSubscriber()).add(call.getDuration());
+        totalsOf(call.getToSubscriber());
+      }
+    }
+
+    private void aggregate(PhoneCall call) {
+      noOfCalls.increment();
+      totalsOf(call.getFromSubscriber()).add(call.getDuration());
+      totalsOf(call.getToSubscriber());
+    }
+
+    private void close() {
+      if(file != null) {
+        try {
+          file.close();
+        }
+        catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+    }
+
+    private CallTotals totalsOf(String subscriber) {
+      final CallTotals callTotals = totals.get(subscriber); // Avoid locking if present
+      return (callTotals != null) ? callTotals : totals.computeIfAbsent(subscriber, s -> {
+        subscribers.add(s);
+        return new CallTotals();
+      });
+    }
+  }
+  
+  /** Number of calls made by a subscriber and their summed duration */
+  private static class CallTotals {
+
+    private final AtomicLong noOfCalls = new AtomicLong();
+
+    private final AtomicLong durationSeconds = new AtomicLong();
+
+    void add(Duration duration) {
+      durationSeconds.addAndGet(duration.getSeconds());
+      noOfCalls.incrementAndGet();
+    }
   }
 }
\ No newline at end of file
@@ -0,0 +1,150 @@
+package se.jiderhamn;
+
+import org.springframework.batch.core.repository.ExecutionContextSerializer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link ExecutionContextSerializer} for the JDBC job repository, that only accepts what is needed to restart, such as
+ * positions in files, counters, flags and file names, and writes them as one line of text per entry. Items or other
+ * objects are rejected, and so is a context longer than the short context column, so that a context never spills into
+ * a CLOB. The format of a line is the key, a tab, a character for the type, and the value.
+ * @author Mattias Jiderhamn
+ */
+public class PositionExecutionContextSerializer implements ExecutionContextSerializer {
+
+  /** Length of the short context column of the standard schema */
+  static final int MAX_LENGTH = 2500;
+
+  private static final char STRING = 'S';
+
+  private static final char LONG = 'L';
+
+  private static final char INTEGER = 'I';
+
+  private static final char DOUBLE = 'D';
+
+  private static final char BOOLEAN = 'B';
+
+  /** List of strings, as the number of elements followed by the elements, separated by tabs */
+  private static final char STRINGS = 'A';
+
+  @Override
+  public void serialize(Map<String, Object> context, OutputStream outputStream) throws IOException {
+    final StringBuilder sb = new StringBuilder();
+    for(Map.Entry<String, Object> entry : context.entrySet()) {
+      sb.append(escape(entry.getKey())).append('\t').append(format(entry.getKey(), entry.getValue())).append('\n');
+    }
+    if(sb.length() > MAX_LENGTH)
+      throw new IllegalArgumentException("Execution context of " + sb.length() + " characters exceeds " + MAX_LENGTH +
+          ": " + context.keySet());
+    final Writer writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+    writer.write(sb.toString());
+    writer.flush();
+  }
+
+  private static String format(String key, Object value) {
+    if(value instanceof String)
+      return STRING + escape((String) value);
+    else if(value instanceof Long)
+      return LONG + value.toString();
+    else if(value instanceof Integer)
+      return INTEGER + value.toString();
+    else if(value instanceof Double)
+      return DOUBLE + value.toString();
+    else if(value instanceof Boolean)
+      return BOOLEAN + value.toString();
+    else if(value instanceof List && ((List<?>) value).stream().allMatch(String.class::isInstance)) {
+      final StringBuilder sb = new StringBuilder().append(STRINGS).append(((List<?>) value).size());
+      for(Object element : (List<?>) value)
+        sb.append('\t').append(escape((String) element));
+      return sb.toString();
+    }
+    throw new IllegalArgumentException("Only positions, counters and names may be stored in the execution context, not " +
+        key + " of " + (value == null ? "null" : value.getClass().getName()));
+  }
+
+  @Override
+  public Map<String, Object> deserialize(InputStream inputStream) throws IOException {
+    final Map<String, Object> context = new HashMap<>();
+    final BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8));
+    String line;
+    while((line = reader.readLine()) != null) {
+      if(line.isEmpty())
+        continue;
+      final String[] fields = line.split("\t", -1);
+      final String value = fields[1].substring(1);
+      switch (fields[1].charAt(0)) {
+        case STRING:
+          context.put(unescape(fields[0]), unescape(value));
+          break;
+        case LONG:
+          context.put(unescape(fields[0]), Long.valueOf(value));
+          break;
+        case INTEGER:
+          context.put(unescape(fields[0]), Integer.valueOf(value));
+          break;
+        case DOUBLE:
+          context.put(unescape(fields[0]), Double.valueOf(value));
+          break;
+        case BOOLEAN:
+          context.put(unescape(fields[0]), Boolean.valueOf(value));
+          break;
+        case STRINGS:
+          final ArrayList<String> strings = new ArrayList<>(Integer.parseInt(value));
+          for(int i = 2; i < fields.length; i++)
+            strings.add(unescape(fields[i]));
+          context.put(unescape(fields[0]), strings);
+          break;
+        default:
+          throw new IOException("Unknown type of execution context entry: " + line);
+      }
+    }
+    return context;
+  }
+
+  /** Escape backslashes, tabs and line breaks, so that neither appears in a key or value */
+  private static String escape(String string) {
+    if(string.indexOf('\\') < 0 && string.indexOf('\t') < 0 && string.indexOf('\n') < 0 && string.indexOf('\r') < 0)
+      return string;
+    final StringBuilder sb = new StringBuilder(string.length() + 8);
+    for(int i = 0; i < string.length(); i++) {
+      final char c = string.charAt(i);
+      switch (c) {
+        case '\\': sb.append("\\\\"); break;
+        case '\t': sb.append("\\t"); break;
+        case '\n': sb.append("\\n"); break;
+        case '\r': sb.append("\\r"); break;
+        default: sb.append(c);
+      }
+    }
+    return sb.toString();
+  }
+
+  private static String unescape(String string) {
+    if(string.indexOf('\\') < 0)
+      return string;
+    final StringBuilder sb = new StringBuilder(string.length());
+    for(int i = 0; i < string.length(); i++) {
+      final char c = string.charAt(i);
+      if(c == '\\' && i + 1 < string.length()) {
+        final char escaped = string.charAt(++i);
+        sb.append(escaped == 't' ? '\t' : escaped == 'n' ? '\n' : escaped == 'r' ? '\r' : escaped);
+      }
+      else
+        sb.append(c);
+    }
+    return sb.toString();
+  }
+}
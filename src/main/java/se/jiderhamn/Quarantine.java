@@ -0,0 +1,105 @@
+package se.jiderhamn;
+
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobExecutionListener;
+import org.springframework.batch.core.SkipListener;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.core.scope.context.StepSynchronizationManager;
+import org.springframework.batch.item.file.FlatFileParseException;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records lines skipped when reading call logs in a quarantine file per job instance, via a {@link QuarantineWriter}.
+ * The file is given by job parameter {@code quarantineFile}, and defaults to {@code <jobName>-<jobInstanceId>.quarantine}
+ * in the temp directory. When a step has skipped lines, the number of lines and the file are put in its
+ * {@link org.springframework.batch.item.ExecutionContext} and exit description.
+ * @author Mattias Jiderhamn
+ */
+public class Quarantine implements SkipListener<PhoneCall, PhoneCall>, StepExecutionListener, JobExecutionListener {
+
+  static final String QUARANTINE_FILE = "quarantineFile";
+
+  /** Step context key of the number of lines quarantined */
+  static final String QUARANTINED_LINES = "quarantinedLines";
+
+  private final QuarantineWriter writer;
+
+  /** Number of lines quarantined per step execution id */
+  private final Map<Long, AtomicInteger> counts = new ConcurrentHashMap<>();
+
+  public Quarantine(QuarantineWriter writer) {
+    this.writer = writer;
+  }
+
+  static Path getFile(JobExecution jobExecution) {
+    final String file = jobExecution.getJobParameters().getString(QUARANTINE_FILE);
+    return (file != null) ? Paths.get(file) : Paths.get(System.getProperty("java.io.tmpdir"),
+        jobExecution.getJobInstance().getJobName() + "-" + jobExecution.getJobInstance().getInstanceId() + ".quarantine");
+  }
+
+  @Override
+  public void onSkipInRead(Throwable t) {
+    if(t instanceof FlatFileParseException) {
+      final StepExecution stepExecution = StepSynchronizationManager.getContext().getStepExecution();
+      try {
+        writer.append(getFile(stepExecution.getJobExecution()), (FlatFileParseException) t);
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while quarantining " + t.getMessage(), e);
+      }
+      counts.computeIfAbsent(stepExecution.getId(), id -> new AtomicInteger()).incrementAndGet();
+    }
+  }
+
+  @Override
+  public void onSkipInWrite(PhoneCall item, Throwable t) {
+  }
+
+  @Override
+  public void onSkipInProcess(PhoneCall item, Throwable t) {
+  }
+
+  @Override
+  public void beforeStep(StepExecution stepExecution) {
+  }
+
+  @Override
+  public ExitStatus afterStep(StepExecution stepExecution) {
+    final AtomicInteger count = counts.remove(stepExecution.getId());
+    if(count == null)
+      return null;
+
+    final Path file = getFile(stepExecution.getJobExecution());
+    try {
+      writer.flush(file);
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    stepExecution.getExecutionContext().putInt(QUARANTINED_LINES, count.get());
+    stepExecution.getExecutionContext().putString(QUARANTINE_FILE, file.toString());
+    return stepExecution.getExitStatus().addExitDescription(count.get() + " lines quarantined in " + file);
+  }
+
+  @Override
+  public void beforeJob(JobExecution jobExecution) {
+  }
+
+  @Override
+  public void afterJob(JobExecution jobExecution) {
+    try {
+      writer.close(getFile(jobExecution));
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
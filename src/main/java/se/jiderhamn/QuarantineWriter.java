@@ -0,0 +1,180 @@
+package se.jiderhamn;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.item.file.FlatFileParseException;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Appends lines skipped when reading call logs to quarantine files on a background thread, so that skipping does not
+ * wait for file I/O. The queue is bounded, so if the disk cannot keep up, reading slows down instead of using up the
+ * heap. Each line of a quarantine file is tab separated: resource, line number, reason and the raw line.
+ * @author Mattias Jiderhamn
+ */
+public class QuarantineWriter {
+
+  private static final Logger LOG = LoggerFactory.getLogger("QuarantineWriter");
+
+  private final BlockingQueue<Object> queue;
+
+  /** Open files. Only used by the writer thread. */
+  private final Map<Path, Writer> writers = new HashMap<>();
+
+  private Thread thread;
+
+  /** Skipped line to append */
+  private static class Entry {
+
+    private final Path file;
+
+    private final FlatFileParseException exception;
+
+    private Entry(Path file, FlatFileParseException exception) {
+      this.file = file;
+      this.exception = exception;
+    }
+  }
+
+  /** Signal when all entries before it have been written, optionally closing the file */
+  private static class Sync {
+
+    private final Path file;
+
+    private final boolean close;
+
+    private final CountDownLatch done = new CountDownLatch(1);
+
+    private Sync(Path file, boolean close) {
+      this.file = file;
+      this.close = close;
+    }
+  }
+
+  public QuarantineWriter(int queueCapacity) {
+    this.queue = new ArrayBlockingQueue<>(queueCapacity);
+  }
+
+  public synchronized void start() {
+    thread = new Thread(this::work, "quarantine-writer");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  /** Write what has been queued and close all files */
+  public synchronized void stop() throws InterruptedException {
+    thread.interrupt();
+    thread.join();
+  }
+
+  /** Queue the line that could not be parsed, waiting if the queue is full */
+  public void append(Path file, FlatFileParseException exception) throws InterruptedException {
+    queue.put(new Entry(file, exception));
+  }
+
+  /** Wait until all lines queued for {@code file} have been written */
+  public void flush(Path file) throws InterruptedException {
+    sync(new Sync(file, false));
+  }
+
+  /** Wait until all lines queued for {@code file} have been written, then close it */
+  public void close(Path file) throws InterruptedException {
+    sync(new Sync(file, true));
+  }
+
+  private void sync(Sync sync) throws InterruptedException {
+    queue.put(sync);
+    sync.done.await();
+  }
+
+  private void work() {
+    final List<Object> batch = new ArrayList<>();
+    try {
+      while(true) {
+        batch.add(queue.take());
+        queue.drainTo(batch);
+        write(batch);
+        batch.clear();
+      }
+    }
+    catch (InterruptedException e) {
+      queue.drainTo(batch); // Stopped
+      write(batch);
+    }
+    finally {
+      writers.keySet().forEach(this::closeWriter);
+      writers.clear();
+    }
+  }
+
+  /** Write the entries of the batch, then signal its syncs, whatever failed */
+  private void write(List<Object> batch) {
+    try {
+      for(Object item : batch) {
+        if(item instanceof Entry) {
+          final Entry entry = (Entry) item;
+          try {
+            write(entry);
+          }
+          catch (IOException | RuntimeException e) { // Must not stop the thread, that others wait for
+            LOG.error("Unable to quarantine line {} of {}", entry.exception.getLineNumber(), entry.file, e);
+          }
+        }
+      }
+      for(Writer writer : writers.values()) { // One flush per batch
+        try {
+          writer.flush();
+        }
+        catch (IOException | RuntimeException e) {
+          LOG.error("Unable to flush quarantine file", e);
+        }
+      }
+    }
+    finally {
+      for(Object item : batch) {
+        if(item instanceof Sync) {
+          final Sync sync = (Sync) item;
+          if(sync.close && writers.containsKey(sync.file)) {
+            closeWriter(sync.file);
+            writers.remove(sync.file);
+          }
+          sync.done.countDown();
+        }
+      }
+    }
+  }
+
+  private void write(Entry entry) throws IOException {
+    final FlatFileParseException e = entry.exception;
+    final String reason = (e instanceof CallLogParseException) ? ((CallLogParseException) e).getReason() : e.getMessage();
+    final String resource = (e instanceof CallLogParseException) ? ((CallLogParseException) e).getResourceDescription() : "";
+    Writer writer = writers.get(entry.file);
+    if(writer == null) {
+      writer = Files.newBufferedWriter(entry.file, StandardCharsets.ISO_8859_1, StandardOpenOption.CREATE,
+          StandardOpenOption.APPEND);
+      writers.put(entry.file, writer);
+    }
+    writer.write(resource + '\t' + e.getLineNumber() + '\t' + reason + '\t' + e.getInput() + '\n');
+  }
+
+  private void closeWriter(Path file) {
+    try {
+      writers.get(file).close();
+    }
+    catch (IOException | RuntimeException e) {
+      LOG.error("Unable to close quarantine file " + file, e);
+    }
+  }
+}
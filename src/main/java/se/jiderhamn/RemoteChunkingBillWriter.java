@@ -0,0 +1,203 @@
+package se.jiderhamn;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.item.ExecutionContext;
+import org.springframework.batch.item.ItemStream;
+import org.springframework.batch.item.ItemWriter;
+import org.springframework.batch.item.WriteFailedException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Manager side of remote chunking, that sends each chunk of subscribers over a {@link ChunkChannel} to
+ * {@link BillingWorkers}, without waiting for the bills before the next chunk is read, but with a limited number of
+ * chunks outstanding. The bills in the responses are persisted in the order of the chunks, and if any subscriber of a
+ * chunk failed, neither that nor any later chunk is persisted.
+ *
+ * Since chunks may be committed before their bills are persisted, {@link #getRestartBarrier()} tells the reader where
+ * to restart from. For the same reason, a failure is not thrown by the write that finds it, since that write may
+ * have persisted the bills of earlier chunks, which would then be persisted again on restart. Instead the chunk is
+ * committed with the reader position held back at the failed chunk, and the step fails on the next write, which has
+ * persisted nothing, or after the last chunk. It must be registered as listener of the step, and all methods are
+ * called by the step thread.
+ * @author Mattias Jiderhamn
+ */
+@SuppressWarnings("WeakerAccess")
+public class RemoteChunkingBillWriter implements ItemWriter<String>, ItemStream, StepExecutionListener {
+
+  private static final Logger LOG = LoggerFactory.getLogger("RemoteChunkingBillWriter");
+
+  private final ChunkChannel channel;
+
+  private final int maxChunksOutstanding;
+
+  /** Max time to wait for a response, before assuming the workers are gone */
+  private final long responseTimeoutMillis;
+
+  /** Reader of the subscribers, the position of which is saved once all chunks are done with */
+  private final PagingDAOItemReader<String> reader;
+
+  /** Persists the bills of each chunk */
+  private final ItemWriter<? super Bill> billWriter;
+
+  private long stepExecutionId;
+
+  private long nextSequence;
+
+  /** Read count before the first item of each chunk sent but not persisted, by sequence */
+  private final TreeMap<Long, Integer> outstanding = new TreeMap<>();
+
+  /** Responses received before the responses of earlier chunks, by sequence */
+  private final Map<Long, ChunkChannel.Response> received = new HashMap<>();
+
+  /** Read count when previous chunk was written */
+  private int lastReadCount;
+
+  private int persisted;
+
+  /** Why a chunk could not be persisted, if so */
+  private Exception failure;
+
+  public RemoteChunkingBillWriter(ChunkChannel channel, int maxChunksOutstanding, long responseTimeoutMillis,
+                                  PagingDAOItemReader<String> reader, ItemWriter<? super Bill> billWriter) {
+    this.channel = channel;
+    this.maxChunksOutstanding = maxChunksOutstanding;
+    this.responseTimeoutMillis = responseTimeoutMillis;
+    this.reader = reader;
+    this.billWriter = billWriter;
+  }
+
+  /** Read count that all chunks before have been persisted, so that a restart may continue from there */
+  public int getRestartBarrier() {
+    return outstanding.isEmpty() ? Integer.MAX_VALUE : outstanding.firstEntry().getValue();
+  }
+
+  @Override
+  public void write(List<? extends String> subscribers) throws Exception {
+    if(failure != null) // Found by an earlier write, so nothing has been persisted by this one
+      throw failure;
+    final int chunkStart = lastReadCount;
+    lastReadCount = reader.getCurrentItemCount();
+    while(failure == null && outstanding.size() >= maxChunksOutstanding)
+      handle(awaitResponse());
+
+    final long sequence = nextSequence++;
+    outstanding.put(sequence, chunkStart); // Holds back the reader position, even if not sent
+    if(failure != null)
+      return;
+    channel.sendRequest(new ChunkChannel.Request(stepExecutionId, sequence, new ArrayList<>(subscribers)));
+
+    ChunkChannel.Response response;
+    while(failure == null && (response = channel.receiveResponse(stepExecutionId, 0, TimeUnit.MILLISECONDS)) != null)
+      handle(response);
+  }
+
+  /** @return Next response, or null if there was none within the timeout, which is recorded as the failure */
+  private ChunkChannel.Response awaitResponse() throws InterruptedException {
+    final ChunkChannel.Response response =
+        channel.receiveResponse(stepExecutionId, responseTimeoutMillis, TimeUnit.MILLISECONDS);
+    if(response == null)
+      failure = new WriteFailedException("No response from workers within " + responseTimeoutMillis + " ms, " +
+          outstanding.size() + " chunks outstanding");
+    return response;
+  }
+
+  /** 
+   * Persist the bills of the response, and of any later chunks already received, unless an earlier one is missing.
+   * Stop at the first chunk that fails, recording the failure.
+   */
+  private void handle(ChunkChannel.Response response) {
+    if(response == null)
+      return;
+    received.put(response.getSequence(), response);
+    while(! outstanding.isEmpty() && received.containsKey(outstanding.firstKey())) {
+      final ChunkChannel.Response next = received.get(outstanding.firstKey());
+      if(! next.getFailures().isEmpty()) {
+        failure = new WriteFailedException("Unable to create bills for " + next.getFailures().size() + 
+            " subscribers: " + next.getFailures());
+        return;
+      }
+      try {
+        billWriter.write(next.getBills());
+      }
+      catch (Exception e) {
+        failure = e;
+        return;
+      }
+      persisted += next.getBills().size();
+      received.remove(outstanding.pollFirstEntry().getKey());
+    }
+  }
+
+  //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // ItemStream
+
+  /** Must be opened after the reader */
+  @Override
+  public void open(ExecutionContext executionContext) {
+    lastReadCount = reader.getCurrentItemCount();
+    outstanding.clear();
+    received.clear();
+    nextSequence = 0;
+    failure = null;
+  }
+
+  @Override
+  public void update(ExecutionContext executionContext) {
+  }
+
+  @Override
+  public void close() {
+  }
+
+  //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // StepExecutionListener
+
+  @Override
+  public void beforeStep(StepExecution stepExecution) {
+    stepExecutionId = stepExecution.getId();
+    channel.openResponses(stepExecutionId);
+    persisted = 0;
+  }
+
+  /**
+   * Wait for the chunks outstanding and persist their bills, then save the position of the reader again, since it
+   * may have moved on. Fail the step if any bill could not be created, whether found now or by the last write. 
+   * Responses still outstanding after that are discarded.
+   */
+  @Override
+  public ExitStatus afterStep(StepExecution stepExecution) {
+    if(stepExecution.getStatus() != BatchStatus.COMPLETED) {
+      channel.closeResponses(stepExecutionId);
+      return null;
+    }
+    try {
+      while(failure == null && ! outstanding.isEmpty())
+        handle(awaitResponse());
+      if(failure != null)
+        throw failure;
+      LOG.info("Persisted {} bills created by workers", persisted);
+      return null;
+    }
+    catch (Exception e) {
+      LOG.error("Unable to complete chunks outstanding", e);
+      stepExecution.setStatus(BatchStatus.FAILED);
+      stepExecution.addFailureException(e);
+      return ExitStatus.FAILED.addExitDescription(e);
+    }
+    finally {
+      channel.closeResponses(stepExecutionId);
+      reader.update(stepExecution.getExecutionContext());
+    }
+  }
+}
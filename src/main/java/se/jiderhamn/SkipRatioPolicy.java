@@ -0,0 +1,73 @@
+package se.jiderhamn;
+
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.scope.context.StepSynchronizationManager;
+import org.springframework.batch.core.step.skip.SkipLimitExceededException;
+import org.springframework.batch.core.step.skip.SkipPolicy;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Skip policy allowing a share of the items read to be skipped, given by job parameter {@code maxSkipRatio}, but never
+ * fewer than {@code minSkipLimit} items, so that a few bad lines early in a file do not fail it. Items read are counted
+ * as of the last commit. If {@code shared}, the skips and items of all partitions of the same job execution count
+ * together, rather than each step execution on its own.
+ * @author Mattias Jiderhamn
+ */
+public class SkipRatioPolicy implements SkipPolicy {
+
+  static final String MAX_SKIP_RATIO = "maxSkipRatio";
+
+  private final Class<? extends Throwable> skippable;
+
+  private final double defaultMaxSkipRatio;
+
+  private final int minSkipLimit;
+
+  private final boolean shared;
+
+  /** Number of skips per job execution. Partitions run on other threads, so we cannot use the job scope. */
+  private final Map<JobExecution, AtomicInteger> skipCounts = Collections.synchronizedMap(new WeakHashMap<>());
+
+  public SkipRatioPolicy(Class<? extends Throwable> skippable, double defaultMaxSkipRatio, int minSkipLimit,
+                         boolean shared) {
+    this.skippable = skippable;
+    this.defaultMaxSkipRatio = defaultMaxSkipRatio;
+    this.minSkipLimit = minSkipLimit;
+    this.shared = shared;
+  }
+
+  @Override
+  public boolean shouldSkip(Throwable t, int stepSkipCount) throws SkipLimitExceededException {
+    if(! skippable.isInstance(t))
+      return false;
+
+    final StepExecution stepExecution = StepSynchronizationManager.getContext().getStepExecution();
+    final JobExecution jobExecution = stepExecution.getJobExecution();
+    final int skipCount;
+    long readCount = 0;
+    if(shared) {
+      skipCount = skipCounts.computeIfAbsent(jobExecution, e -> new AtomicInteger()).getAndIncrement();
+      final String stepName = stepExecution.getStepName().replaceFirst(":.*", ""); // Remove partition name
+      for(StepExecution partition : jobExecution.getStepExecutions()) {
+        if(partition.getStepName().startsWith(stepName + ":"))
+          readCount += partition.getReadCount();
+      }
+    }
+    else {
+      skipCount = stepSkipCount;
+      readCount = stepExecution.getReadCount();
+    }
+
+    final String maxSkipRatio = jobExecution.getJobParameters().getString(MAX_SKIP_RATIO);
+    final double ratio = (maxSkipRatio != null) ? Double.parseDouble(maxSkipRatio) : defaultMaxSkipRatio;
+    final int skipLimit = (int) Math.max(minSkipLimit, ratio * (readCount + skipCount));
+    if(skipCount >= skipLimit)
+      throw new SkipLimitExceededException(skipLimit, t);
+    return true;
+  }
+}
@@ -0,0 +1,282 @@
+package se.jiderhamn;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.batch.core.ChunkListener;
+import org.springframework.batch.core.ExitStatus;
+import org.springframework.batch.core.ItemProcessListener;
+import org.springframework.batch.core.ItemReadListener;
+import org.springframework.batch.core.ItemWriteListener;
+import org.springframework.batch.core.SkipListener;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.StepExecutionListener;
+import org.springframework.batch.core.scope.context.ChunkContext;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Listener that counts and times the items of a chunk oriented step, and logs a progress summary every
+ * {@code progressItems} items or {@code progressSeconds} seconds, whichever comes first. Details on individual items
+ * are logged at TRACE, or for every {@code sampleRate}:th item at DEBUG.
+ *
+ * The listener may be shared by concurrent executions of the same step, such as partitions, which then keep their own
+ * counters.
+ * @author Mattias Jiderhamn
+ */
+@SuppressWarnings("WeakerAccess")
+public class StepInstrumentationListener<I, O> implements StepExecutionListener, ChunkListener, ItemReadListener<I>,
+    ItemProcessListener<I, O>, ItemWriteListener<O>, SkipListener<I, O> {
+
+  private static final Logger LOG = LoggerFactory.getLogger("Instrumentation");
+
+  private final String stepName;
+
+  private final long progressItems;
+
+  private final long progressNanos;
+
+  /** Log details for every n:th item at DEBUG, or 0 for never */
+  private final long sampleRate;
+
+  /** Counters of the step execution on the current thread */
+  private final ThreadLocal<Counters> counters = new ThreadLocal<>();
+
+  public StepInstrumentationListener(String stepName, long progressItems, long progressSeconds, long sampleRate) {
+    this.stepName = stepName;
+    this.progressItems = progressItems;
+    this.progressNanos = TimeUnit.SECONDS.toNanos(progressSeconds);
+    this.sampleRate = sampleRate;
+  }
+
+  /** Counters of the step execution on the current thread */
+  protected Counters counters() {
+    Counters c = counters.get();
+    if(c == null) { // Should not happen, unless items are handled on other thread than step
+      c = newCounters(null);
+      counters.set(c);
+    }
+    return c;
+  }
+
+  /** Create counters for a step execution, which is null if the step execution is unknown */
+  protected Counters newCounters(StepExecution stepExecution) {
+    return new Counters(stepExecution);
+  }
+
+  protected String getStepName() {
+    return stepName;
+  }
+
+  //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // StepExecutionListener
+
+  @Override
+  public void beforeStep(StepExecution stepExecution) {
+    counters.set(newCounters(stepExecution));
+  }
+
+  @Override
+  public ExitStatus afterStep(StepExecution stepExecution) {
+    final Counters c = counters();
+    LOG.info("{} {}: {}", stepName, stepExecution.getStatus(), c);
+    counters.remove();
+    return null;
+  }
+
+  //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // ChunkListener
+
+  @Override
+  public void beforeChunk(ChunkContext context) {
+  }
+
+  @Override
+  public void afterChunk(ChunkContext context) {
+    final Counters c = counters();
+    c.chunks.increment();
+    final long now = System.nanoTime();
+    final long items = c.items();
+    if(items - c.itemsAtLastProgress >= progressItems || now - c.lastProgress >= progressNanos) {
+      c.itemsAtLastProgress = items;
+      c.lastProgress = now;
+      LOG.info("{} progress: {}", stepName, c);
+    }
+  }
+
+  @Override
+  public void afterChunkError(ChunkContext context) {
+    counters().chunkErrors.increment();
+  }
+
+  //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // ItemReadListener
+
+  @Override
+  public void beforeRead() {
+    counters().start = System.nanoTime();
+  }
+
+  @Override
+  public void afterRead(I item) {
+    final Counters c = counters();
+    c.readNanos.add(System.nanoTime() - c.start);
+    c.reads.increment();
+    if(LOG.isTraceEnabled())
+      LOG.trace("{} read {}", stepName, item);
+    else if(isSampled(c.reads) && LOG.isDebugEnabled())
+      LOG.debug("{} read {} (sampled)", stepName, item);
+  }
+
+  @Override
+  public void onReadError(Exception ex) {
+    final Counters c = counters();
+    c.readNanos.add(System.nanoTime() - c.start);
+    c.readErrors.increment();
+    LOG.debug("{} read error", stepName, ex);
+  }
+
+  //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // ItemProcessListener
+
+  @Override
+  public void beforeProcess(I item) {
+    counters().start = System.nanoTime();
+  }
+
+  @Override
+  public void afterProcess(I item, O result) {
+    final Counters c = counters();
+    c.processNanos.add(System.nanoTime() - c.start);
+    c.processed.increment();
+    if(result == null)
+      c.filtered.increment();
+    if(LOG.isTraceEnabled())
+      LOG.trace("{} processed {} => {}", stepName, item, result);
+    else if(isSampled(c.processed) && LOG.isDebugEnabled())
+      LOG.debug("{} processed {} => {} (sampled)", stepName, item, result);
+  }
+
+  @Override
+  public void onProcessError(I item, Exception e) {
+    final Counters c = counters();
+    c.processNanos.add(System.nanoTime() - c.start);
+    if(e instanceof TimeoutException) { // Expected; will be retried
+      c.retries.increment();
+      LOG.trace("{} timed out processing {} - will retry", stepName, item);
+    }
+    else {
+      c.processErrors.increment();
+      LOG.error("{} error processing {}", stepName, item, e);
+    }
+  }
+
+  //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // ItemWriteListener
+
+  @Override
+  public void beforeWrite(List<? extends O> items) {
+    counters().start = System.nanoTime();
+  }
+
+  @Override
+  public void afterWrite(List<? extends O> items) {
+    final Counters c = counters();
+    c.writeNanos.add(System.nanoTime() - c.start);
+    c.written.add(items.size());
+    LOG.trace("{} wrote {} items", stepName, items.size());
+  }
+
+  @Override
+  public void onWriteError(Exception exception, List<? extends O> items) {
+    final Counters c = counters();
+    c.writeNanos.add(System.nanoTime() - c.start);
+    c.writeErrors.increment();
+    LOG.error("{} error writing {} items", stepName, items.size(), exception);
+  }
+
+  //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+  // SkipListener
+
+  @Override
+  public void onSkipInRead(Throwable t) {
+    counters().skips.increment();
+    LOG.warn("{} skipped reading: {}", stepName, t.getMessage());
+  }
+
+  @Override
+  public void onSkipInWrite(O item, Throwable t) {
+    counters().skips.increment();
+    LOG.warn("{} skipped writing {}: {}", stepName, item, t.toString());
+  }
+
+  @Override
+  public void onSkipInProcess(I item, Throwable t) {
+    counters().skips.increment();
+    LOG.warn("{} skipped processing {}: {}", stepName, item, t.toString());
+  }
+
+  //////////////////////////////////////////////////////////////////////////////////////////////////////////////////
+
+  private boolean isSampled(LongAdder counter) {
+    return sampleRate > 0 && counter.sum() % sampleRate == 0;
+  }
+
+  /** Counters of a single step execution */
+  protected static class Counters {
+
+    protected final StepExecution stepExecution;
+
+    protected final long started = System.nanoTime();
+
+    /** Start of current read, process or write */
+    private long start;
+
+    private long lastProgress = started;
+
+    private long itemsAtLastProgress;
+
+    protected final LongAdder reads = new LongAdder();
+    protected final LongAdder readErrors = new LongAdder();
+    protected final LongAdder readNanos = new LongAdder();
+    protected final LongAdder processed = new LongAdder();
+    protected final LongAdder filtered = new LongAdder();
+    protected final LongAdder processErrors = new LongAdder();
+    protected final LongAdder retries = new LongAdder();
+    protected final LongAdder processNanos = new LongAdder();
+    protected final LongAdder written = new LongAdder();
+    protected final LongAdder writeErrors = new LongAdder();
+    protected final LongAdder writeNanos = new LongAdder();
+    protected final LongAdder skips = new LongAdder();
+    protected final LongAdder chunks = new LongAdder();
+    protected final LongAdder chunkErrors = new LongAdder();
+
+    protected Counters(StepExecution stepExecution) {
+      this.stepExecution = stepExecution;
+    }
+
+    /** Number of items handled, for progress purposes */
+    protected long items() {
+      return Math.max(reads.sum(), written.sum());
+    }
+
+    @Override
+    public String toString() {
+      final long elapsedMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+      return "read " + reads + " (" + reads.sum() * 1000 / elapsedMillis + "/s, " + millis(readNanos) + " ms)" +
+          ", processed " + processed + " (" + filtered + " filtered, " + millis(processNanos) + " ms)" +
+          ", written " + written + " (" + millis(writeNanos) + " ms)" +
+          ", chunks " + chunks +
+          ", skips " + skips +
+          ", retries " + retries +
+          ", errors " + (readErrors.sum() + processErrors.sum() + writeErrors.sum() + chunkErrors.sum()) +
+          ", elapsed " + elapsedMillis + " ms";
+    }
+
+    private static long millis(LongAdder nanos) {
+      return TimeUnit.NANOSECONDS.toMillis(nanos.sum());
+    }
+  }
+}
@@ -0,0 +1,218 @@
+package se.jiderhamn;
+
+import org.springframework.batch.core.StepExecution;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of a step within a job execution, aggregated over all executions of the step, such as partitions.
+ * @author Mattias Jiderhamn
+ */
+@SuppressWarnings("WeakerAccess")
+public class StepMetrics implements StepMetricsMXBean {
+
+  private final String jobName;
+
+  private final long jobExecutionId;
+
+  private final String stepName;
+
+  final LatencyHistogram readLatency = new LatencyHistogram();
+
+  final LatencyHistogram processLatency = new LatencyHistogram();
+
+  final LatencyHistogram writeLatency = new LatencyHistogram();
+
+  /** Time from start to end of chunk, including commit */
+  final LatencyHistogram chunkLatency = new LatencyHistogram();
+
+  private final LongAdder executions = new LongAdder();
+
+  private final LongAdder itemsRead = new LongAdder();
+
+  private final LongAdder itemsWritten = new LongAdder();
+
+  private final LongAdder commits = new LongAdder();
+
+  private final LongAdder rollbacks = new LongAdder();
+
+  private final LongAdder skips = new LongAdder();
+
+  private final LongAdder retries = new LongAdder();
+
+  /** {@link System#nanoTime()} when first execution started */
+  private final AtomicLong started = new AtomicLong(Long.MAX_VALUE);
+
+  /** {@link System#nanoTime()} when last execution ended */
+  private final AtomicLong ended = new AtomicLong(Long.MIN_VALUE);
+
+  private final AtomicLong heapUsedAtStart = new AtomicLong(-1);
+
+  private volatile long heapUsedAtEnd = -1;
+
+  private final AtomicLong maxHeapUsed = new AtomicLong();
+
+  public StepMetrics(String jobName, long jobExecutionId, String stepName) {
+    this.jobName = jobName;
+    this.jobExecutionId = jobExecutionId;
+    this.stepName = stepName;
+  }
+
+  void stepStarted() {
+    started.accumulateAndGet(System.nanoTime(), Math::min);
+    heapUsedAtStart.compareAndSet(-1, sampleHeap());
+  }
+
+  /** Add counts of step execution that has ended */
+  void stepEnded(StepExecution stepExecution, long retries) {
+    ended.accumulateAndGet(System.nanoTime(), Math::max);
+    heapUsedAtEnd = sampleHeap();
+    executions.increment();
+    this.retries.add(retries);
+    if(stepExecution != null) {
+      itemsRead.add(stepExecution.getReadCount());
+      itemsWritten.add(stepExecution.getWriteCount());
+      commits.add(stepExecution.getCommitCount());
+      rollbacks.add(stepExecution.getRollbackCount());
+      skips.add(stepExecution.getSkipCount());
+    }
+  }
+
+  /** Record used heap, and return it */
+  long sampleHeap() {
+    final Runtime runtime = Runtime.getRuntime();
+    final long used = runtime.totalMemory() - runtime.freeMemory();
+    maxHeapUsed.accumulateAndGet(used, Math::max);
+    return used;
+  }
+
+  @Override
+  public String getJobName() {
+    return jobName;
+  }
+
+  @Override
+  public long getJobExecutionId() {
+    return jobExecutionId;
+  }
+
+  @Override
+  public String getStepName() {
+    return stepName;
+  }
+
+  @Override
+  public long getExecutions() {
+    return executions.sum();
+  }
+
+  @Override
+  public long getItemsRead() {
+    return itemsRead.sum();
+  }
+
+  @Override
+  public long getItemsWritten() {
+    return itemsWritten.sum();
+  }
+
+  @Override
+  public long getItemsPerSecond() {
+    return Math.max(getItemsRead(), getItemsWritten()) * 1000 / Math.max(1, getElapsedMillis());
+  }
+
+  @Override
+  public long getElapsedMillis() {
+    final long start = started.get();
+    if(start == Long.MAX_VALUE)
+      return 0;
+    final long end = (ended.get() >= start) ? ended.get() : System.nanoTime();
+    return TimeUnit.NANOSECONDS.toMillis(end - start);
+  }
+
+  @Override
+  public long getCommits() {
+    return commits.sum();
+  }
+
+  @Override
+  public long getRollbacks() {
+    return rollbacks.sum();
+  }
+
+  @Override
+  public long getSkips() {
+    return skips.sum();
+  }
+
+  @Override
+  public long getRetries() {
+    return retries.sum();
+  }
+
+  @Override
+  public Map<String, Long> getReadLatency() {
+    return readLatency.summary();
+  }
+
+  @Override
+  public Map<String, Long> getProcessLatency() {
+    return processLatency.summary();
+  }
+
+  @Override
+  public Map<String, Long> getWriteLatency() {
+    return writeLatency.summary();
+  }
+
+  @Override
+  public Map<String, Long> getChunkLatency() {
+    return chunkLatency.summary();
+  }
+
+  @Override
+  public long getHeapUsedAtStart() {
+    return heapUsedAtStart.get();
+  }
+
+  @Override
+  public long getHeapUsedAtEnd() {
+    return heapUsedAtEnd;
+  }
+
+  @Override
+  public long getMaxHeapUsed() {
+    return maxHeapUsed.get();
+  }
+
+  /** All metrics, in order */
+  public Map<String, Object> toMap() {
+    final Map<String, Object> map = new LinkedHashMap<>();
+    map.put("executions", getExecutions());
+    map.put("itemsRead", getItemsRead());
+    map.put("itemsWritten", getItemsWritten());
+    map.put("itemsPerSecond", getItemsPerSecond());
+    map.put("elapsedMillis", getElapsedMillis());
+    map.put("commits", getCommits());
+    map.put("rollbacks", getRollbacks());
+    map.put("skips", getSkips());
+    map.put("retries", getRetries());
+    map.put("readLatency", getReadLatency());
+    map.put("processLatency", getProcessLatency());
+    map.put("writeLatency", getWriteLatency());
+    map.put("chunkLatency", getChunkLatency());
+    map.put("heapUsedAtStart", getHeapUsedAtStart());
+    map.put("heapUsedAtEnd", getHeapUsedAtEnd());
+    map.put("maxHeapUsed", getMaxHeapUsed());
+    return map;
+  }
+
+  @Override
+  public String toString() {
+    return stepName + toMap();
+  }
+}
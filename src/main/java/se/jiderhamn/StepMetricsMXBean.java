@@ -0,0 +1,50 @@
+package se.jiderhamn;
+
+import java.util.Map;
+
+/**
+ * Metrics of a step, as exposed via JMX. Latencies are in nanoseconds per chunk and heap usage in bytes.
+ * @author Mattias Jiderhamn
+ */
+@SuppressWarnings("unused")
+public interface StepMetricsMXBean {
+
+  String getJobName();
+
+  long getJobExecutionId();
+
+  String getStepName();
+
+  /** Number of executions of the step, such as partitions */
+  long getExecutions();
+
+  long getItemsRead();
+
+  long getItemsWritten();
+
+  long getItemsPerSecond();
+
+  long getElapsedMillis();
+
+  long getCommits();
+
+  long getRollbacks();
+
+  long getSkips();
+
+  long getRetries();
+
+  Map<String, Long> getReadLatency();
+
+  Map<String, Long> getProcessLatency();
+
+  Map<String, Long> getWriteLatency();
+
+  Map<String, Long> getChunkLatency();
+
+  long getHeapUsedAtStart();
+
+  long getHeapUsedAtEnd();
+
+  long getMaxHeapUsed();
+}
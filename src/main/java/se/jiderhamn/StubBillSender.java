@@ -0,0 +1,135 @@
+package se.jiderhamn;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * {@link BillSender} that pretends to send bills, after a simulated latency per batch and with a simulated share of
+ * failed bills. Remembers the idempotency keys that have been delivered, and counts attempts to deliver them again.
+ * @author Mattias Jiderhamn
+ */
+@SuppressWarnings("WeakerAccess")
+public class StubBillSender implements BillSender {
+
+  private static final Logger LOG = LoggerFactory.getLogger("StubBillSender");
+
+  /** Completes batches after the latency, without blocking a thread while waiting */
+  private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+    final Thread thread = new Thread(runnable, "stub-bill-sender");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private volatile long latencyMillis;
+
+  private volatile double failureRate;
+
+  /** Bills that always fail */
+  private volatile Predicate<Bill> failing = bill -> false;
+
+  /** If set, batches are sent by tasks that block during the latency, like a client with blocking I/O would */
+  private volatile Executor blockingExecutor;
+
+  private final Set<String> delivered = ConcurrentHashMap.newKeySet();
+
+  private final LongAdder batches = new LongAdder();
+
+  private final LongAdder duplicates = new LongAdder();
+
+  public void setLatencyMillis(long latencyMillis) {
+    this.latencyMillis = latencyMillis;
+  }
+
+  public void setFailureRate(double failureRate) {
+    this.failureRate = failureRate;
+  }
+
+  public void setFailing(Predicate<Bill> failing) {
+    this.failing = failing;
+  }
+
+  public void setBlockingExecutor(Executor blockingExecutor) {
+    this.blockingExecutor = blockingExecutor;
+  }
+
+  @Override
+  public CompletableFuture<List<Result>> send(Map<String, Bill> bills) {
+    final Executor blockingExecutor = this.blockingExecutor;
+    if(blockingExecutor != null) {
+      return CompletableFuture.supplyAsync(() -> {
+        try {
+          Thread.sleep(latencyMillis);
+        }
+        catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new CompletionException(e);
+        }
+        return deliver(bills);
+      }, blockingExecutor);
+    }
+    
+    final CompletableFuture<List<Result>> future = new CompletableFuture<>();
+    scheduler.schedule(() -> future.complete(deliver(bills)), latencyMillis, TimeUnit.MILLISECONDS);
+    return future;
+  }
+
+  private List<Result> deliver(Map<String, Bill> bills) {
+    batches.increment();
+    final List<Result> results = new ArrayList<>(bills.size());
+    for(Map.Entry<String, Bill> entry : bills.entrySet()) {
+      final String idempotencyKey = entry.getKey();
+      if(failing.test(entry.getValue()) || failureRate > 0 && ThreadLocalRandom.current().nextDouble() < failureRate)
+        results.add(Result.failed(idempotencyKey, "Simulated failure"));
+      else {
+        if(! delivered.add(idempotencyKey)) {
+          duplicates.increment();
+          LOG.warn("{} already delivered - ignoring", idempotencyKey);
+        }
+        results.add(Result.sent(idempotencyKey));
+      }
+    }
+    return results;
+  }
+
+  public int getNoOfDelivered() {
+    return delivered.size();
+  }
+
+  public long getNoOfBatches() {
+    return batches.sum();
+  }
+
+  /** Number of bills submitted again after they had been delivered */
+  public long getNoOfDuplicates() {
+    return duplicates.sum();
+  }
+
+  /** Reset stub for next test case */
+  public void reset() {
+    latencyMillis = 0;
+    failureRate = 0;
+    failing = bill -> false;
+    delivered.clear();
+    batches.reset();
+    duplicates.reset();
+  }
+
+  public void shutdown() {
+    scheduler.shutdownNow();
+  }
+}
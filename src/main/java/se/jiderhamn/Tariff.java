@@ -0,0 +1,73 @@
+package se.jiderhamn;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+
+/**
+ * Prices of calls. Amounts are calculated as {@code long}s in fixed point units, with as many decimals as the most
+ * precise of the prices, so that no {@link BigDecimal}s need to be created per {@link Bill}.
+ * @author Mattias Jiderhamn
+ */
+@SuppressWarnings("WeakerAccess")
+public class Tariff implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  public static final Tariff STANDARD = new Tariff(new BigDecimal("0.5"), new BigDecimal("0.0125"));
+
+  /** Max number of decimals */
+  private static final int MAX_SCALE = 9;
+
+  /** Number of decimals of amounts */
+  private final int scale;
+
+  private final long costPerCall;
+
+  private final long costPerSecond;
+
+  public Tariff(BigDecimal costPerCall, BigDecimal costPerSecond) {
+    this.scale = Math.max(0, Math.max(costPerCall.scale(), costPerSecond.scale()));
+    if(scale > MAX_SCALE)
+      throw new IllegalArgumentException("Prices cannot have more than " + MAX_SCALE + " decimals");
+    this.costPerCall = costPerCall.setScale(scale).unscaledValue().longValueExact();
+    this.costPerSecond = costPerSecond.setScale(scale).unscaledValue().longValueExact();
+  }
+
+  /** Restore stored tariff, with prices in fixed point units */
+  Tariff(int scale, long costPerCall, long costPerSecond) {
+    this.scale = scale;
+    this.costPerCall = costPerCall;
+    this.costPerSecond = costPerSecond;
+  }
+
+  /** @return Amount, in units of 10<sup>-{@link #getScale()}</sup> */
+  public long getAmount(long noOfCalls, long seconds) {
+    return Math.addExact(Math.multiplyExact(noOfCalls, costPerCall), Math.multiplyExact(seconds, costPerSecond));
+  }
+
+  public int getScale() {
+    return scale;
+  }
+
+  /** @return Price per call, in units of 10<sup>-{@link #getScale()}</sup> */
+  long getCostPerCallUnits() {
+    return costPerCall;
+  }
+
+  /** @return Price per second, in units of 10<sup>-{@link #getScale()}</sup> */
+  long getCostPerSecondUnits() {
+    return costPerSecond;
+  }
+
+  public BigDecimal toBigDecimal(long amount) {
+    return BigDecimal.valueOf(amount, scale);
+  }
+
+  @Override
+  public String toString() {
+    return "Tariff{" +
+        "costPerCall=" + toBigDecimal(costPerCall) +
+        ", costPerSecond=" + toBigDecimal(costPerSecond) +
+        '}';
+  }
+}
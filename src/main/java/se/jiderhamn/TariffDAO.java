@@ -0,0 +1,27 @@
+package se.jiderhamn;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tariff plans per subscriber. Subscribers without a plan of their own get {@link Tariff#STANDARD}.
+ * @author Mattias Jiderhamn
+ */
+@SuppressWarnings("WeakerAccess")
+public class TariffDAO {
+
+  private static final Map<String, Tariff> tariffs = new ConcurrentHashMap<>();
+
+  public static void setTariff(String subscriber, Tariff tariff) {
+    tariffs.put(subscriber, tariff);
+  }
+
+  public static Tariff getTariff(String subscriber) {
+    return tariffs.getOrDefault(subscriber, Tariff.STANDARD);
+  }
+
+  /** Reset fake repository for next text case */
+  public static void reset() {
+    tariffs.clear();
+  }
+}
@@ -0,0 +1,98 @@
+package se.jiderhamn;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for tasks that mostly wait, such as sending bills or backing off before a retry. On JDKs with virtual
+ * threads (21+), each task gets a virtual thread of its own, which is cheap enough to have hundreds of thousands of
+ * them waiting. Since this project targets Java 8, virtual threads are looked up via reflection, and on older JDKs a
+ * fixed pool of platform threads is used instead.
+ * @author Mattias Jiderhamn
+ */
+public class VirtualThreads {
+
+  private static final Logger LOG = LoggerFactory.getLogger("VirtualThreads");
+
+  /** Number of platform threads of the fallback executor, if virtual threads are not available */
+  static final int FALLBACK_THREADS = Integer.getInteger("virtualThreads.fallbackThreads", 256);
+
+  /** {@code Thread.ofVirtual()}, or null if not available */
+  private static final Method OF_VIRTUAL;
+
+  /** {@code Thread.Builder.name(String prefix, long start)} */
+  private static final Method NAME;
+
+  /** {@code Thread.Builder.factory()} */
+  private static final Method FACTORY;
+
+  /** {@code Executors.newThreadPerTaskExecutor(ThreadFactory)} */
+  private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+  static {
+    Method ofVirtual = null, name = null, factory = null, newThreadPerTaskExecutor = null;
+    try {
+      final Class<?> builder = Class.forName("java.lang.Thread$Builder");
+      ofVirtual = Thread.class.getMethod("ofVirtual");
+      name = builder.getMethod("name", String.class, long.class);
+      factory = builder.getMethod("factory");
+      newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+      ofVirtual.invoke(null); // Fails if preview feature not enabled
+    }
+    catch (ReflectiveOperationException e) {
+      LOG.debug("Virtual threads not available - using platform threads", e);
+      ofVirtual = null;
+    }
+    OF_VIRTUAL = ofVirtual;
+    NAME = name;
+    FACTORY = factory;
+    NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+  }
+
+  private VirtualThreads() {
+  }
+
+  public static boolean isAvailable() {
+    return OF_VIRTUAL != null;
+  }
+
+  /** @return Factory of virtual threads, or of daemon platform threads if not available */
+  public static ThreadFactory threadFactory(String namePrefix) {
+    if(isAvailable()) {
+      try {
+        return (ThreadFactory) FACTORY.invoke(NAME.invoke(OF_VIRTUAL.invoke(null), namePrefix, 0L));
+      }
+      catch (ReflectiveOperationException e) {
+        throw new IllegalStateException("Unable to create virtual thread factory", e);
+      }
+    }
+    final AtomicInteger threadNumber = new AtomicInteger();
+    return runnable -> {
+      final Thread thread = new Thread(runnable, namePrefix + threadNumber.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  /**
+   * @return Executor that starts a virtual thread per task, or if not available, one with {@link #FALLBACK_THREADS}
+   * platform threads
+   */
+  public static ExecutorService newExecutor(String namePrefix) {
+    if(isAvailable()) {
+      try {
+        return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, threadFactory(namePrefix));
+      }
+      catch (ReflectiveOperationException e) {
+        throw new IllegalStateException("Unable to create virtual thread executor", e);
+      }
+    }
+    return Executors.newFixedThreadPool(FALLBACK_THREADS, threadFactory(namePrefix));
+  }
+}
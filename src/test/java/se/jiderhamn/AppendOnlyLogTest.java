@@ -0,0 +1,79 @@
+package se.jiderhamn;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Mattias Jiderhamn
+ */
+public class AppendOnlyLogTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void corruptLastRecordTruncated() throws IOException {
+    final Path directory = folder.getRoot().toPath();
+    final long lastPosition = writeRecords(directory);
+    try(FileChannel channel = FileChannel.open(segment(directory), StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[] {'X'}), lastPosition + 1); // Checksum no longer matches
+    }
+
+    assertRecoveredAndAppendable(directory);
+  }
+
+  @Test
+  public void tornLastRecordTruncated() throws IOException {
+    final Path directory = folder.getRoot().toPath();
+    final long lastPosition = writeRecords(directory);
+    try(FileChannel channel = FileChannel.open(segment(directory), StandardOpenOption.WRITE)) {
+      channel.truncate(lastPosition + 2); // Crashed in the middle of the payload
+    }
+
+    assertRecoveredAndAppendable(directory);
+  }
+
+  /** @return Position of the payload of the last record */
+  private static long writeRecords(Path directory) throws IOException {
+    try(AppendOnlyLog log = new AppendOnlyLog(directory, "test", 1 << 20)) {
+      log.append(StandardCharsets.UTF_8.encode("first"));
+      log.append(StandardCharsets.UTF_8.encode("second"));
+      final AppendOnlyLog.Location last = log.append(StandardCharsets.UTF_8.encode("third"));
+      log.sync(last.sequence);
+      return last.position;
+    }
+  }
+
+  private static Path segment(Path directory) {
+    return directory.resolve("test-000000.log");
+  }
+
+  private static void assertRecoveredAndAppendable(Path directory) throws IOException {
+    try(AppendOnlyLog log = new AppendOnlyLog(directory, "test", 1 << 20)) {
+      assertEquals(Arrays.asList("first", "second"), readAll(log));
+      log.sync(log.append(StandardCharsets.UTF_8.encode("fourth")).sequence);
+    }
+    try(AppendOnlyLog log = new AppendOnlyLog(directory, "test", 1 << 20)) {
+      assertEquals(Arrays.asList("first", "second", "fourth"), readAll(log));
+    }
+  }
+
+  private static List<String> readAll(AppendOnlyLog log) throws IOException {
+    final List<String> records = new ArrayList<>();
+    log.forEach((location, payload) -> records.add(StandardCharsets.UTF_8.decode(payload).toString()));
+    return records;
+  }
+}
@@ -28,17 +28,17 @@ public class BatchTestConfiguration extends DefaultBatchConfigurer {
 
     @Override
     protected void doBegin(Object o, TransactionDefinition transactionDefinition) throws TransactionException {
-      LOG.info("Beginning transaction");
+      LOG.debug("Beginning transaction");
     }
 
     @Override
     protected void doCommit(DefaultTransactionStatus defaultTransactionStatus) throws TransactionException {
-      LOG.info("Committing transaction");
+      LOG.debug("Committing transaction");
     }
 
     @Override
     protected void doRollback(DefaultTransactionStatus defaultTransactionStatus) throws TransactionException {
-      LOG.info("Rolling transaction back");
+      LOG.debug("Rolling transaction back");
     }
   };
   
@@ -0,0 +1,57 @@
+package se.jiderhamn;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Mattias Jiderhamn
+ */
+public class BillTest {
+  
+  @After
+  public void tearDown() {
+    TariffDAO.reset();
+  }
+
+  /** Amount calculated the way it was before {@link Tariff} */
+  private static BigDecimal bigDecimalAmount(BigDecimal costPerCall, BigDecimal costPerSecond, long noOfCalls, long seconds) {
+    return costPerCall.multiply(new BigDecimal(noOfCalls)).add(costPerSecond.multiply(new BigDecimal(seconds)));
+  }
+
+  @Test
+  public void amountSameAsBigDecimal() {
+    final BigDecimal costPerCall = new BigDecimal("0.5");
+    final BigDecimal costPerSecond = new BigDecimal("0.0125");
+    final Random random = new Random(42);
+    for(int i = 0; i < 100_000; i++) {
+      final long noOfCalls = (i < 100) ? i : random.nextInt(1_000_000);
+      final long seconds = (i < 100) ? i * 17 : (long) random.nextInt(Integer.MAX_VALUE) * random.nextInt(1000);
+      final Bill bill = new Bill("0701111111", noOfCalls, Duration.ofSeconds(seconds));
+      // Same scale, not only same value
+      assertEquals(bigDecimalAmount(costPerCall, costPerSecond, noOfCalls, seconds), bill.getAmount());
+    }
+  }
+  
+  @Test
+  public void tariffPerSubscriber() {
+    final BigDecimal costPerCall = new BigDecimal("1");
+    final BigDecimal costPerSecond = new BigDecimal("0.001");
+    TariffDAO.setTariff("0702222222", new Tariff(costPerCall, costPerSecond));
+
+    assertEquals(new BigDecimal("2.7500"), new Bill("0701111111", 3, Duration.ofSeconds(100)).getAmount());
+    assertEquals(bigDecimalAmount(costPerCall, costPerSecond, 3, 100), 
+        new Bill("0702222222", 3, Duration.ofSeconds(100)).getAmount());
+  }
+  
+  @Test(expected = ArithmeticException.class)
+  public void overflow() {
+    new Bill("0701111111", Long.MAX_VALUE / 2, Duration.ZERO);
+  }
+
+}
@@ -1,58 +1,223 @@
 package se.jiderhamn;
 
-import org.apache.commons.lang3.StringUtils;
-
-import java.time.Duration;
-import java.time.format.DateTimeFormatter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
+ * Generates call logs with random calls, straight to file. The calls are generated in shards of fixed size that are
+ * written in parallel, each with its own seed, so that the output depends only on the parameters and the seed, not
+ * on the number of threads. Since all lines have the same length, each shard knows where in the file to write.
+ * Memory use does not depend on the number of calls or subscribers.
  * @author Mattias Jiderhamn
  */
-@SuppressWarnings("SameParameterValue")
+@SuppressWarnings({"SameParameterValue", "WeakerAccess"})
 public class CallLogGenerator {
-  
-  private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("HH:mm:ss");
 
-  private final Random rand = new Random();
-  
-  private final List<String> subscribers = new ArrayList<>();
+  /** Length of {@code 070xxxxxxx | 070xxxxxxx | HH:mm:ss\n} */
+  private static final int LINE_LENGTH = 35;
+
+  /** Max number of subscribers, since they are on the format {@code 070xxxxxxx} */
+  private static final int MAX_SUBSCRIBERS = 10_000_000;
+
+  /**
+   * Subscriber number {@code i} is {@code (i * MULTIPLIER + offset) mod MAX_SUBSCRIBERS}, which is unique as long as
+   * MULTIPLIER and MAX_SUBSCRIBERS are coprime. No need to remember subscribers to avoid duplicates.
+   */
+  private static final long MULTIPLIER = 7_919_371;
+
+  private static final int CALLS_PER_SHARD = 1 << 20;
+
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  private int noOfSubscribers = 150;
+
+  private long noOfCalls = 4000;
+
+  /** Exponent of Zipf distribution of callers, or 0 for uniform distribution */
+  private double zipfExponent = 0;
+
+  /** Share of lines with an invalid duration, such as {@code 00:00;55} */
+  private double errorRate = 0;
+
+  private long seed = 0;
+
+  private int threads = Runtime.getRuntime().availableProcessors();
+
+  public static void main(String[] args) throws IOException {
+    if(args.length == 0) {
+      System.err.println("Usage: CallLogGenerator file [noOfCalls [noOfSubscribers [zipfExponent [errorRate [seed]]]]]");
+      System.exit(1);
+    }
+
+    final CallLogGenerator generator = new CallLogGenerator();
+    if(args.length > 1)
+      generator.calls(Long.parseLong(args[1]));
+    if(args.length > 2)
+      generator.subscribers(Integer.parseInt(args[2]));
+    if(args.length > 3)
+      generator.zipfExponent(Double.parseDouble(args[3]));
+    if(args.length > 4)
+      generator.errorRate(Double.parseDouble(args[4]));
+    if(args.length > 5)
+      generator.seed(Long.parseLong(args[5]));
 
-  public static void main(String[] args) {
-    System.out.println(new CallLogGenerator()
-      .generateSubscribers(150)
-      .generateCalls(4000));
+    final long start = System.nanoTime();
+    generator.writeTo(Paths.get(args[0]));
+    System.out.println("Generated " + generator.noOfCalls + " calls in " + (System.nanoTime() - start) / 1_000_000 + " ms");
   }
 
-  private CallLogGenerator generateSubscribers(int noOfSubscribers) {
-    while(subscribers.size() < noOfSubscribers) {
-      final int r = rand.nextInt(10000000);
-      final String subscriber = "070" + StringUtils.leftPad(Integer.toString(r), 7, "0");
-      if(! subscribers.contains(subscriber)) { // (Yuk!)
-        subscribers.add(subscriber);
+  /** Write call log with random calls to file */
+  static void generate(Path file, int noOfSubscribers, int noOfCalls) throws IOException {
+    new CallLogGenerator()
+        .subscribers(noOfSubscribers)
+        .calls(noOfCalls)
+        .writeTo(file);
+  }
+
+  public CallLogGenerator subscribers(int noOfSubscribers) {
+    if(noOfSubscribers < 2 || noOfSubscribers > MAX_SUBSCRIBERS)
+      throw new IllegalArgumentException("Number of subscribers must be between 2 and " + MAX_SUBSCRIBERS);
+    this.noOfSubscribers = noOfSubscribers;
+    return this;
+  }
+
+  public CallLogGenerator calls(long noOfCalls) {
+    this.noOfCalls = noOfCalls;
+    return this;
+  }
+
+  public CallLogGenerator zipfExponent(double zipfExponent) {
+    this.zipfExponent = zipfExponent;
+    return this;
+  }
+
+  public CallLogGenerator errorRate(double errorRate) {
+    this.errorRate = errorRate;
+    return this;
+  }
+
+  public CallLogGenerator seed(long seed) {
+    this.seed = seed;
+    return this;
+  }
+
+  public CallLogGenerator threads(int threads) {
+    this.threads = threads;
+    return this;
+  }
+
+  public void writeTo(Path file) throws IOException {
+    final long noOfShards = (noOfCalls + CALLS_PER_SHARD - 1) / CALLS_PER_SHARD;
+    final ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try(FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+        StandardOpenOption.TRUNCATE_EXISTING)) {
+      final List<Future<?>> shards = new ArrayList<>();
+      for(long shard = 0; shard < noOfShards; shard++) {
+        final long firstCall = shard * CALLS_PER_SHARD;
+        final long lastCall = Math.min(noOfCalls, firstCall + CALLS_PER_SHARD);
+        final long shardSeed = seed * 1_000_003 + shard;
+        shards.add(executor.submit(() -> writeShard(channel, firstCall, lastCall, shardSeed)));
       }
+      for(Future<?> shard : shards)
+        shard.get();
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted", e);
+    }
+    catch (ExecutionException e) {
+      throw new IOException("Unable to generate " + file, e.getCause());
+    }
+    finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private void writeShard(FileChannel channel, long firstCall, long lastCall, long shardSeed) {
+    final SplittableRandom rand = new SplittableRandom(shardSeed);
+    final long subscriberOffset = new SplittableRandom(seed).nextInt(MAX_SUBSCRIBERS);
+    final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE - BUFFER_SIZE % LINE_LENGTH);
+    long position = firstCall * LINE_LENGTH;
+    try {
+      for(long i = firstCall; i < lastCall; i++) {
+        final int caller = nextCaller(rand);
+        int receiver;
+        do {
+          receiver = rand.nextInt(noOfSubscribers);
+        } while(caller == receiver);
+        final int seconds = rand.nextInt(4000) + 1;
+        final boolean error = errorRate > 0 && rand.nextDouble() < errorRate;
+
+        putSubscriber(buffer, caller, subscriberOffset);
+        putSeparator(buffer);
+        putSubscriber(buffer, receiver, subscriberOffset);
+        putSeparator(buffer);
+        putTwoDigits(buffer, seconds / 3600);
+        buffer.put((byte) ':');
+        putTwoDigits(buffer, seconds / 60 % 60);
+        buffer.put((byte) (error ? ';' : ':'));
+        putTwoDigits(buffer, seconds % 60);
+        buffer.put((byte) '\n');
+
+        if(! buffer.hasRemaining())
+          position = flush(channel, buffer, position);
+      }
+      flush(channel, buffer, position);
+    }
+    catch (IOException e) {
+      throw new UncheckedIOException(e);
     }
-    return this;
   }
 
-  private String generateCalls(int noOfCalls) {
-    if(subscribers.isEmpty())
-      throw new IllegalStateException("No subscribers!");
-    
-    StringBuilder sb = new StringBuilder();
-    for(int i = 0; i < noOfCalls; i++) {
-      final int caller = rand.nextInt(subscribers.size());
-      int receiver;
-      do {
-        receiver = rand.nextInt(subscribers.size());
-      } while(caller == receiver);
-      Duration duration = Duration.ofSeconds(rand.nextInt(4000) + 1);
+  /** Index of caller, in uniform or Zipf distribution */
+  private int nextCaller(SplittableRandom rand) {
+    if(zipfExponent <= 0)
+      return rand.nextInt(noOfSubscribers);
+
+    // Approximate by inverting the CDF of the continuous counterpart of the distribution
+    final double u = rand.nextDouble();
+    final double x = (zipfExponent == 1) ? Math.pow(noOfSubscribers + 1, u) :
+        Math.pow((Math.pow(noOfSubscribers + 1, 1 - zipfExponent) - 1) * u + 1, 1 / (1 - zipfExponent));
+    return Math.min(noOfSubscribers - 1, Math.max(0, (int) x - 1));
+  }
 
-      sb.append(subscribers.get(caller)).append(" | ").append(subscribers.get(receiver)).append(" | ").append(PhoneCall.MIDNIGHT.plus(duration).format(FORMATTER)).append("\n");
+  private static void putSubscriber(ByteBuffer buffer, int index, long offset) {
+    int number = (int) ((index * MULTIPLIER + offset) % MAX_SUBSCRIBERS);
+    buffer.put((byte) '0').put((byte) '7').put((byte) '0');
+    final int start = buffer.position();
+    for(int i = 6; i >= 0; i--) {
+      buffer.put(start + i, (byte) ('0' + number % 10));
+      number /= 10;
     }
-    return sb.toString();
+    buffer.position(start + 7);
+  }
+
+  private static void putSeparator(ByteBuffer buffer) {
+    buffer.put((byte) ' ').put((byte) '|').put((byte) ' ');
+  }
+
+  private static void putTwoDigits(ByteBuffer buffer, int value) {
+    buffer.put((byte) ('0' + value / 10)).put((byte) ('0' + value % 10));
+  }
+
+  private static long flush(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    buffer.flip();
+    while(buffer.hasRemaining())
+      position += channel.write(buffer, position);
+    buffer.clear();
+    return position;
   }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,94 @@
+package se.jiderhamn;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Mattias Jiderhamn
+ */
+public class ConcurrentAppendListTest {
+
+  private static final int WRITERS = 4;
+
+  private static final int ITEMS_PER_WRITER = 50_000;
+
+  /** Readers see every index below the size, while writers append single items and ranges across segments */
+  @Test
+  public void concurrentAppendAndRead() throws Exception {
+    final List<Integer> list = new ConcurrentAppendList<>();
+    final ExecutorService executor = Executors.newFixedThreadPool(WRITERS + 1);
+    try {
+      final CountDownLatch start = new CountDownLatch(1);
+      final List<Future<?>> writers = new ArrayList<>();
+      for(int w = 0; w < WRITERS; w++) {
+        final int writer = w;
+        writers.add(executor.submit(() -> {
+          start.await();
+          for(int i = 0; i < ITEMS_PER_WRITER; ) {
+            final int item = writer * ITEMS_PER_WRITER + i;
+            if(i % 3 == 0 && i + 2 < ITEMS_PER_WRITER) {
+              list.addAll(Arrays.asList(item, item + 1, item + 2));
+              i += 3;
+            }
+            else {
+              list.add(item);
+              i++;
+            }
+          }
+          return null;
+        }));
+      }
+      final Future<Integer> reader = executor.submit(() -> {
+        start.await();
+        int read = 0;
+        while(read < WRITERS * ITEMS_PER_WRITER) {
+          for(final int size = list.size(); read < size; read++)
+            list.get(read); // Waits for items reserved but not yet written
+        }
+        return read;
+      });
+      start.countDown();
+      for(Future<?> writer : writers)
+        writer.get(30, TimeUnit.SECONDS);
+      assertEquals(WRITERS * ITEMS_PER_WRITER, (int) reader.get(30, TimeUnit.SECONDS));
+    }
+    finally {
+      executor.shutdownNow();
+    }
+
+    assertEquals(WRITERS * ITEMS_PER_WRITER, list.size());
+    final boolean[] seen = new boolean[WRITERS * ITEMS_PER_WRITER];
+    for(Integer item : list) {
+      assertTrue("Duplicate " + item, ! seen[item]);
+      seen[item] = true;
+    }
+  }
+
+  @Test
+  public void nullRejectedBeforeReserving() {
+    final List<String> list = new ConcurrentAppendList<>();
+    list.add("first");
+    try {
+      list.addAll(Arrays.asList("second", null));
+      fail("Null should not be allowed");
+    }
+    catch (NullPointerException e) {
+      // Expected
+    }
+    assertEquals(1, list.size());
+    list.add("third");
+    assertEquals(Arrays.asList("first", "third"), list);
+  }
+}
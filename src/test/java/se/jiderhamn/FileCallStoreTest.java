@@ -0,0 +1,52 @@
+package se.jiderhamn;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Mattias Jiderhamn
+ */
+public class FileCallStoreTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private static PhoneCall call(String from, int seconds) {
+    return new PhoneCall(from, "0709999999", Duration.ofSeconds(seconds));
+  }
+
+  /** Chunks 1 and 2 were stored but not committed before a crash, and the restart stores chunk 1 again */
+  @Test
+  public void chunkWrittenAgainOnRestartReplacesUncommitted() throws IOException {
+    final Path directory = folder.getRoot().toPath();
+    try(FileCallStore store = new FileCallStore(directory, call -> { })) {
+      store.append("1/step", 0, singletonList(call("0701111111", 10)));
+      store.append("1/step:partition0", 0, singletonList(call("0702222222", 20))); // Other stream
+      store.append("1/step", 1, singletonList(call("0701111111", 11)));
+      store.append("1/step", 2, singletonList(call("0701111111", 12)));
+      store.append(singletonList(call("0703333333", 30))); // Not part of any stream
+    }
+    try(FileCallStore store = new FileCallStore(directory, call -> { })) {
+      store.append("1/step", 1, Arrays.asList(call("0701111111", 11), call("0701111111", 12)));
+    }
+
+    final List<Integer> replayed = new ArrayList<>();
+    try(FileCallStore store = new FileCallStore(directory, call -> replayed.add((int) call.getDuration().getSeconds()))) {
+      assertEquals(Arrays.asList(10, 20, 30, 11, 12), replayed);
+      assertEquals(5, store.asList().size());
+      assertEquals("0702222222", store.asList().get(1).getFromSubscriber());
+      assertEquals(Duration.ofSeconds(12), store.asList().get(4).getDuration());
+    }
+  }
+}
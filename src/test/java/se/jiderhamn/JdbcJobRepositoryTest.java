@@ -0,0 +1,145 @@
+package se.jiderhamn;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.batch.core.BatchStatus;
+import org.springframework.batch.core.Job;
+import org.springframework.batch.core.JobExecution;
+import org.springframework.batch.core.JobParameters;
+import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.configuration.annotation.EnableBatchProcessing;
+import org.springframework.batch.core.launch.JobLauncher;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import javax.annotation.Resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs {@link JobConfiguration} with the job repository in an embedded H2 database, using {@link JdbcBatchConfigurer}
+ * @author Mattias Jiderhamn
+ */
+@SuppressWarnings("SpringJavaInjectionPointsAutowiringInspection")
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration(classes = {JdbcJobRepositoryTest.H2BatchConfiguration.class, JobConfiguration.class})
+public class JdbcJobRepositoryTest {
+
+  private static final EmbeddedDatabase DATABASE = new EmbeddedDatabaseBuilder()
+      .setType(EmbeddedDatabaseType.H2)
+      .generateUniqueName(true)
+      .addScript("/org/springframework/batch/core/schema-h2.sql")
+      .build();
+
+  @Configuration
+  @EnableBatchProcessing
+  static class H2BatchConfiguration extends JdbcBatchConfigurer {
+    H2BatchConfiguration() {
+      super(DATABASE);
+      setContextCommitInterval(2, JobConfiguration.IDEMPOTENT_STEPS);
+    }
+  }
+
+  @Autowired
+  private JobLauncher jobLauncher;
+
+  @Resource(name = "parseCallLogJob")
+  private Job parseCallLog;
+
+  @Autowired
+  private StubBillSender billSender;
+
+  @Before
+  public void setUp() {
+    billSender.reset();
+    BillDAO.reset();
+    PhoneCallDAO.reset();
+    ApprovalDAO.reset();
+  }
+
+  @Test
+  public void restartFromContextInDatabase() throws Exception {
+    for(String readMode : Arrays.asList(JobConfiguration.READ_MODE_SEQUENTIAL, JobConfiguration.READ_MODE_STREAMING,
+        JobConfiguration.READ_MODE_PARTITIONED)) {
+      setUp();
+      final JobParameters jobParameters = new JobParametersBuilder()
+          .addString("filePath", new File(getClass().getResource("/large.txt").toURI()).getAbsolutePath())
+          .addString("readMode", readMode)
+          .addString("partitions", "4")
+          .addString("maxBatchesInFlight", "1")
+          .toJobParameters();
+      billSender.setFailing(bill -> BillDAO.findAll().indexOf(bill) >= 100); // Second chunk
+
+      final JobExecution jobExecution = jobLauncher.run(parseCallLog, jobParameters);
+      assertEquals(readMode, BatchStatus.FAILED, jobExecution.getStatus());
+      assertEquals(4000, PhoneCallDAO.getNoOfCalls());
+
+      billSender.setFailing(bill -> false);
+      final JobExecution restartExecution = jobLauncher.run(parseCallLog, jobParameters);
+      assertEquals(readMode, BatchStatus.COMPLETED, restartExecution.getStatus());
+      final StepExecution sendBills = restartExecution.getStepExecutions().stream()
+          .filter(stepExecution -> stepExecution.getStepName().equals("sendBills"))
+          .findFirst().orElseThrow(AssertionError::new);
+      assertEquals(readMode, 50, sendBills.getReadCount());
+      assertEquals(readMode, 150, billSender.getNoOfDelivered());
+    }
+
+    final JdbcTemplate jdbcTemplate = new JdbcTemplate(DATABASE);
+    assertEquals("No context in CLOB", 0, (int) jdbcTemplate.queryForObject(
+        "SELECT COUNT(*) FROM BATCH_STEP_EXECUTION_CONTEXT WHERE SERIALIZED_CONTEXT IS NOT NULL", Integer.class));
+    assertTrue("Small contexts", jdbcTemplate.queryForObject(
+        "SELECT MAX(LENGTH(SHORT_CONTEXT)) FROM BATCH_STEP_EXECUTION_CONTEXT", Integer.class) < 500);
+  }
+
+  @Test
+  public void serializeOnlyPositions() throws Exception {
+    final PositionExecutionContextSerializer serializer = new PositionExecutionContextSerializer();
+    final Map<String, Object> context = new HashMap<>();
+    context.put("reader.position", 12345678901L);
+    context.put("reader.lineNumber", 42);
+    context.put("rate", 0.5);
+    context.put("done", true);
+    context.put("path\twith\\odd\nchars", "C:\\calls\t1\r\n");
+    context.put("files", Arrays.asList("a.txt", "", "c\td.txt"));
+    context.put("noFiles", Collections.emptyList());
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    serializer.serialize(context, out);
+    assertEquals(context, serializer.deserialize(new ByteArrayInputStream(out.toByteArray())));
+
+    try {
+      serializer.serialize(Collections.singletonMap("items", Collections.singletonList(new Object())),
+          new ByteArrayOutputStream());
+      fail("Items should not be serialized");
+    }
+    catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("items"));
+    }
+
+    try {
+      final char[] name = new char[PositionExecutionContextSerializer.MAX_LENGTH];
+      Arrays.fill(name, 'x');
+      serializer.serialize(Collections.singletonMap("file", new String(name)), new ByteArrayOutputStream());
+      fail("Context should not spill from short context column");
+    }
+    catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().contains("file"));
+    }
+  }
+}
@@ -1,45 +1,134 @@
 package se.jiderhamn;
 
+import com.github.luben.zstd.ZstdOutputStream;
 import org.junit.Before;
+import org.junit.ClassRule;
+import org.junit.Rule;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
 import org.springframework.batch.core.BatchStatus;
 import org.springframework.batch.core.Job;
 import org.springframework.batch.core.JobExecution;
 import org.springframework.batch.core.JobParameters;
 import org.springframework.batch.core.JobParametersBuilder;
+import org.springframework.batch.core.JobParametersInvalidException;
+import org.springframework.batch.core.StepExecution;
+import org.springframework.batch.core.explore.JobExplorer;
 import org.springframework.batch.core.launch.JobLauncher;
+import org.springframework.batch.core.repository.JobInstanceAlreadyCompleteException;
+import org.springframework.batch.core.repository.JobRepository;
+import org.springframework.batch.item.ExecutionContext;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.retry.support.RetryTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.test.context.ContextConfiguration;
-import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.junit4.rules.SpringClassRule;
+import org.springframework.test.context.junit4.rules.SpringMethodRule;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
 import javax.annotation.Resource;
+import javax.management.ObjectName;
 
+import static java.util.stream.Collectors.toList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 /**
  * @author Mattias Jiderhamn
  */
 @SuppressWarnings("SpringJavaInjectionPointsAutowiringInspection")
-@RunWith(SpringJUnit4ClassRunner.class)
+@RunWith(Parameterized.class)
 @ContextConfiguration(classes = {BatchTestConfiguration.class, JobConfiguration.class})
 public class JobConfigurationTest {
   
+  @ClassRule
+  public static final SpringClassRule SPRING_CLASS_RULE = new SpringClassRule();
+  
+  @Rule
+  public final SpringMethodRule springMethodRule = new SpringMethodRule();
+  
+  private static final int PARTITIONS = 4;
+  
+  /** Run all tests in each read mode */
+  @Parameterized.Parameters(name = "{0}")
+  public static Collection<Object[]> readModes() {
+    return Arrays.asList(new Object[][] {
+        {JobConfiguration.READ_MODE_SEQUENTIAL, 3},
+        {JobConfiguration.READ_MODE_STREAMING, 2},
+        {JobConfiguration.READ_MODE_PARTITIONED, 3 + PARTITIONS} // Incl one step execution per partition
+    });
+  }
+  
+  @Parameterized.Parameter
+  public String readMode;
+
+  /** Number of steps executed before stopping for manual approval */
+  @Parameterized.Parameter(1)
+  public int noOfStepsBeforeApproval;
+  
   @Autowired
   private JobLauncher jobLauncher;
   
   @Resource(name = "parseCallLogJob")
   private Job parseCallLog;
   
+  @Resource(name = "parseCallLogsJob")
+  private Job parseCallLogs;
+  
+  @Autowired
+  private JobExplorer jobExplorer;
+  
+  @Autowired
+  private JobRepository jobRepository;
+  
+  @Autowired
+  private ChunkChannel billingChannel;
+  
+  @Autowired
+  private BillingWorkers billingWorkers;
+  
+  @Autowired
+  private StubBillSender billSender;
+  
+  @Autowired
+  private JobLaunchService jobLaunchService;
+
+  @Resource(name = "launchTaskExecutor")
+  private ThreadPoolTaskExecutor launchTaskExecutor;
+  
   @Before
   public void setUp() {
+    billSender.reset();
     BillDAO.reset();
     PhoneCallDAO.reset();
+    ApprovalDAO.reset();
   }
   
   private String getPath(String resource) throws URISyntaxException {
@@ -50,10 +139,18 @@ public class JobConfigurationTest {
   public void parseSmallCallLog() throws Exception {
     final JobExecution jobExecution = jobLauncher.run(parseCallLog, new JobParametersBuilder()
         .addString("filePath", getPath("/basic.txt"))
+        .addString("readMode", readMode)
+        .addString("partitions", Integer.toString(PARTITIONS))
         .toJobParameters());
     
     assertEquals(BatchStatus.COMPLETED, jobExecution.getStatus());
-    assertEquals(8, PhoneCallDAO.findAll().size());
+    assertEquals(8, PhoneCallDAO.getNoOfCalls());
+    assertEquals(4, PhoneCallDAO.getTotalNoOfCallsFrom("0701111111"));
+    assertEquals(Duration.ofSeconds(38 + 92 + 55 + 225), PhoneCallDAO.getTotalDurationOfCallsFrom("0701111111"));
+    assertEquals(1, PhoneCallDAO.getTotalNoOfCallsFrom("0703333333"));
+    assertEquals(Duration.ofSeconds(122), PhoneCallDAO.getTotalDurationOfCallsFrom("0703333333"));
+    if(JobConfiguration.READ_MODE_SEQUENTIAL.equals(readMode))
+      assertEquals("PhoneCall[0701111111 -> 0702222222 PT38S]", PhoneCallDAO.findAll().get(0).toString());
     final List<Bill> allBills = BillDAO.findAll();
     assertEquals(3, allBills.size());
     assertTrue(allBills.stream().allMatch(Bill::isSent));
@@ -63,33 +160,515 @@ public class JobConfigurationTest {
   public void parseSmallCallLogWithSkippableError() throws Exception {
     final JobExecution jobExecution = jobLauncher.run(parseCallLog, new JobParametersBuilder()
         .addString("filePath", getPath("/error.txt"))
+        .addString("readMode", readMode)
+        .addString("partitions", Integer.toString(PARTITIONS))
         .toJobParameters());
     
     assertEquals(BatchStatus.COMPLETED, jobExecution.getStatus());
-    assertEquals(7, PhoneCallDAO.findAll().size());
+    assertEquals(7, PhoneCallDAO.getNoOfCalls());
     final List<Bill> allBills = BillDAO.findAll();
     assertEquals(3, allBills.size());
     assertTrue(allBills.stream().allMatch(Bill::isSent));
   }
   
+  @Test
+  public void parseCallLogWithSkipRatio() throws Exception {
+    final List<String> lines = Files.readAllLines(new File(getPath("/large.txt")).toPath());
+    for(int i = 50; i < lines.size(); i += 100) // 1 %
+      lines.set(i, lines.get(i).replace(':', ';'));
+    final Path callLog = Files.write(Files.createTempFile("calls", ".txt"), lines);
+    final Path quarantineFile = Files.createTempFile("calls", ".quarantine");
+    try {
+      final JobParametersBuilder jobParameters = new JobParametersBuilder()
+          .addString("filePath", callLog.toString())
+          .addString("readMode", readMode)
+          .addString("partitions", Integer.toString(PARTITIONS))
+          .addString(Quarantine.QUARANTINE_FILE, quarantineFile.toString());
+      assertEquals("Default ratio exceeded", BatchStatus.FAILED,
+          jobLauncher.run(parseCallLog, jobParameters.toJobParameters()).getStatus());
+
+      Files.write(quarantineFile, new byte[0]);
+      PhoneCallDAO.reset();
+      final JobExecution jobExecution = jobLauncher.run(parseCallLog, jobParameters
+          .addString(SkipRatioPolicy.MAX_SKIP_RATIO, "0.02")
+          .toJobParameters());
+
+      assertEquals(BatchStatus.COMPLETED, jobExecution.getStatus());
+      assertEquals(lines.size() - 40, PhoneCallDAO.getNoOfCalls());
+      final List<String> quarantined = Files.readAllLines(quarantineFile);
+      assertEquals(40, quarantined.size());
+      assertTrue(quarantined.get(0), quarantined.get(0).matches(".*\\t\\d+\\tInvalid duration\\t\\d+ \\| \\d+ \\| \\d\\d;\\d\\d;\\d\\d"));
+      assertEquals("Summary in step executions", 40, jobExecution.getStepExecutions().stream()
+          .mapToInt(stepExecution -> stepExecution.getExecutionContext().getInt(Quarantine.QUARANTINED_LINES, 0))
+          .sum());
+    }
+    finally {
+      Files.delete(callLog);
+      Files.delete(quarantineFile);
+    }
+  }
+  
+  /** Skips spread over the partitions, 3 per partition, that exceed the limit of 10 shared by all partitions */
+  @Test
+  public void partitionedSkipsExceedSharedLimit() throws Exception {
+    if(! JobConfiguration.READ_MODE_PARTITIONED.equals(readMode))
+      return;
+    final List<String> lines = Files.readAllLines(new File(getPath("/large.txt")).toPath());
+    final Path callLog = Files.write(Files.createTempFile("calls", ".txt"), withBadLinesInEachPartition(lines));
+    try {
+      final JobExecution jobExecution = jobLauncher.run(parseCallLog, new JobParametersBuilder()
+          .addString("filePath", callLog.toString())
+          .addString("readMode", readMode)
+          .addString("partitions", Integer.toString(PARTITIONS))
+          .toJobParameters());
+      assertEquals("Shared skip limit exceeded", BatchStatus.FAILED, jobExecution.getStatus());
+      final List<StepExecution> partitions = getPartitions(jobExecution);
+      assertEquals(PARTITIONS, partitions.size());
+      assertTrue("Limit not exceeded by any partition alone", 
+          partitions.stream().allMatch(partition -> partition.getReadSkipCount() <= 3));
+    }
+    finally {
+      Files.delete(callLog);
+    }
+  }
+
+  /** Fail partitions by exceeding the shared skip limit, then restart only those after correcting the lines */
+  @Test
+  public void restartFailedPartition() throws Exception {
+    if(! JobConfiguration.READ_MODE_PARTITIONED.equals(readMode))
+      return;
+    final List<String> lines = Files.readAllLines(new File(getPath("/large.txt")).toPath());
+    final Path callLog = Files.write(Files.createTempFile("calls", ".txt"), withBadLinesInEachPartition(lines));
+    try {
+      final JobParameters jobParameters = new JobParametersBuilder()
+          .addString("filePath", callLog.toString())
+          .addString("readMode", readMode)
+          .addString("partitions", Integer.toString(PARTITIONS))
+          .toJobParameters();
+      final JobExecution jobExecution = jobLauncher.run(parseCallLog, jobParameters);
+      assertEquals(BatchStatus.FAILED, jobExecution.getStatus());
+      final List<StepExecution> partitions = getPartitions(jobExecution);
+      final long failed = partitions.stream().filter(partition -> partition.getStatus() == BatchStatus.FAILED).count();
+      assertTrue(failed > 0);
+      final int skipsCommitted = partitions.stream().mapToInt(StepExecution::getReadSkipCount).sum();
+
+      Files.write(callLog, lines); // Same length, so the ranges of the partitions still apply
+      final JobExecution restartExecution = jobLauncher.run(parseCallLog, jobParameters);
+      assertEquals(BatchStatus.COMPLETED, restartExecution.getStatus());
+      assertEquals("Only failed partitions restarted", failed, getPartitions(restartExecution).size());
+      assertEquals("Lines committed before failure not read again", lines.size() - skipsCommitted, 
+          PhoneCallDAO.getNoOfCalls());
+      assertEquals(150, BillDAO.findAll().size());
+    }
+    finally {
+      Files.delete(callLog);
+    }
+  }
+
+  /** @return Lines with 3 invalid durations in each quarter of the file */
+  private static List<String> withBadLinesInEachPartition(List<String> lines) {
+    final List<String> withErrors = new ArrayList<>(lines);
+    for(int quarter = 0; quarter < PARTITIONS; quarter++) {
+      for(int i = 1; i <= 3; i++) {
+        final int index = quarter * lines.size() / PARTITIONS + i * 200;
+        withErrors.set(index, lines.get(index).replace(':', ';'));
+      }
+    }
+    return withErrors;
+  }
+
+  private static List<StepExecution> getPartitions(JobExecution jobExecution) {
+    return jobExecution.getStepExecutions().stream()
+        .filter(stepExecution -> stepExecution.getStepName().startsWith("readCallDataFromFileRange:"))
+        .filter(stepExecution -> stepExecution.getId() != null) // Partitions completed before restart are not saved
+        .collect(toList());
+  }
+
+  @Test
+  public void launchFromWarmContext() throws Exception {
+    final JobParameters jobParameters = new JobParametersBuilder()
+        .addString("filePath", getPath("/basic.txt"))
+        .addString("readMode", readMode)
+        .addString("partitions", Integer.toString(PARTITIONS))
+        .addString("billingMode", JobConfiguration.BILLING_MODE_SERIAL)
+        .toJobParameters();
+    final CompletableFuture<JobExecution> execution = jobLaunchService.launch(jobParameters);
+    assertEquals(BatchStatus.COMPLETED, execution.get(10, TimeUnit.SECONDS).getStatus());
+    assertEquals(3, BillDAO.findAll().size());
+
+    try {
+      jobLaunchService.launch(jobParameters).join();
+      fail("Same file should not be launched twice");
+    }
+    catch (CompletionException e) {
+      assertTrue(e.getCause() instanceof JobInstanceAlreadyCompleteException);
+    }
+
+    try {
+      jobLaunchService.launch(new JobParametersBuilder()
+          .addString("filePath", getPath("/basic.txt"))
+          .addString("manualApproval", "true", true)
+          .addString("readMode", readMode)
+          .addString(ApprovalRestarter.AUTO_RESTART, "true")
+          .addLong("run.id", 2L)
+          .toJobParameters()).join();
+      fail("Job waiting for approval should need a store directory, as other launches reset the DAOs");
+    }
+    catch (CompletionException e) {
+      assertTrue(e.getCause() instanceof JobParametersInvalidException);
+    }
+  }
+  
+  @Test
+  public void launchFilesFromWarmContext() throws Exception {
+    final List<String> lines = Files.readAllLines(new File(getPath("/basic.txt")).toPath());
+    final Path first = Files.write(Files.createTempFile("calls", ".txt"), lines.subList(0, 4));
+    final Path second = Files.write(Files.createTempFile("calls", ".txt"), lines.subList(4, 8));
+    final List<String> sent = new CopyOnWriteArrayList<>();
+    billSender.setFailing(bill -> {
+      sent.add(bill.getSubscriber() + "=" + bill.getNoOfCalls());
+      return false;
+    });
+    try {
+      final CompletableFuture<JobExecution> firstExecution = jobLaunchService.launch(new JobParametersBuilder()
+          .addString("filePath", first.toString())
+          .addString("readMode", readMode)
+          .toJobParameters());
+      final CompletableFuture<JobExecution> secondExecution = jobLaunchService.launch(new JobParametersBuilder()
+          .addString("filePath", second.toString())
+          .addString("readMode", readMode)
+          .toJobParameters());
+      assertEquals(BatchStatus.COMPLETED, firstExecution.get(10, TimeUnit.SECONDS).getStatus());
+      assertEquals(BatchStatus.COMPLETED, secondExecution.get(10, TimeUnit.SECONDS).getStatus());
+
+      assertEquals("Bills of each file, not of both", Arrays.asList("0701111111=4", "0702222222=3", "0703333333=1"),
+          sent.stream().sorted().collect(toList()));
+    }
+    finally {
+      Files.delete(first);
+      Files.delete(second);
+    }
+  }
+  
   @Test
   public void parseLargeCallLog() throws Exception {
     final JobExecution jobExecution = jobLauncher.run(parseCallLog, new JobParametersBuilder()
         .addString("filePath", getPath("/large.txt"))
+        .addString("readMode", readMode)
+        .addString("partitions", Integer.toString(PARTITIONS))
         .toJobParameters());
     
     assertEquals(BatchStatus.COMPLETED, jobExecution.getStatus());
-    assertEquals(4000, PhoneCallDAO.findAll().size());
+    assertEquals(4000, PhoneCallDAO.getNoOfCalls());
+    assertEquals("Calls stored", JobConfiguration.READ_MODE_STREAMING.equals(readMode) ? 0 : 4000, PhoneCallDAO.findAll().size());
     final List<Bill> allBills = BillDAO.findAll();
     assertEquals(150, allBills.size());
     assertTrue(allBills.stream().allMatch(Bill::isSent));
   }
   
+  @Test
+  public void parseCompressedCallLog() throws Exception {
+    final byte[] callLog = Files.readAllBytes(new File(getPath("/large.txt")).toPath());
+    final Path gzip = Files.createTempFile("large", ".txt.gz");
+    final Path zstd = Files.createTempFile("large", ".txt.zst");
+    try {
+      try(OutputStream out = new GZIPOutputStream(Files.newOutputStream(gzip))) {
+        out.write(callLog);
+      }
+      try(OutputStream out = new ZstdOutputStream(Files.newOutputStream(zstd))) {
+        out.write(callLog);
+      }
+
+      for(Path compressed : Arrays.asList(gzip, zstd)) {
+        setUp();
+        final JobExecution jobExecution = jobLauncher.run(parseCallLog, new JobParametersBuilder()
+            .addString("filePath", compressed.toString())
+            .addString("readMode", readMode)
+            .addString("partitions", Integer.toString(PARTITIONS))
+            .toJobParameters());
+        assertEquals(compressed.toString(), BatchStatus.COMPLETED, jobExecution.getStatus());
+        assertEquals(4000, PhoneCallDAO.getNoOfCalls());
+        assertEquals(150, BillDAO.findAll().size());
+      }
+    }
+    finally {
+      Files.delete(gzip);
+      Files.delete(zstd);
+    }
+  }
+
+  /** Fail in the middle of a compressed file, and restart after the bad lines have been made empty */
+  @Test
+  public void restartCompressedCallLog() throws Exception {
+    final List<String> lines = Files.readAllLines(new File(getPath("/large.txt")).toPath());
+    final List<String> withErrors = new ArrayList<>(lines);
+    for(int i = 0; i < 20; i++)
+      withErrors.add(2000, "Not a call");
+    final Path gzip = Files.createTempFile("restart", ".txt.gz");
+    try {
+      writeGzip(gzip, withErrors);
+      final JobParameters jobParameters = new JobParametersBuilder()
+          .addString("filePath", gzip.toString())
+          .addString("readMode", readMode)
+          .addString("partitions", Integer.toString(PARTITIONS))
+          .toJobParameters();
+      final JobExecution jobExecution = jobLauncher.run(parseCallLog, jobParameters);
+      assertEquals("Skip limit exceeded", BatchStatus.FAILED, jobExecution.getStatus());
+
+      writeGzip(gzip, withErrors.stream().map(line -> line.startsWith("Not") ? "" : line).collect(toList()));
+      final JobExecution restartExecution = jobLauncher.run(parseCallLog, jobParameters);
+      assertEquals(BatchStatus.COMPLETED, restartExecution.getStatus());
+      assertTrue("Lines committed before failure not read again", getCallLogLinesRead(restartExecution) <= 2000);
+      assertEquals("Each call counted once", lines.size(), PhoneCallDAO.getNoOfCalls());
+      assertEquals(150, BillDAO.findAll().size());
+    }
+    finally {
+      Files.delete(gzip);
+    }
+  }
+
+  private static void writeGzip(Path file, List<String> lines) throws IOException {
+    try(OutputStream out = new GZIPOutputStream(Files.newOutputStream(file))) {
+      out.write((String.join("\n", lines) + "\n").getBytes(StandardCharsets.ISO_8859_1));
+    }
+  }
+
+  @Test
+  public void createBillsInParallel() throws Exception {
+    final JobExecution serialExecution = jobLauncher.run(parseCallLog, new JobParametersBuilder()
+        .addString("filePath", getPath("/large.txt"))
+        .addString("readMode", readMode)
+        .addString("partitions", Integer.toString(PARTITIONS))
+        .addString("billingMode", JobConfiguration.BILLING_MODE_SERIAL)
+        .toJobParameters());
+    assertEquals(BatchStatus.COMPLETED, serialExecution.getStatus());
+    final List<String> serialBills = BillDAO.findAll().stream().map(Bill::toString).collect(toList());
+
+    setUp();
+    final JobExecution parallelExecution = jobLauncher.run(parseCallLog, new JobParametersBuilder()
+        .addString("filePath", getPath("/large.txt"))
+        .addString("readMode", readMode)
+        .addString("partitions", Integer.toString(PARTITIONS))
+        .addString("billingMode", JobConfiguration.BILLING_MODE_PARALLEL)
+        .toJobParameters());
+    assertEquals(BatchStatus.COMPLETED, parallelExecution.getStatus());
+    assertEquals(150, BillDAO.findAll().size());
+    if(! JobConfiguration.READ_MODE_PARTITIONED.equals(readMode)) // Order of subscribers depends on partitions
+      assertEquals(serialBills, BillDAO.findAll().stream().map(Bill::toString).collect(toList()));
+  }
+
+  /** Bills created in parallel and sent on {@link JobConfiguration#ioExecutor()}, which is only used on system property */
+  @Test
+  public void createBillsInParallelOnVirtualThreads() throws Exception {
+    if(! JobConfiguration.READ_MODE_SEQUENTIAL.equals(readMode)) // Creates a context of its own, so only once
+      return;
+    System.setProperty("virtualThreads.enabled", "true");
+    try(AnnotationConfigApplicationContext context = // Beans are configured on creation
+            new AnnotationConfigApplicationContext(BatchTestConfiguration.class, JobConfiguration.class)) {
+      final List<String> senderThreads = new CopyOnWriteArrayList<>();
+      context.getBean(StubBillSender.class).setFailing(bill -> {
+        senderThreads.add(Thread.currentThread().getName());
+        return false;
+      });
+      
+      final JobExecution jobExecution = context.getBean(JobLauncher.class).run(
+          context.getBean("parseCallLogJob", Job.class), new JobParametersBuilder()
+          .addString("filePath", getPath("/large.txt"))
+          .addString("billingMode", JobConfiguration.BILLING_MODE_PARALLEL)
+          .toJobParameters());
+      assertEquals(BatchStatus.COMPLETED, jobExecution.getStatus());
+      assertEquals(150, BillDAO.findAll().size());
+      assertTrue("All bills sent", BillDAO.findAll().stream().allMatch(Bill::isSent));
+      assertEquals(150, senderThreads.size());
+      assertTrue("Sent on " + senderThreads, senderThreads.stream().allMatch(name -> name.startsWith("io-")));
+    }
+    finally {
+      System.clearProperty("virtualThreads.enabled");
+    }
+  }
+
+  @Test
+  public void createBillsRemotely() throws Exception {
+    final JobExecution serialExecution = jobLauncher.run(parseCallLog, new JobParametersBuilder()
+        .addString("filePath", getPath("/large.txt"))
+        .addString("readMode", readMode)
+        .addString("partitions", Integer.toString(PARTITIONS))
+        .addString("billingMode", JobConfiguration.BILLING_MODE_SERIAL)
+        .addString("maxChunksOutstanding", "2")
+        .toJobParameters());
+    assertEquals(BatchStatus.COMPLETED, serialExecution.getStatus());
+    final List<String> serialBills = BillDAO.findAll().stream().map(Bill::toString).collect(toList());
+
+    setUp();
+    final JobExecution remoteExecution = jobLauncher.run(parseCallLog, new JobParametersBuilder()
+        .addString("filePath", getPath("/large.txt"))
+        .addString("readMode", readMode)
+        .addString("partitions", Integer.toString(PARTITIONS))
+        .addString("billingMode", JobConfiguration.BILLING_MODE_REMOTE)
+        .addString("maxChunksOutstanding", "2")
+        .toJobParameters());
+    assertEquals(BatchStatus.COMPLETED, remoteExecution.getStatus());
+    assertEquals("Bills created by workers", ! JobConfiguration.READ_MODE_STREAMING.equals(readMode), 
+        remoteExecution.getStepExecutions().stream()
+            .anyMatch(stepExecution -> stepExecution.getStepName().equals("createBillsRemotely")));
+    assertEquals(150, BillDAO.findAll().size());
+    assertTrue(BillDAO.findAll().stream().allMatch(Bill::isSent));
+    if(! JobConfiguration.READ_MODE_PARTITIONED.equals(readMode)) // Order of subscribers depends on partitions
+      assertEquals(serialBills, BillDAO.findAll().stream().map(Bill::toString).collect(toList()));
+  }
+
+  @Test
+  public void createBillsRemotely_restartAfterFailedChunk() throws Exception {
+    if(JobConfiguration.READ_MODE_STREAMING.equals(readMode)) // Bills are created while reading
+      return;
+    final AtomicBoolean failing = new AtomicBoolean(true);
+    final BillingWorkers workers = new BillingWorkers(billingChannel, subscriber -> {
+      final int index = PhoneCallDAO.getSubscribers().indexOf(subscriber);
+      if(failing.get() && index == 20) // Second chunk responded to after the third
+        Thread.sleep(300);
+      if(failing.get() && index == 40) // Third chunk
+        throw new IllegalStateException("Simulated failure");
+      final long noOfCalls = PhoneCallDAO.getTotalNoOfCallsFrom(subscriber);
+      return (noOfCalls > 0) ? new Bill(subscriber, noOfCalls, PhoneCallDAO.getTotalDurationOfCallsFrom(subscriber)) : null;
+    }, new RetryTemplate(), 4);
+    billingWorkers.stop();
+    workers.start();
+    try {
+      final JobParameters jobParameters = new JobParametersBuilder()
+          .addString("filePath", getPath("/large.txt"))
+          .addString("readMode", readMode)
+          .addString("partitions", Integer.toString(PARTITIONS))
+          .addString("billingMode", JobConfiguration.BILLING_MODE_REMOTE)
+          .addString("maxChunksOutstanding", "2")
+          .addString("adaptiveChunkSteps", "createBillsRemotely")
+          .addString("minChunkSize", "20")
+          .addString("maxChunkSize", "20")
+          .toJobParameters();
+      assertEquals(BatchStatus.FAILED, jobLauncher.run(parseCallLog, jobParameters).getStatus());
+      assertTrue("Bills of chunks before the failed one", BillDAO.findAll().size() >= 40);
+      assertTrue(BillDAO.findAll().size() < 150);
+
+      failing.set(false);
+      assertEquals(BatchStatus.COMPLETED, jobLauncher.run(parseCallLog, jobParameters).getStatus());
+      assertEquals("No bill persisted twice", 150, BillDAO.findAll().size());
+      assertEquals(150, BillDAO.findAll().stream().map(Bill::getSubscriber).distinct().count());
+    }
+    finally {
+      workers.stop();
+      billingWorkers.start();
+    }
+  }
+
+  @Test
+  public void sendBillsWithLatencyAndFailures() throws Exception {
+    billSender.setLatencyMillis(5);
+    billSender.setFailureRate(0.3);
+    final JobParameters jobParameters = new JobParametersBuilder()
+        .addString("filePath", getPath("/large.txt"))
+        .addString("readMode", readMode)
+        .addString("partitions", Integer.toString(PARTITIONS))
+        .addString("maxBatchesInFlight", "2")
+        .toJobParameters();
+
+    JobExecution jobExecution = jobLauncher.run(parseCallLog, jobParameters);
+    for(int restarts = 0; jobExecution.getStatus() == BatchStatus.FAILED && restarts < 10; restarts++) {
+      assertTrue("Some bills sent", BillDAO.findAll().stream().anyMatch(Bill::isSent));
+      jobExecution = jobLauncher.run(parseCallLog, jobParameters);
+    }
+
+    assertEquals(BatchStatus.COMPLETED, jobExecution.getStatus());
+    assertEquals(150, BillDAO.findAll().size());
+    assertTrue(BillDAO.findAll().stream().allMatch(Bill::isSent));
+    assertEquals(150, billSender.getNoOfDelivered());
+    assertEquals("Bills sent twice", 0, billSender.getNoOfDuplicates());
+  }
+  
+  @Test
+  public void restartSendBillsFromFirstBillNotSent() throws Exception {
+    final JobParameters jobParameters = new JobParametersBuilder()
+        .addString("filePath", getPath("/large.txt"))
+        .addString("readMode", readMode)
+        .addString("partitions", Integer.toString(PARTITIONS))
+        .addString("maxBatchesInFlight", "1")
+        .toJobParameters();
+    billSender.setFailing(bill -> BillDAO.findAll().indexOf(bill) >= 100); // Second chunk
+    
+    final JobExecution jobExecution = jobLauncher.run(parseCallLog, jobParameters);
+    assertEquals(BatchStatus.FAILED, jobExecution.getStatus());
+    assertEquals(100, BillDAO.findAll().stream().filter(Bill::isSent).count());
+    
+    billSender.setFailing(bill -> false);
+    final JobExecution restartExecution = jobLauncher.run(parseCallLog, jobParameters);
+    assertEquals(BatchStatus.COMPLETED, restartExecution.getStatus());
+    final StepExecution sendBills = restartExecution.getStepExecutions().stream()
+        .filter(stepExecution -> stepExecution.getStepName().equals("sendBills"))
+        .findFirst().orElseThrow(AssertionError::new);
+    assertEquals("Bills read after restart", 50, sendBills.getReadCount());
+    assertTrue(BillDAO.findAll().stream().allMatch(Bill::isSent));
+    assertEquals(150, billSender.getNoOfDelivered());
+  }
+  
+  @Test
+  public void adaptiveChunkSize() throws Exception {
+    final JobExecution jobExecution = jobLauncher.run(parseCallLog, new JobParametersBuilder()
+        .addString("filePath", getPath("/large.txt"))
+        .addString("readMode", readMode)
+        .addString("partitions", Integer.toString(PARTITIONS))
+        .addString("adaptiveChunkSteps", "readCallDataFromFile,readCallDataFromFileRange,aggregateCallDataFromFile")
+        .addString("targetCommitLatency", "60000")
+        .addString("maxChunkSize", "500")
+        .toJobParameters());
+
+    assertEquals(BatchStatus.COMPLETED, jobExecution.getStatus());
+    assertEquals(4000, PhoneCallDAO.getNoOfCalls());
+    assertEquals(150, BillDAO.findAll().size());
+    for(StepExecution stepExecution : jobExecution.getStepExecutions()) {
+      final ExecutionContext executionContext = stepExecution.getExecutionContext();
+      if(stepExecution.getStepName().startsWith("readCallDataFromFileRange") ||
+          stepExecution.getStepName().equals("readCallDataFromFile") ||
+          stepExecution.getStepName().equals("aggregateCallDataFromFile")) {
+        assertEquals("Grown toward max", 500, executionContext.getInt(AdaptiveCompletionPolicy.CHUNK_SIZE));
+        assertEquals(100, executionContext.getInt(AdaptiveCompletionPolicy.MIN_CHUNK_SIZE));
+      }
+      else
+        assertFalse(stepExecution.getStepName(), executionContext.containsKey(AdaptiveCompletionPolicy.CHUNK_SIZE));
+    }
+  }
+  
+  @Test
+  public void dumpMetrics() throws Exception {
+    final Path metricsFile = Files.createTempFile("metrics", ".json");
+    try {
+      final JobExecution jobExecution = jobLauncher.run(parseCallLog, new JobParametersBuilder()
+          .addString("filePath", getPath("/error.txt"))
+          .addString("readMode", readMode)
+          .addString("partitions", Integer.toString(PARTITIONS))
+          .addString("metricsFile", metricsFile.toString())
+          .toJobParameters());
+      assertEquals(BatchStatus.COMPLETED, jobExecution.getStatus());
+
+      final String metrics = new String(Files.readAllBytes(metricsFile), StandardCharsets.UTF_8);
+      assertTrue(metrics, metrics.contains("\"sendBills\": {\"executions\": "));
+      assertTrue(metrics, metrics.contains("\"skips\": 1,"));
+      assertTrue(metrics, metrics.contains("\"chunkLatency\": {\"count\": "));
+
+      final ObjectName sendBills = new ObjectName("se.jiderhamn:type=StepMetrics,job=\"parseCallLog\",step=\"sendBills\"");
+      final long billsSent = (Long) ManagementFactory.getPlatformMBeanServer().getAttribute(sendBills, "ItemsWritten");
+      assertTrue(billsSent > 0);
+      assertEquals("Bills sent, once per execution of step", 0, billsSent % 3);
+    }
+    finally {
+      Files.delete(metricsFile);
+    }
+  }
+  
   @Test
   public void parseCallLog_manualConfirmationRequired() throws Exception {
     final JobParameters jobParameters = new JobParametersBuilder()
         .addString("filePath", getPath("/basic.txt"))
         .addString("manualApproval", "true", true)
+        .addString("readMode", readMode)
+        .addString("partitions", Integer.toString(PARTITIONS))
         .toJobParameters();
     
 
@@ -99,7 +678,7 @@ public class JobConfigurationTest {
 
     // Assert
     assertEquals(BatchStatus.STOPPED, jobExecution.getStatus());
-    assertEquals(3, jobExecution.getStepExecutions().size());
+    assertEquals(noOfStepsBeforeApproval, jobExecution.getStepExecutions().size());
     assertEquals("Bills created", 3, BillDAO.findAll().size());
     assertFalse("No bill sent", BillDAO.findAll().stream().anyMatch(Bill::isSent));
     
@@ -117,4 +696,327 @@ public class JobConfigurationTest {
     assertTrue("All bills sent", BillDAO.findAll().stream().allMatch(Bill::isSent));
   }
   
-}
\ No newline at end of file
+  @Test
+  public void parseCallLog_restartedOnApproval() throws Exception {
+    final JobParameters jobParameters = new JobParametersBuilder()
+        .addString("filePath", getPath("/basic.txt"))
+        .addString("manualApproval", "true", true)
+        .addString("readMode", readMode)
+        .addString("partitions", Integer.toString(PARTITIONS))
+        .addString(ApprovalRestarter.AUTO_RESTART, "true")
+        .toJobParameters();
+    final JobExecution jobExecution = jobLauncher.run(parseCallLog, jobParameters);
+    assertEquals(BatchStatus.STOPPED, jobExecution.getStatus());
+    assertEquals(1, jobExplorer.getJobExecutions(jobExecution.getJobInstance()).size());
+    assertEquals("Relaunched manually before approval", BatchStatus.STOPPED,
+        jobLauncher.run(parseCallLog, jobParameters).getStatus());
+    final long restartsBefore = launchTaskExecutor.getThreadPoolExecutor().getCompletedTaskCount();
+
+    // Act
+    ApprovalDAO.setManuallyApproved(getPath("/basic.txt"), true);
+
+    // Assert
+    final long deadline = System.currentTimeMillis() + 10_000;
+    while(jobExplorer.getJobExecutions(jobExecution.getJobInstance()).stream()
+        .noneMatch(execution -> execution.getStatus() == BatchStatus.COMPLETED)) {
+      assertTrue("Restarted within 10 s", System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+    assertEquals(3, jobExplorer.getJobExecutions(jobExecution.getJobInstance()).size());
+    assertTrue("All bills sent", BillDAO.findAll().stream().allMatch(Bill::isSent));
+    while(launchTaskExecutor.getThreadPoolExecutor().getCompletedTaskCount() == restartsBefore) {
+      assertTrue("Restart completed within 10 s", System.currentTimeMillis() < deadline);
+      Thread.sleep(10);
+    }
+    Thread.sleep(100); // Let any other restart complete
+    assertEquals("Restarted once", 1, launchTaskExecutor.getThreadPoolExecutor().getCompletedTaskCount() - restartsBefore);
+  }
+  
+  @Test
+  public void parseCallLog_notRestartedOnApprovalWhenAbandoned() throws Exception {
+    final JobExecution jobExecution = jobLauncher.run(parseCallLog, new JobParametersBuilder()
+        .addString("filePath", getPath("/basic.txt"))
+        .addString("manualApproval", "true", true)
+        .addString("readMode", readMode)
+        .addString(ApprovalRestarter.AUTO_RESTART, "true")
+        .addLong("run.id", 1L)
+        .toJobParameters());
+    assertEquals(BatchStatus.STOPPED, jobExecution.getStatus());
+    jobExecution.setStatus(BatchStatus.ABANDONED); // As by JobOperator
+    jobRepository.update(jobExecution);
+    assertEquals("Other job finished", BatchStatus.COMPLETED, jobLauncher.run(parseCallLog, new JobParametersBuilder()
+        .addString("filePath", getPath("/error.txt"))
+        .addString("readMode", readMode)
+        .addLong("run.id", 1L)
+        .toJobParameters()).getStatus());
+    final long restartsBefore = launchTaskExecutor.getThreadPoolExecutor().getCompletedTaskCount();
+
+    // Act
+    ApprovalDAO.setManuallyApproved(getPath("/basic.txt"), true);
+
+    // Assert
+    Thread.sleep(100); // Let any restart complete
+    assertEquals("Not restarted", restartsBefore, launchTaskExecutor.getThreadPoolExecutor().getCompletedTaskCount());
+    assertEquals(1, jobExplorer.getJobExecutions(jobExecution.getJobInstance()).size());
+  }
+  
+  @Test
+  public void restartFromStoreDirectoryAfterRecycle() throws Exception {
+    final Path storeDirectory = Files.createTempDirectory("store");
+    try {
+      final JobParameters jobParameters = new JobParametersBuilder()
+          .addString("filePath", getPath("/basic.txt"))
+          .addString("manualApproval", "true", true)
+          .addString("readMode", readMode)
+          .addString("partitions", Integer.toString(PARTITIONS))
+          .addString(JobConfiguration.STORE_DIRECTORY, storeDirectory.toString())
+          .toJobParameters();
+      if(JobConfiguration.READ_MODE_STREAMING.equals(readMode)) {
+        try {
+          jobLauncher.run(parseCallLog, jobParameters);
+          fail("Totals of streaming cannot be restored");
+        }
+        catch (JobParametersInvalidException e) {
+          return;
+        }
+      }
+      assertEquals(BatchStatus.STOPPED, jobLauncher.run(parseCallLog, jobParameters).getStatus());
+      final long noOfCalls = PhoneCallDAO.getNoOfCalls();
+
+      // Pretend JVM recycled while waiting for approval
+      PhoneCallDAO.reset();
+      BillDAO.reset();
+      assertTrue(BillDAO.findAll().isEmpty());
+
+      ApprovalDAO.setManuallyApproved(getPath("/basic.txt"), true);
+      final JobExecution restartExecution = jobLauncher.run(parseCallLog, jobParameters);
+      assertEquals(BatchStatus.COMPLETED, restartExecution.getStatus());
+      assertEquals("Bills restored", 3, BillDAO.findAll().size());
+      assertTrue("All bills sent", BillDAO.findAll().stream().allMatch(Bill::isSent));
+      assertEquals("Calls restored", noOfCalls, PhoneCallDAO.getNoOfCalls());
+      assertEquals(noOfCalls, PhoneCallDAO.findAll().size());
+
+      // Sent flags survive another recycle
+      BillDAO.reset();
+      BillDAO.open(storeDirectory);
+      assertTrue("Sent bills restored", BillDAO.findAll().stream().allMatch(Bill::isSent));
+    }
+    finally {
+      PhoneCallDAO.reset();
+      BillDAO.reset();
+      try(Stream<Path> files = Files.list(storeDirectory)) {
+        for(Path file : files.collect(toList()))
+          Files.delete(file);
+      }
+      Files.delete(storeDirectory);
+    }
+  }
+  
+  @Test
+  public void incrementalRebilling() throws Exception {
+    final List<String> lines = Files.readAllLines(new File(getPath("/basic.txt")).toPath());
+    final Path callLog = Files.createTempFile("growing", ".txt");
+    try {
+      Files.write(callLog, lines.subList(0, 4)); // Only calls from 0701111111
+      final JobExecution firstExecution = runIncremental(callLog, 1);
+      assertEquals(BatchStatus.COMPLETED, firstExecution.getStatus());
+      assertEquals(1, BillDAO.findAll().size());
+      assertEquals(4, getCallLogLinesRead(firstExecution));
+
+      // Append calls from other subscribers, and a line not yet completely written
+      Files.write(callLog, lines.subList(4, 8), StandardOpenOption.APPEND);
+      Files.write(callLog, "0701111111 | 07022".getBytes(StandardCharsets.ISO_8859_1), StandardOpenOption.APPEND);
+      final JobExecution secondExecution = runIncremental(callLog, 2);
+      assertEquals(BatchStatus.COMPLETED, secondExecution.getStatus());
+      assertEquals("Only appended lines read", 4, getCallLogLinesRead(secondExecution));
+      assertEquals(8, PhoneCallDAO.getNoOfCalls());
+      assertEquals(3, BillDAO.findAll().size());
+      assertEquals("Unchanged bill not sent again", 3, billSender.getNoOfDelivered());
+      assertBilledOnly(2, secondExecution); // 0702222222 and 0703333333
+
+      // Complete the last line
+      Files.write(callLog, "22222 | 00:01:00\n".getBytes(StandardCharsets.ISO_8859_1), StandardOpenOption.APPEND);
+      final JobExecution thirdExecution = runIncremental(callLog, 3);
+      assertEquals(BatchStatus.COMPLETED, thirdExecution.getStatus());
+      assertEquals(1, getCallLogLinesRead(thirdExecution));
+      assertEquals("Bill replaced", 3, BillDAO.findAll().size());
+      final Bill bill = BillDAO.findAll().stream().filter(b -> b.getSubscriber().equals("0701111111")).findAny().get();
+      assertEquals(5, bill.getNoOfCalls());
+      assertTrue(bill.isSent());
+      assertEquals("Changed bill sent again", 4, billSender.getNoOfDelivered());
+      assertBilledOnly(1, thirdExecution);
+    }
+    finally {
+      Files.delete(callLog);
+    }
+  }
+
+  @Test
+  public void incrementalAfterFullRunRejected() throws Exception {
+    final Path callLog = Files.createTempFile("full", ".txt");
+    try {
+      Files.copy(new File(getPath("/basic.txt")).toPath(), callLog, StandardCopyOption.REPLACE_EXISTING);
+      final JobExecution fullExecution = jobLauncher.run(parseCallLog, new JobParametersBuilder()
+          .addString("filePath", callLog.toString())
+          .addString("readMode", readMode)
+          .toJobParameters());
+      assertEquals(BatchStatus.COMPLETED, fullExecution.getStatus());
+      final long noOfCalls = PhoneCallDAO.getNoOfCalls();
+
+      final JobExecution incrementalExecution = runIncremental(callLog, 1);
+      assertEquals(BatchStatus.FAILED, incrementalExecution.getStatus());
+      assertTrue(incrementalExecution.getAllFailureExceptions().get(0).getMessage().contains("without incremental"));
+      assertEquals("Calls not counted twice", noOfCalls, PhoneCallDAO.getNoOfCalls());
+    }
+    finally {
+      Files.delete(callLog);
+    }
+  }
+
+  @Test
+  public void incrementalAfterFailedRunRejected() throws Exception {
+    final List<String> lines = Files.readAllLines(new File(getPath("/large.txt")).toPath());
+    final Path callLog = Files.createTempFile("growing", ".txt");
+    try {
+      Files.write(callLog, lines.subList(0, 1000));
+      assertEquals(BatchStatus.COMPLETED, runIncremental(callLog, 1).getStatus());
+
+      // Append lines of which the last ones exceed the skip limit, failing after some chunks have been committed
+      final List<String> appended = new ArrayList<>(lines.subList(1000, 2000));
+      for(int i = appended.size() - 20; i < appended.size(); i++)
+        appended.set(i, appended.get(i).replace(':', ';'));
+      Files.write(callLog, appended, StandardOpenOption.APPEND);
+      final JobExecution failedExecution = runIncremental(callLog, 2);
+      assertEquals(BatchStatus.FAILED, failedExecution.getStatus());
+      final long noOfCalls = PhoneCallDAO.getNoOfCalls();
+      assertTrue("Some chunks committed", noOfCalls > 1000);
+
+      final JobExecution nextExecution = runIncremental(callLog, 3);
+      assertEquals(BatchStatus.FAILED, nextExecution.getStatus());
+      assertTrue(nextExecution.getAllFailureExceptions().get(0).getMessage().contains("must be restarted"));
+      assertEquals("Calls not counted twice", noOfCalls, PhoneCallDAO.getNoOfCalls());
+
+      // Correct the lines, keeping their length, and restart the failed run
+      Files.write(callLog, lines.subList(0, 2000));
+      assertEquals(BatchStatus.COMPLETED, runIncremental(callLog, 2).getStatus());
+      assertEquals(2000, PhoneCallDAO.getNoOfCalls());
+      if(JobConfiguration.READ_MODE_PARTITIONED.equals(readMode)) // In-memory repository cannot list its executions
+        return;
+      final JobExecution lastExecution = runIncremental(callLog, 4);
+      assertEquals(BatchStatus.COMPLETED, lastExecution.getStatus());
+      assertEquals("Nothing left to read", 0, getCallLogLinesRead(lastExecution));
+      assertEquals(2000, PhoneCallDAO.getNoOfCalls());
+    }
+    finally {
+      Files.delete(callLog);
+    }
+  }
+
+  private JobExecution runIncremental(Path callLog, long run) throws Exception {
+    return jobLauncher.run(parseCallLog, new JobParametersBuilder()
+        .addString("filePath", callLog.toString())
+        .addString("incremental", "true")
+        .addString("readMode", readMode)
+        .addString("partitions", Integer.toString(PARTITIONS))
+        .addLong("run.id", run)
+        .toJobParameters());
+  }
+
+  /** Assert that bills were created and sent only for the subscribers with calls in the lines read */
+  private void assertBilledOnly(int subscribers, JobExecution jobExecution) {
+    for(StepExecution stepExecution : jobExecution.getStepExecutions()) {
+      if(stepExecution.getStepName().matches("createBills|sendBills"))
+        assertEquals(stepExecution.getStepName(), subscribers, stepExecution.getReadCount());
+    }
+  }
+
+  /** @return Number of lines read by the step reading the call log, or all its partitions */
+  private static int getCallLogLinesRead(JobExecution jobExecution) {
+    return jobExecution.getStepExecutions().stream()
+        .filter(stepExecution -> stepExecution.getStepName().matches("readCallDataFromFile|aggregateCallDataFromFile|readCallDataFromFilePartitioned"))
+        .mapToInt(StepExecution::getReadCount)
+        .sum();
+  }
+  
+  @Test
+  public void parseMultipleCallLogs() throws Exception {
+    if(! JobConfiguration.READ_MODE_SEQUENTIAL.equals(readMode)) // Read mode does not apply
+      return;
+    final List<String> lines = Files.readAllLines(new File(getPath("/basic.txt")).toPath());
+    final Path directory = Files.createTempDirectory("calls");
+    final Path first = Files.write(directory.resolve("switch-1.txt"), lines.subList(0, 4));
+    final Path second = Files.write(directory.resolve("switch-2.txt"), lines.subList(4, 8));
+    final Path withError = Files.copy(new File(getPath("/error.txt")).toPath(), directory.resolve("switch-3.txt"));
+    final Path other = Files.write(directory.resolve("other.txt"), lines);
+    try {
+      ApprovalDAO.setManuallyApproved(first.toString(), true);
+      ApprovalDAO.setManuallyApproved(second.toString(), true);
+      final JobParameters jobParameters = new JobParametersBuilder()
+          .addString("fileGlob", directory.resolve("switch-*.txt").toString())
+          .addString("concurrency", "2")
+          .addString("manualApproval", "true")
+          .toJobParameters();
+      final JobExecution jobExecution = jobLauncher.run(parseCallLogs, jobParameters);
+      assertEquals("Not all files approved", BatchStatus.STOPPED, jobExecution.getStatus());
+      assertEquals(15, PhoneCallDAO.getNoOfCalls());
+      assertEquals("Totals of all files", 4 + 3, PhoneCallDAO.getTotalNoOfCallsFrom("0701111111"));
+      assertEquals(3, BillDAO.findAll().size());
+      final List<StepExecution> fileExecutions = jobExecution.getStepExecutions().stream()
+          .filter(stepExecution -> stepExecution.getStepName().startsWith("readCallLogFile:"))
+          .collect(toList());
+      assertEquals(3, fileExecutions.size());
+      assertEquals("Skips per file", Arrays.asList(0, 0, 1),
+          fileExecutions.stream().sorted(Comparator.comparing(StepExecution::getStepName))
+              .map(StepExecution::getSkipCount).collect(toList()));
+
+      ApprovalDAO.setManuallyApproved(withError.toString(), true);
+      final Path arrived = Files.write(directory.resolve("switch-4.txt"), lines); // Not approved, but not included
+      Files.setLastModifiedTime(arrived, FileTime.fromMillis(System.currentTimeMillis() + 60_000));
+      final JobExecution restartExecution = jobLauncher.run(parseCallLogs, jobParameters);
+      assertEquals(BatchStatus.COMPLETED, restartExecution.getStatus());
+      assertEquals("Only files of first execution", 15, PhoneCallDAO.getNoOfCalls());
+      assertTrue("All bills sent", BillDAO.findAll().stream().allMatch(Bill::isSent));
+    }
+    finally {
+      Files.deleteIfExists(directory.resolve("switch-4.txt"));
+      for(Path file : Arrays.asList(first, second, withError, other))
+        Files.delete(file);
+      Files.delete(directory);
+    }
+  }
+  
+  @Test
+  public void parseMultipleCallLogs_restartFailsWhenFilesChanged() throws Exception {
+    if(! JobConfiguration.READ_MODE_SEQUENTIAL.equals(readMode)) // Read mode does not apply
+      return;
+    final List<String> lines = Files.readAllLines(new File(getPath("/basic.txt")).toPath());
+    final Path directory = Files.createTempDirectory("calls");
+    final Path first = Files.write(directory.resolve("switch-1.txt"), lines.subList(0, 4));
+    final Path second = Files.write(directory.resolve("switch-2.txt"), lines.subList(4, 8));
+    final Path moved = directory.resolve("switch-0.txt");
+    try {
+      ApprovalDAO.setManuallyApproved(first.toString(), true);
+      final JobParameters jobParameters = new JobParametersBuilder()
+          .addString("fileGlob", directory.toString())
+          .addString("manualApproval", "true")
+          .toJobParameters();
+      assertEquals("Not all files approved", BatchStatus.STOPPED, jobLauncher.run(parseCallLogs, jobParameters).getStatus());
+      assertEquals(8, PhoneCallDAO.getNoOfCalls());
+
+      Files.write(moved, lines); // As if moved there, keeping the modification time
+      Files.setLastModifiedTime(moved, FileTime.fromMillis(Files.getLastModifiedTime(first).toMillis() - 60_000));
+      ApprovalDAO.setManuallyApproved(second.toString(), true);
+      ApprovalDAO.setManuallyApproved(moved.toString(), true);
+      final JobExecution restartExecution = jobLauncher.run(parseCallLogs, jobParameters);
+      assertEquals(BatchStatus.FAILED, restartExecution.getStatus());
+      assertTrue(restartExecution.getAllFailureExceptions().stream().anyMatch(IllegalStateException.class::isInstance));
+      assertEquals("Nothing read again", 8, PhoneCallDAO.getNoOfCalls());
+    }
+    finally {
+      for(Path file : Arrays.asList(first, second, moved))
+        Files.deleteIfExists(file);
+      Files.delete(directory);
+    }
+  }
+  
+}
@@ -0,0 +1,55 @@
+package se.jiderhamn;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.batch.item.file.FlatFileParseException;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Collections.singletonList;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Mattias Jiderhamn
+ */
+public class QuarantineWriterTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  /** An entry that cannot be written must not stop the writer thread, that flush and close wait for */
+  @Test(timeout = 30_000)
+  public void keepsWritingAfterRuntimeException() throws Exception {
+    final Path file = folder.getRoot().toPath().resolve("test.quarantine");
+    final QuarantineWriter writer = new QuarantineWriter(10);
+    writer.start();
+    try {
+      writer.append(file, new FlatFileParseException("Broken", "ignored", 1) {
+        @Override
+        public String getInput() {
+          throw new IllegalStateException("Broken entry");
+        }
+      });
+      writer.flush(file);
+
+      writer.append(file, new FlatFileParseException("Bad line", "Not a call", 2));
+      CompletableFuture.runAsync(() -> {
+        try {
+          writer.close(file);
+        }
+        catch (InterruptedException e) {
+          throw new IllegalStateException(e);
+        }
+      }).get(10, TimeUnit.SECONDS);
+      assertEquals(singletonList("\t2\tBad line\tNot a call"), Files.readAllLines(file, StandardCharsets.ISO_8859_1));
+    }
+    finally {
+      writer.stop();
+    }
+  }
+}